@@ -6,12 +6,21 @@ import android.content.SharedPreferences;
 
 import org.osmdroid.views.MapView;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
 import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.export.Backup;
+import de.hauke_stieler.geonotes.export.Delta;
 import de.hauke_stieler.geonotes.export.Exporter;
+import de.hauke_stieler.geonotes.export.Importer;
 import de.hauke_stieler.geonotes.notes.NoteIconProvider;
+import de.hauke_stieler.geonotes.photo.PhotoMaintenance;
+import de.hauke_stieler.geonotes.photo.ThumbnailService;
 
 import static android.content.Context.MODE_PRIVATE;
 
@@ -27,12 +36,21 @@ interface ClassBuilder<T> {
 public class Injector {
     protected static Map<Class, Object> classes = new HashMap<>();
     protected static Map<Class, ClassBuilder> classBuilders = new HashMap<>();
+    // Classes that don't depend on the activity and therefore survive its recreation. They only
+    // use the application context, so there's no danger of leaking an old activity.
+    protected static Set<Class> applicationScopedClasses = new HashSet<>(Arrays.asList(Database.class, AsyncDatabase.class, Exporter.class, ThumbnailService.class, NoteIconProvider.class));
     private static Context context;
     private static Activity activity;
 
     static {
         classBuilders.put(Database.class, () -> buildDatabase());
+        classBuilders.put(AsyncDatabase.class, () -> buildAsyncDatabase());
         classBuilders.put(Exporter.class, () -> buildExporter());
+        classBuilders.put(Importer.class, () -> buildImporter());
+        classBuilders.put(Backup.class, () -> buildBackup());
+        classBuilders.put(Delta.class, () -> buildDelta());
+        classBuilders.put(ThumbnailService.class, () -> buildThumbnailService());
+        classBuilders.put(PhotoMaintenance.class, () -> buildPhotoMaintenance());
         classBuilders.put(SharedPreferences.class, () -> buildSharedPreferences());
         classBuilders.put(MapView.class, () -> buildMapView());
         classBuilders.put(NoteIconProvider.class, () -> buildNoteIconProvider());
@@ -44,7 +62,13 @@ public class Injector {
         context = activity.getApplicationContext();
 
         // Example: The user rotates the device -> MainActivity will be recreated -> Dependencies may also need to be recreated (e.g. the map).
+        Map<Class, Object> oldClasses = classes;
         classes = new HashMap<>();
+        for (Class clazz : applicationScopedClasses) {
+            if (oldClasses.containsKey(clazz)) {
+                classes.put(clazz, oldClasses.get(clazz));
+            }
+        }
     }
 
     public static <T> T get(Class<T> clazz) {
@@ -66,8 +90,32 @@ public class Injector {
         return new Database(context);
     }
 
+    private static AsyncDatabase buildAsyncDatabase() {
+        return new AsyncDatabase(get(Database.class));
+    }
+
     private static Exporter buildExporter() {
-        return new Exporter(get(Database.class), context);
+        return new Exporter(get(AsyncDatabase.class), context);
+    }
+
+    private static Importer buildImporter() {
+        return new Importer(get(AsyncDatabase.class), context);
+    }
+
+    private static Backup buildBackup() {
+        return new Backup(get(AsyncDatabase.class), context);
+    }
+
+    private static Delta buildDelta() {
+        return new Delta(get(AsyncDatabase.class), context);
+    }
+
+    private static ThumbnailService buildThumbnailService() {
+        return new ThumbnailService(context);
+    }
+
+    private static PhotoMaintenance buildPhotoMaintenance() {
+        return new PhotoMaintenance(get(AsyncDatabase.class), context);
     }
 
     private static SharedPreferences buildSharedPreferences() {
@@ -79,11 +127,11 @@ public class Injector {
     }
 
     private static NoteIconProvider buildNoteIconProvider() {
-        return new NoteIconProvider(context, get(Database.class));
+        return new NoteIconProvider(context, get(Database.class), get(AsyncDatabase.class));
     }
 
     private static de.hauke_stieler.geonotes.map.Map buildMap() {
         MapView mapView = get(MapView.class);
-        return new de.hauke_stieler.geonotes.map.Map(context, mapView, get(Database.class), get(SharedPreferences.class), get(NoteIconProvider.class));
+        return new de.hauke_stieler.geonotes.map.Map(context, mapView, get(AsyncDatabase.class), get(SharedPreferences.class), get(NoteIconProvider.class));
     }
 }
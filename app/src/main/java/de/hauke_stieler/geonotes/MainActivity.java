@@ -13,11 +13,13 @@ import android.text.method.LinkMovementMethod;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.view.menu.ActionMenuItemView;
 import androidx.appcompat.widget.PopupMenu;
@@ -32,33 +34,42 @@ import org.osmdroid.events.ScrollEvent;
 import org.osmdroid.events.ZoomEvent;
 
 import java.io.File;
-import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import de.hauke_stieler.geonotes.categories.CategoryConfigurationActivity;
 import de.hauke_stieler.geonotes.common.FileHelper;
-import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
 import de.hauke_stieler.geonotes.export.Exporter;
+import de.hauke_stieler.geonotes.export.Importer;
 import de.hauke_stieler.geonotes.map.Map;
 import de.hauke_stieler.geonotes.map.MarkerFragment;
 import de.hauke_stieler.geonotes.map.TouchDownListener;
 import de.hauke_stieler.geonotes.note_list.NoteListActivity;
-import de.hauke_stieler.geonotes.photo.ThumbnailUtil;
+import de.hauke_stieler.geonotes.photo.PhotoMaintenance;
+import de.hauke_stieler.geonotes.photo.ThumbnailService;
 import de.hauke_stieler.geonotes.settings.SettingsActivity;
 
 public class MainActivity extends AppCompatActivity {
 
+    private static final int REQUEST_CATEGORIES = 7;
+    private static final int REQUEST_IMPORT_FILE = 5;
     private static final int REQUEST_NOTE_LIST_REQUEST_CODE = 4;
     private static final int REQUEST_PERMISSIONS_REQUEST_CODE = 3;
     private static final int REQUEST_CAMERA_PERMISSIONS_REQUEST_CODE = 2;
     private static final int REQUEST_IMAGE_CAPTURE = 1;
 
+    private static final long PHOTO_CLEANUP_INTERVAL = TimeUnit.DAYS.toMillis(7);
+
     private Map map;
     private SharedPreferences preferences;
-    private Database database;
+    private AsyncDatabase database;
     private Exporter exporter;
+    private Importer importer;
+    private ThumbnailService thumbnailService;
+    private AlertDialog exportProgressDialog;
     private Toolbar toolbar;
 
     // These fields exist to remember the photo data when the photo Intent is started. This is
@@ -76,9 +87,11 @@ public class MainActivity extends AppCompatActivity {
 
         setContentView(R.layout.activity_main);
 
-        database = Injector.get(Database.class);
+        database = Injector.get(AsyncDatabase.class);
         preferences = Injector.get(SharedPreferences.class);
         exporter = Injector.get(Exporter.class);
+        importer = Injector.get(Importer.class);
+        thumbnailService = Injector.get(ThumbnailService.class);
 
         toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -95,6 +108,27 @@ public class MainActivity extends AppCompatActivity {
 
         createMarkerFragment();
         createMap();
+        cleanUpPhotosIfDue();
+    }
+
+    /**
+     * Removes orphaned photo files once in a while (s. "PhotoMaintenance").
+     */
+    private void cleanUpPhotosIfDue() {
+        long lastPhotoCleanup = preferences.getLong(getString(R.string.pref_last_photo_cleanup), 0);
+        long now = System.currentTimeMillis();
+        if (now - lastPhotoCleanup < PHOTO_CLEANUP_INTERVAL) {
+            return;
+        }
+
+        Injector.get(PhotoMaintenance.class).run(freedBytes -> {
+            // Try again next time, if the cleanup failed or the storage was not available
+            if (freedBytes == null || freedBytes < 0) {
+                return;
+            }
+            Log.i("PhotoCleanup", "Freed " + freedBytes + " bytes");
+            preferences.edit().putLong(getString(R.string.pref_last_photo_cleanup), now).apply();
+        });
     }
 
     private void createMarkerFragment() {
@@ -141,14 +175,23 @@ public class MainActivity extends AppCompatActivity {
 
         exportPopupMenu.getMenu().add(0, 0, 0, "GeoJson");
         exportPopupMenu.getMenu().add(0, 1, 1, "GPX");
+        exportPopupMenu.getMenu().add(0, 2, 2, R.string.import_file);
 
         exportPopupMenu.setOnMenuItemClickListener(menuItem -> {
             switch (menuItem.getItemId()) {
                 case 0:
                     exporter.shareAsGeoJson();
+                    showExportProgressDialog();
                     break;
                 case 1:
                     exporter.shareAsGpx();
+                    showExportProgressDialog();
+                    break;
+                case 2:
+                    Intent importIntent = new Intent(Intent.ACTION_GET_CONTENT);
+                    importIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                    importIntent.setType("*/*");
+                    startActivityForResult(Intent.createChooser(importIntent, null), REQUEST_IMPORT_FILE);
                     break;
             }
             return true;
@@ -156,6 +199,49 @@ public class MainActivity extends AppCompatActivity {
         exportPopupMenu.show();
     }
 
+    /**
+     * Shows the progress of the currently running export until it's done.
+     */
+    private void showExportProgressDialog() {
+        if (!exporter.isRunning() || exportProgressDialog != null) {
+            return;
+        }
+
+        ProgressBar progressBar = new ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal);
+        progressBar.setIndeterminate(true);
+        int padding = (int) (20 * getResources().getDisplayMetrics().density);
+        progressBar.setPadding(padding, padding, padding, 0);
+
+        exportProgressDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.export_in_progress)
+                .setView(progressBar)
+                .setCancelable(false)
+                .setNegativeButton(R.string.export_cancel, (dialog, id) -> exporter.cancel())
+                .show();
+
+        exporter.setProgressListener(new Exporter.ProgressListener() {
+            @Override
+            public void onProgress(long exportedNotes, long totalNotes) {
+                progressBar.setIndeterminate(false);
+                progressBar.setMax((int) totalNotes);
+                progressBar.setProgress((int) exportedNotes);
+            }
+
+            @Override
+            public void onFinished() {
+                dismissExportProgressDialog();
+            }
+        });
+    }
+
+    private void dismissExportProgressDialog() {
+        exporter.setProgressListener(null);
+        if (exportProgressDialog != null) {
+            exportProgressDialog.dismiss();
+            exportProgressDialog = null;
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.toolbar_menu, menu);
@@ -182,7 +268,7 @@ public class MainActivity extends AppCompatActivity {
                 startActivity(new Intent(this, SettingsActivity.class));
                 return true;
             case R.id.toolbar_btn_categories:
-                startActivity(new Intent(this, CategoryConfigurationActivity.class));
+                startActivityForResult(new Intent(this, CategoryConfigurationActivity.class), REQUEST_CATEGORIES);
                 return true;
             case R.id.toolbar_btn_note_list:
                 startActivityForResult(new Intent(this, NoteListActivity.class), REQUEST_NOTE_LIST_REQUEST_CODE);
@@ -197,6 +283,9 @@ public class MainActivity extends AppCompatActivity {
         super.onResume();
         loadPreferences();
         map.onResume();
+
+        // An export might still be running after the activity has been recreated
+        showExportProgressDialog();
     }
 
     @Override
@@ -207,6 +296,8 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onDestroy() {
+        // The export itself continues, only the dialog belongs to this activity
+        dismissExportProgressDialog();
         map.onDestroy();
         super.onDestroy();
     }
@@ -248,12 +339,14 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public boolean onScroll(ScrollEvent event) {
                 storeLocation();
+                map.loadVisibleNotes();
                 return true;
             }
 
             @Override
             public boolean onZoom(ZoomEvent event) {
                 storeLocation();
+                map.loadVisibleNotes();
                 return true;
             }
         }, 500);
@@ -308,8 +401,9 @@ public class MainActivity extends AppCompatActivity {
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
 
-        // Maybe some or all notes got deleted via the note list -> reload map
-        if (requestCode == REQUEST_NOTE_LIST_REQUEST_CODE) {
+        // Category colors might have changed -> reload map. Changed notes (e.g. deleted via the note
+        // list) are applied by the map itself.
+        if (requestCode == REQUEST_CATEGORIES) {
             map.reloadAllNotes();
         }
 
@@ -318,7 +412,6 @@ public class MainActivity extends AppCompatActivity {
             switch (requestCode) {
                 case REQUEST_IMAGE_CAPTURE:
                     addPhotoToDatabase(lastPhotoNoteId, lastPhotoFile);
-                    map.addImagesToMarkerFragment();
                     break;
                 case REQUEST_NOTE_LIST_REQUEST_CODE:
                     long selectedNoteId = data.getLongExtra(NoteListActivity.EXTRA_CLICKED_NOTE, -1L);
@@ -327,10 +420,25 @@ public class MainActivity extends AppCompatActivity {
                         map.selectNote(selectedNoteId);
                     }
                     break;
+                case REQUEST_IMPORT_FILE:
+                    importNotes(data.getData());
+                    break;
             }
         }
     }
 
+    private void importNotes(Uri uri) {
+        Toast.makeText(this, R.string.import_in_progress, Toast.LENGTH_SHORT).show();
+        importer.importFile(uri, importedNotes -> {
+            if (importedNotes < 0) {
+                Toast.makeText(this, R.string.import_failed, Toast.LENGTH_LONG).show();
+                return;
+            }
+
+            Toast.makeText(this, getString(R.string.import_finished, importedNotes), Toast.LENGTH_LONG).show();
+        });
+    }
+
     /**
      * Creates an empty file in the Environment.DIRECTORY_PICTURES directory.
      */
@@ -345,15 +453,15 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void addPhotoToDatabase(Long noteId, File photoFile) {
-        database.addPhoto(noteId, photoFile);
-
         int sizeInPixel = getResources().getDimensionPixelSize(R.dimen.ImageButton);
 
-        try {
-            ThumbnailUtil.writeThumbnail(sizeInPixel, photoFile);
-        } catch (IOException e) {
-            Toast.makeText(getApplicationContext(), R.string.create_thumbnail_failed, Toast.LENGTH_SHORT);
-        }
+        thumbnailService.create(photoFile, sizeInPixel, successful -> {
+            if (!successful) {
+                Toast.makeText(getApplicationContext(), R.string.create_thumbnail_failed, Toast.LENGTH_SHORT).show();
+            }
+
+            database.addPhoto(noteId, photoFile, result -> map.addImagesToMarkerFragment());
+        });
     }
 
     /**
@@ -6,8 +6,12 @@ import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
+import de.hauke_stieler.geonotes.database.ChangeLog;
 import de.hauke_stieler.geonotes.notes.Note;
 
 public class CategoryStore {
@@ -15,44 +19,145 @@ public class CategoryStore {
     private static final String CATEGORIES_COL_ID = "id";
     private static final String CATEGORIES_COL_COLOR = "color";
     private static final String CATEGORIES_COL_NAME = "name";
+    private static final String CATEGORIES_COL_UUID = "uuid";
+    private static final String CATEGORIES_INDEX_UUID = "categories_uuid_index";
+    // The initial categories have the IDs 1 to 11
+    private static final int INITIAL_CATEGORY_COUNT = 11;
+
+    private final ChangeLog changeLog;
+
+    public CategoryStore(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
 
     public void onCreate(SQLiteDatabase db) {
-        db.execSQL(String.format("CREATE TABLE IF NOT EXISTS %s(%s INTEGER PRIMARY KEY, %s VARCHAR NOT NULL, %s VARCHAR NOT NULL);",
+        db.execSQL(String.format("CREATE TABLE IF NOT EXISTS %s(%s INTEGER PRIMARY KEY, %s VARCHAR NOT NULL, %s VARCHAR NOT NULL, %s VARCHAR NOT NULL);",
                 CATEGORIES_TABLE_NAME,
                 CATEGORIES_COL_ID,
                 CATEGORIES_COL_COLOR,
-                CATEGORIES_COL_NAME));
+                CATEGORIES_COL_NAME,
+                CATEGORIES_COL_UUID));
+        createUuidIndex(db);
         addInitialCategories(db);
     }
 
+    private void createUuidIndex(SQLiteDatabase db) {
+        db.execSQL(String.format("CREATE UNIQUE INDEX IF NOT EXISTS %s ON %s(%s);",
+                CATEGORIES_INDEX_UUID,
+                CATEGORIES_TABLE_NAME,
+                CATEGORIES_COL_UUID));
+    }
+
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         if (oldVersion < 6) {
             onCreate(db);
+        } else if (oldVersion < 12) {
+            // Version 12: Column "uuid" added, which identifies a category on all devices. The
+            // initial categories get the same UUIDs as on new installations, all others random ones.
+            db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s VARCHAR", CATEGORIES_TABLE_NAME, CATEGORIES_COL_UUID));
+            db.execSQL(String.format("UPDATE %s SET %s = lower(hex(randomblob(16)))", CATEGORIES_TABLE_NAME, CATEGORIES_COL_UUID));
+            for (long id = 1; id <= INITIAL_CATEGORY_COUNT; id++) {
+                db.execSQL(String.format("UPDATE %s SET %s = ? WHERE %s = ?", CATEGORIES_TABLE_NAME, CATEGORIES_COL_UUID, CATEGORIES_COL_ID),
+                        new Object[]{getInitialUuid(id), id});
+            }
+            createUuidIndex(db);
+        }
+        if (oldVersion < 10) {
+            // Version 10: Change log (s. "ChangeLog") added, which should contain all existing categories
+            changeLog.logRows(db, ChangeLog.TYPE_CATEGORY, ChangeLog.OPERATION_INSERT, CATEGORIES_TABLE_NAME, CATEGORIES_COL_UUID, null, null);
+        } else if (oldVersion < 12) {
+            // The change log of version 10 and 11 identifies categories by their ID
+            changeLog.replaceKeys(db, ChangeLog.TYPE_CATEGORY, CATEGORIES_TABLE_NAME, CATEGORIES_COL_ID, CATEGORIES_COL_UUID);
         }
 
         Log.i("CategoryStore", String.format("onUpgrade: from version %d to version %d", oldVersion, newVersion));
     }
 
     private void addInitialCategories(SQLiteDatabase db) {
-        addCategory(db, "#f44336", "Red");
-        addCategory(db, "#e91e63", "Pink");
-        addCategory(db, "#9c27b0", "Purple");
-        addCategory(db, "#3f51b5", "Blue");
-        addCategory(db, "#03a9f4", "Light blue");
-        addCategory(db, "#009688", "Teal");
-        addCategory(db, "#4caf50", "Green");
-        addCategory(db, "#fdd835", "Yellow");
-        addCategory(db, "#ff9800", "Orange");
-        addCategory(db, "#795548", "Brown");
-        addCategory(db, "#9e9e9e", "Grey");
+        addInitialCategory(db, 1, "#f44336", "Red");
+        addInitialCategory(db, 2, "#e91e63", "Pink");
+        addInitialCategory(db, 3, "#9c27b0", "Purple");
+        addInitialCategory(db, 4, "#3f51b5", "Blue");
+        addInitialCategory(db, 5, "#03a9f4", "Light blue");
+        addInitialCategory(db, 6, "#009688", "Teal");
+        addInitialCategory(db, 7, "#4caf50", "Green");
+        addInitialCategory(db, 8, "#fdd835", "Yellow");
+        addInitialCategory(db, 9, "#ff9800", "Orange");
+        addInitialCategory(db, 10, "#795548", "Brown");
+        addInitialCategory(db, 11, "#9e9e9e", "Grey");
+    }
+
+    /**
+     * Initial categories have the same UUID on all devices and are logged as changed at time 0,
+     * so any change of them on another device is newer.
+     */
+    private void addInitialCategory(SQLiteDatabase db, long id, String color, String name) {
+        addCategory(db, id, getInitialUuid(id), color, name, 0);
+    }
+
+    private static String getInitialUuid(long id) {
+        return UUID.nameUUIDFromBytes(("GeoNotes category " + id).getBytes()).toString();
     }
 
     public long addCategory(SQLiteDatabase db, String color, String name) {
+        return addCategory(db, UUID.randomUUID().toString(), color, name);
+    }
+
+    /**
+     * Adds a category with the given UUID (e.g. received from another device).
+     *
+     * @return The local ID of the new category.
+     */
+    public long addCategory(SQLiteDatabase db, String uuid, String color, String name) {
+        return addCategory(db, null, uuid, color, name, System.currentTimeMillis());
+    }
+
+    /**
+     * @param id Null to use the next free ID.
+     */
+    private long addCategory(SQLiteDatabase db, Long id, String uuid, String color, String name, long changedAt) {
         ContentValues values = new ContentValues();
+        if (id != null) {
+            values.put(CATEGORIES_COL_ID, id);
+        }
         values.put(CATEGORIES_COL_COLOR, color);
         values.put(CATEGORIES_COL_NAME, name);
+        values.put(CATEGORIES_COL_UUID, uuid);
+
+        db.beginTransaction();
+        try {
+            long newId = db.insert(CATEGORIES_TABLE_NAME, null, values);
+            changeLog.log(db, ChangeLog.TYPE_CATEGORY, uuid, ChangeLog.OPERATION_INSERT, changedAt);
+            db.setTransactionSuccessful();
+            return newId;
+        } finally {
+            db.endTransaction();
+        }
+    }
 
-        return db.insert(CATEGORIES_TABLE_NAME, null, values);
+    /**
+     * @return The UUID of the category, which is the same on all devices, or null if there's no
+     * such category.
+     */
+    public String getUuid(SQLiteDatabase db, long id) {
+        Cursor cursor = db.query(CATEGORIES_TABLE_NAME, new String[]{CATEGORIES_COL_UUID}, CATEGORIES_COL_ID + "=?", new String[]{"" + id}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return The ID of the category with this UUID or null if there's no such category.
+     */
+    public Long getCategoryId(SQLiteDatabase db, String uuid) {
+        Cursor cursor = db.query(CATEGORIES_TABLE_NAME, new String[]{CATEGORIES_COL_ID}, CATEGORIES_COL_UUID + "=?", new String[]{uuid}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
     }
 
     public Category getCategory(SQLiteDatabase db, String id) {
@@ -74,16 +179,34 @@ public class CategoryStore {
         return categories;
     }
 
+    /**
+     * Loads all categories with one query. Useful when many notes need their category, so that not
+     * every note causes a separate query.
+     */
+    public Map<Long, Category> getAllCategoriesById(SQLiteDatabase db) {
+        Map<Long, Category> categories = new HashMap<>();
+        for (Category category : getAllCategories(db)) {
+            categories.put(category.getId(), category);
+        }
+        return categories;
+    }
+
     private Category getCategoryFromCursor(Cursor cursor) {
         return new Category(cursor.getLong(0), cursor.getString(1), cursor.getString(2));
     }
 
     public void update(SQLiteDatabase db, long id, String newName, String newColor) {
         ContentValues values = new ContentValues();
-        values.put(CATEGORIES_COL_ID, id);
         values.put(CATEGORIES_COL_NAME, newName);
         values.put(CATEGORIES_COL_COLOR, newColor);
 
-        db.update(CATEGORIES_TABLE_NAME, values, CATEGORIES_COL_ID + " = ?", new String[]{"" + id});
+        db.beginTransaction();
+        try {
+            db.update(CATEGORIES_TABLE_NAME, values, CATEGORIES_COL_ID + " = ?", new String[]{"" + id});
+            changeLog.logRows(db, ChangeLog.TYPE_CATEGORY, ChangeLog.OPERATION_UPDATE, CATEGORIES_TABLE_NAME, CATEGORIES_COL_UUID, CATEGORIES_COL_ID + " = ?", new Object[]{id});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 }
@@ -1,6 +1,7 @@
 package de.hauke_stieler.geonotes.common;
 
 import android.content.Context;
+import android.content.Intent;
 import android.net.Uri;
 import android.os.Build;
 
@@ -18,4 +19,18 @@ public class FileHelper {
                 context.getPackageName() + ".provider",
                 lastPhotoFile);
     }
+
+    /**
+     * Opens the share dialog for the given file. Works outside of activities as well.
+     */
+    public static void openShareIntent(Context context, File file, String mimeType) {
+        Intent sendIntent = new Intent();
+        sendIntent.setAction(Intent.ACTION_SEND);
+        sendIntent.putExtra(Intent.EXTRA_STREAM, getFileUri(context, file));
+        sendIntent.setType(mimeType);
+
+        Intent shareIntent = Intent.createChooser(sendIntent, null);
+        shareIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK); // needed because we're outside of an activity
+        context.startActivity(shareIntent);
+    }
 }
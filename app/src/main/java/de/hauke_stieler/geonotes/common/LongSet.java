@@ -0,0 +1,154 @@
+package de.hauke_stieler.geonotes.common;
+
+/**
+ * A set of primitive longs (e.g. note IDs). Other than a Set<Long>, this doesn't create an object
+ * per value and "contains()" doesn't need to box the value, which matters when it's called for
+ * every row or icon that is drawn.
+ * <p>
+ * The values are stored in a hash table with open addressing (linear probing).
+ */
+public class LongSet {
+    // Marks free slots in the table. The value 0 itself is stored separately.
+    private static final long FREE = 0;
+    private static final float MAX_LOAD_FACTOR = 0.5f;
+
+    private long[] table;
+    private int mask;
+    private int size;
+    private boolean containsFree;
+
+    public LongSet() {
+        this(8);
+    }
+
+    public LongSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity * MAX_LOAD_FACTOR < expectedSize) {
+            capacity *= 2;
+        }
+        table = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return True if the value has been added, false if it was already in this set.
+     */
+    public boolean add(long value) {
+        if (value == FREE) {
+            if (containsFree) {
+                return false;
+            }
+            containsFree = true;
+            size++;
+            return true;
+        }
+
+        int slot = slotOf(value);
+        while (table[slot] != FREE) {
+            if (table[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        table[slot] = value;
+        size++;
+        if (size > table.length * MAX_LOAD_FACTOR) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * @return True if the value has been removed, false if it wasn't in this set.
+     */
+    public boolean remove(long value) {
+        if (value == FREE) {
+            if (!containsFree) {
+                return false;
+            }
+            containsFree = false;
+            size--;
+            return true;
+        }
+
+        int slot = slotOf(value);
+        while (table[slot] != value) {
+            if (table[slot] == FREE) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Move following values of the same probe sequence into the gap, otherwise they couldn't
+        // be found anymore.
+        int gap = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (table[next] == FREE) {
+                break;
+            }
+
+            int idealSlot = slotOf(table[next]);
+            boolean idealSlotBetweenGapAndNext = gap <= next
+                    ? gap < idealSlot && idealSlot <= next
+                    : gap < idealSlot || idealSlot <= next;
+            if (!idealSlotBetweenGapAndNext) {
+                table[gap] = table[next];
+                gap = next;
+            }
+        }
+        table[gap] = FREE;
+
+        size--;
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == FREE) {
+            return containsFree;
+        }
+
+        int slot = slotOf(value);
+        while (table[slot] != FREE) {
+            if (table[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void grow() {
+        long[] oldTable = table;
+        table = new long[oldTable.length * 2];
+        mask = table.length - 1;
+
+        for (long value : oldTable) {
+            if (value == FREE) {
+                continue;
+            }
+
+            int slot = slotOf(value);
+            while (table[slot] != FREE) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = value;
+        }
+    }
+
+    private int slotOf(long value) {
+        // IDs are often consecutive, so the bits are mixed to spread them over the table
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,263 @@
+package de.hauke_stieler.geonotes.database;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.osmdroid.util.GeoPoint;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.hauke_stieler.geonotes.categories.Category;
+import de.hauke_stieler.geonotes.common.LongSet;
+import de.hauke_stieler.geonotes.notes.Note;
+
+/**
+ * Wraps the Database and executes all operations in background threads so that the UI never
+ * waits for the disk. Results are delivered to callbacks on the main thread.
+ * <p>
+ * All writes are executed one after another by a single writer thread. Reads run in a pool of
+ * reader threads but each read first waits for all writes issued before it. This way a read always
+ * sees the changes of previous writes, just as if everything ran on the main thread.
+ */
+public class AsyncDatabase {
+    private static final String LOGTAG = AsyncDatabase.class.getName();
+    private static final int READER_THREAD_COUNT = 2;
+
+    /**
+     * Gets called on the main thread with the result of an operation. When the operation failed,
+     * the result is null.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Any operation on the database. This is executed in a background thread.
+     */
+    public interface Operation<T> {
+        T run(Database database);
+    }
+
+    private final Database database;
+    private final ExecutorService writer;
+    private final ExecutorService readers;
+    private final Handler mainHandler;
+
+    private Future<?> lastWrite;
+
+    // The listeners passed to "addNoteChangedListener()" and their wrappers registered at the database
+    private final Map<Database.NoteChangedListener, MainThreadNoteChangedListener> noteChangedListeners = new HashMap<>();
+
+    public AsyncDatabase(Database database) {
+        this.database = database;
+        this.writer = Executors.newSingleThreadExecutor();
+        this.readers = Executors.newFixedThreadPool(READER_THREAD_COUNT);
+        this.mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Executes the given read-only operation in a reader thread after all previously issued writes
+     * are done.
+     *
+     * @param callback Gets the result (or null, if the operation failed) on the main thread. May be
+     *                 null.
+     * @return A future which can be used to cancel the operation.
+     */
+    public <T> Future<T> read(Operation<T> operation, Callback<T> callback) {
+        Future<?> precedingWrite = getLastWrite();
+        return readers.submit(() -> {
+            waitFor(precedingWrite);
+            return execute(operation, callback);
+        });
+    }
+
+    /**
+     * Executes the given operation in the writer thread after all previously issued writes are done.
+     *
+     * @param callback Gets the result (or null, if the operation failed) on the main thread. May be
+     *                 null.
+     */
+    public synchronized <T> Future<T> write(Operation<T> operation, Callback<T> callback) {
+        Future<T> future = writer.submit(() -> execute(operation, callback));
+        lastWrite = future;
+        return future;
+    }
+
+    private synchronized Future<?> getLastWrite() {
+        return lastWrite;
+    }
+
+    private <T> T execute(Operation<T> operation, Callback<T> callback) {
+        T result;
+        try {
+            result = operation.run(database);
+        } catch (Exception e) {
+            Log.e(LOGTAG, "Database operation failed", e);
+            // Callers wait for the callback (e.g. to close progress dialogs), so it's called anyway
+            if (callback != null) {
+                mainHandler.post(() -> callback.onResult(null));
+            }
+            throw e;
+        }
+
+        if (callback != null) {
+            mainHandler.post(() -> callback.onResult(result));
+        }
+        return result;
+    }
+
+    private void waitFor(Future<?> future) throws InterruptedException {
+        if (future == null) {
+            return;
+        }
+
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            // The failed write has already been logged, the read should happen nevertheless.
+        }
+    }
+
+    /**
+     * Like "Database.addNoteChangedListener()" but the listener gets called on the main thread.
+     * Must be called on the main thread as well.
+     */
+    public void addNoteChangedListener(Database.NoteChangedListener listener) {
+        MainThreadNoteChangedListener mainThreadListener = new MainThreadNoteChangedListener(listener);
+        noteChangedListeners.put(listener, mainThreadListener);
+        database.addNoteChangedListener(mainThreadListener);
+    }
+
+    /**
+     * Removes the listener. It won't be called anymore, even if there are still pending changes.
+     */
+    public void removeNoteChangedListener(Database.NoteChangedListener listener) {
+        MainThreadNoteChangedListener mainThreadListener = noteChangedListeners.remove(listener);
+        if (mainThreadListener != null) {
+            mainThreadListener.removed = true;
+            database.removeNoteChangedListener(mainThreadListener);
+        }
+    }
+
+    /**
+     * Passes all changes on to the main thread.
+     */
+    private class MainThreadNoteChangedListener implements Database.NoteChangedListener {
+        private final Database.NoteChangedListener listener;
+        // Only accessed on the main thread
+        private boolean removed;
+
+        MainThreadNoteChangedListener(Database.NoteChangedListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onNoteChanged(Note note) {
+            mainHandler.post(() -> {
+                if (!removed) {
+                    listener.onNoteChanged(note);
+                }
+            });
+        }
+
+        @Override
+        public void onNoteRemoved(long noteId) {
+            mainHandler.post(() -> {
+                if (!removed) {
+                    listener.onNoteRemoved(noteId);
+                }
+            });
+        }
+
+        @Override
+        public void onAllNotesChanged() {
+            mainHandler.post(() -> {
+                if (!removed) {
+                    listener.onAllNotesChanged();
+                }
+            });
+        }
+    }
+
+    public Future<Long> addNote(String description, double lat, double lon, long categoryId, Callback<Long> callback) {
+        return write(db -> db.addNote(description, lat, lon, categoryId), callback);
+    }
+
+    public Future<Void> updateNoteDescription(long noteId, String newDescription) {
+        return write(db -> {
+            db.updateNoteDescription(noteId, newDescription);
+            return null;
+        }, null);
+    }
+
+    public Future<Void> updateNoteCategory(long noteId, long categoryId) {
+        return write(db -> {
+            db.updateNoteCategory(noteId, categoryId);
+            return null;
+        }, null);
+    }
+
+    public Future<Void> updateNoteLocation(long noteId, GeoPoint location) {
+        return write(db -> {
+            db.updateNoteLocation(noteId, location);
+            return null;
+        }, null);
+    }
+
+    /**
+     * Removes the note together with its photos.
+     */
+    public Future<Void> removeNote(long noteId, File storageDir) {
+        return write(db -> {
+            db.removeNote(noteId);
+            db.removePhotos(noteId, storageDir);
+            return null;
+        }, null);
+    }
+
+    public Future<Void> removeAllNotes(File storageDir, Callback<Void> callback) {
+        return write(db -> {
+            db.removeAllNotes(storageDir);
+            return null;
+        }, callback);
+    }
+
+    public Future<Long> getNoteCount(Callback<Long> callback) {
+        return read(Database::getNoteCount, callback);
+    }
+
+    public Future<Note> getNote(long noteId, Callback<Note> callback) {
+        return read(db -> db.getNote("" + noteId), callback);
+    }
+
+    public Future<List<Note>> getNotesInBoundingBox(double north, double east, double south, double west, Long categoryIdFilter, Callback<List<Note>> callback) {
+        return read(db -> db.getNotesInBoundingBox(north, east, south, west, categoryIdFilter), callback);
+    }
+
+    public Future<Void> addPhoto(long noteId, File photoFile, Callback<Void> callback) {
+        return write(db -> {
+            db.addPhoto(noteId, photoFile);
+            return null;
+        }, callback);
+    }
+
+    public Future<List<String>> getPhotos(long noteId, Callback<List<String>> callback) {
+        return read(db -> db.getPhotos("" + noteId), callback);
+    }
+
+    public Future<LongSet> getNoteIdsWithPhotos(Callback<LongSet> callback) {
+        return read(Database::getNoteIdsWithPhotos, callback);
+    }
+
+    public Future<List<Category>> getAllCategories(Callback<List<Category>> callback) {
+        return read(Database::getAllCategories, callback);
+    }
+}
@@ -0,0 +1,270 @@
+package de.hauke_stieler.geonotes.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records which notes, photos and categories have been inserted, updated or deleted. Every change
+ * gets a new, always increasing sequence number, so all changes after a certain sequence number can
+ * be exchanged with other devices (s. "Delta").
+ * <p>
+ * Only the latest change of each note, photo and category is kept. The receiver gets the current
+ * state of the changed objects anyway, so older changes wouldn't add anything. This way the log
+ * grows with the number of changed objects and not with the number of edits.
+ * <p>
+ * Objects are identified by a key that is the same on all devices: The UUID of a note, the file
+ * name of a photo and the UUID of a category.
+ * <p>
+ * Changes received from other devices are marked as such and are not sent again, otherwise each
+ * exchange would send all received objects straight back to their sender. A local change
+ * of a received object replaces the received change and is sent as usual.
+ */
+public class ChangeLog {
+    public static final int TYPE_NOTE = 1;
+    public static final int TYPE_PHOTO = 2;
+    public static final int TYPE_CATEGORY = 3;
+
+    public static final int OPERATION_INSERT = 1;
+    public static final int OPERATION_UPDATE = 2;
+    public static final int OPERATION_DELETE = 3;
+
+    private static final String CHANGES_TABLE_NAME = "changes";
+    private static final String CHANGES_COL_SEQUENCE = "sequence";
+    private static final String CHANGES_COL_TYPE = "type";
+    private static final String CHANGES_COL_KEY = "key";
+    private static final String CHANGES_COL_OPERATION = "operation";
+    private static final String CHANGES_COL_CHANGED_AT = "changed_at";
+    private static final String CHANGES_COL_RECEIVED = "received";
+    private static final String CHANGES_INDEX_KEY = "changes_key_index";
+
+    public static class Change {
+        private final long sequence;
+        private final int type;
+        private final String key;
+        private final int operation;
+        private final long changedAt;
+
+        public Change(long sequence, int type, String key, int operation, long changedAt) {
+            this.sequence = sequence;
+            this.type = type;
+            this.key = key;
+            this.operation = operation;
+            this.changedAt = changedAt;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return Time of the change in milliseconds since the epoch.
+         */
+        public long getChangedAt() {
+            return changedAt;
+        }
+    }
+
+    public void onCreate(SQLiteDatabase db) {
+        // AUTOINCREMENT never reuses sequence numbers, even after the latest change has been replaced
+        db.execSQL(String.format("CREATE TABLE IF NOT EXISTS %s(%s INTEGER PRIMARY KEY AUTOINCREMENT, %s INTEGER NOT NULL, %s VARCHAR NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL DEFAULT 0);",
+                CHANGES_TABLE_NAME,
+                CHANGES_COL_SEQUENCE,
+                CHANGES_COL_TYPE,
+                CHANGES_COL_KEY,
+                CHANGES_COL_OPERATION,
+                CHANGES_COL_CHANGED_AT,
+                CHANGES_COL_RECEIVED));
+        // Makes "INSERT OR REPLACE" replace the previous change of the same object
+        db.execSQL(String.format("CREATE UNIQUE INDEX IF NOT EXISTS %s ON %s(%s, %s);",
+                CHANGES_INDEX_KEY,
+                CHANGES_TABLE_NAME,
+                CHANGES_COL_TYPE,
+                CHANGES_COL_KEY));
+    }
+
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 10) {
+            // Version 10: Change log added. The stores log their existing objects as inserted,
+            // so that the first exchange contains everything.
+            onCreate(db);
+        } else if (oldVersion < 13) {
+            // Version 13: Column "received" added. Existing changes are treated as local ones, so
+            // they're sent (once more) with the next exchange.
+            db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER NOT NULL DEFAULT 0", CHANGES_TABLE_NAME, CHANGES_COL_RECEIVED));
+        }
+        Log.i("ChangeLog", String.format("onUpgrade: from version %d to version %d", oldVersion, newVersion));
+    }
+
+    public void log(SQLiteDatabase db, int type, String key, int operation) {
+        log(db, type, key, operation, System.currentTimeMillis());
+    }
+
+    /**
+     * @param changedAt Time of the change in milliseconds since the epoch.
+     */
+    public void log(SQLiteDatabase db, int type, String key, int operation, long changedAt) {
+        log(db, type, key, operation, changedAt, false);
+    }
+
+    /**
+     * Logs a change received from another device. It keeps its original time and is not part of
+     * "getLocalChangesAfter()".
+     */
+    public void logReceived(SQLiteDatabase db, int type, String key, int operation, long changedAt) {
+        log(db, type, key, operation, changedAt, true);
+    }
+
+    private void log(SQLiteDatabase db, int type, String key, int operation, long changedAt, boolean received) {
+        db.execSQL(String.format("INSERT OR REPLACE INTO %s(%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?);",
+                CHANGES_TABLE_NAME,
+                CHANGES_COL_TYPE,
+                CHANGES_COL_KEY,
+                CHANGES_COL_OPERATION,
+                CHANGES_COL_CHANGED_AT,
+                CHANGES_COL_RECEIVED),
+                new Object[]{type, key, operation, changedAt, received ? 1 : 0});
+    }
+
+    /**
+     * Logs a change for every row of the given table matching the where clause. This must be
+     * called before deleting the rows, otherwise their keys are gone.
+     *
+     * @param keyColumn   The column of the table containing the key of the object.
+     * @param whereClause Null to log all rows.
+     */
+    public void logRows(SQLiteDatabase db, int type, int operation, String table, String keyColumn, String whereClause, Object[] whereArgs) {
+        Object[] args = new Object[3 + (whereArgs == null ? 0 : whereArgs.length)];
+        args[0] = type;
+        args[1] = operation;
+        args[2] = System.currentTimeMillis();
+        if (whereArgs != null) {
+            System.arraycopy(whereArgs, 0, args, 3, whereArgs.length);
+        }
+
+        db.execSQL(String.format("INSERT OR REPLACE INTO %s(%s, %s, %s, %s) SELECT ?, %s, ?, ? FROM %s%s;",
+                CHANGES_TABLE_NAME,
+                CHANGES_COL_TYPE,
+                CHANGES_COL_KEY,
+                CHANGES_COL_OPERATION,
+                CHANGES_COL_CHANGED_AT,
+                keyColumn,
+                table,
+                whereClause == null ? "" : " WHERE " + whereClause),
+                args);
+    }
+
+    /**
+     * Replaces the keys of all changes of the given type, e.g. when the objects get a new kind of
+     * key. Changes of objects which don't exist (anymore) are removed. The time of the changes is
+     * kept.
+     *
+     * @param oldKeyColumn The column of the table containing the current keys.
+     * @param newKeyColumn The column of the table containing the new keys.
+     */
+    public void replaceKeys(SQLiteDatabase db, int type, String table, String oldKeyColumn, String newKeyColumn) {
+        db.execSQL(String.format("DELETE FROM %s WHERE %s = ? AND NOT EXISTS (SELECT 1 FROM %s WHERE %s.%s = %s.%s);",
+                CHANGES_TABLE_NAME,
+                CHANGES_COL_TYPE,
+                table,
+                table,
+                oldKeyColumn,
+                CHANGES_TABLE_NAME,
+                CHANGES_COL_KEY),
+                new Object[]{type});
+        db.execSQL(String.format("UPDATE %s SET %s = (SELECT %s FROM %s WHERE %s.%s = %s.%s) WHERE %s = ?;",
+                CHANGES_TABLE_NAME,
+                CHANGES_COL_KEY,
+                newKeyColumn,
+                table,
+                table,
+                oldKeyColumn,
+                CHANGES_TABLE_NAME,
+                CHANGES_COL_KEY,
+                CHANGES_COL_TYPE),
+                new Object[]{type});
+    }
+
+    /**
+     * Creates a statement logging one change. The parameters are the type, key, operation and
+     * time of the change (in this order). Used to log many changes as fast as possible.
+     */
+    public SQLiteStatement compileLog(SQLiteDatabase db) {
+        return db.compileStatement(String.format("INSERT OR REPLACE INTO %s(%s, %s, %s, %s) VALUES (?, ?, ?, ?);",
+                CHANGES_TABLE_NAME,
+                CHANGES_COL_TYPE,
+                CHANGES_COL_KEY,
+                CHANGES_COL_OPERATION,
+                CHANGES_COL_CHANGED_AT));
+    }
+
+    /**
+     * @return The sequence number of the latest change or 0 if nothing has been changed yet.
+     */
+    public long getLastSequence(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, String.format("SELECT IFNULL(MAX(%s), 0) FROM %s;", CHANGES_COL_SEQUENCE, CHANGES_TABLE_NAME), null);
+    }
+
+    /**
+     * @return All changes made on this device with a sequence number greater than the given one,
+     * ordered by sequence number. Received changes are left out.
+     */
+    public List<Change> getLocalChangesAfter(SQLiteDatabase db, long sequence) {
+        Cursor cursor = db.query(CHANGES_TABLE_NAME,
+                new String[]{CHANGES_COL_SEQUENCE, CHANGES_COL_TYPE, CHANGES_COL_KEY, CHANGES_COL_OPERATION, CHANGES_COL_CHANGED_AT},
+                CHANGES_COL_SEQUENCE + ">? AND " + CHANGES_COL_RECEIVED + "=0",
+                new String[]{"" + sequence},
+                null,
+                null,
+                CHANGES_COL_SEQUENCE);
+
+        List<Change> changes = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(new Change(cursor.getLong(0), cursor.getInt(1), cursor.getString(2), cursor.getInt(3), cursor.getLong(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    /**
+     * @return The latest change of the given object or null if it has never been changed.
+     */
+    public Change getChange(SQLiteDatabase db, int type, String key) {
+        Cursor cursor = db.query(CHANGES_TABLE_NAME,
+                new String[]{CHANGES_COL_SEQUENCE, CHANGES_COL_TYPE, CHANGES_COL_KEY, CHANGES_COL_OPERATION, CHANGES_COL_CHANGED_AT},
+                CHANGES_COL_TYPE + "=? AND " + CHANGES_COL_KEY + "=?",
+                new String[]{"" + type, key},
+                null,
+                null,
+                null);
+
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Change(cursor.getLong(0), cursor.getInt(1), cursor.getString(2), cursor.getInt(3), cursor.getLong(4));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -5,33 +5,85 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Pair;
 
 import org.osmdroid.util.GeoPoint;
 
 import java.io.File;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import de.hauke_stieler.geonotes.categories.Category;
 import de.hauke_stieler.geonotes.categories.CategoryStore;
+import de.hauke_stieler.geonotes.common.LongSet;
 import de.hauke_stieler.geonotes.notes.Note;
+import de.hauke_stieler.geonotes.notes.NoteCache;
+import de.hauke_stieler.geonotes.notes.NoteInserter;
+import de.hauke_stieler.geonotes.notes.NoteIterator;
 import de.hauke_stieler.geonotes.notes.NoteStore;
 import de.hauke_stieler.geonotes.photo.PhotoStore;
 import de.hauke_stieler.geonotes.photo.ThumbnailUtil;
 
 public class Database extends SQLiteOpenHelper {
-    private static final int DB_VERSION = 6;
+    private static final int DB_VERSION = 14;
     private static final String DB_NAME = "geonotes";
+    // Number of notes read at once when filling the note cache
+    private static final int CACHE_LOAD_PAGE_SIZE = 1000;
+
+    /**
+     * Gets called whenever a category has been added or changed. This might happen on any thread.
+     */
+    public interface CategoryChangedListener {
+        void onCategoryChanged(Category category);
+    }
+
+    /**
+     * Gets called whenever notes have been added, changed or removed. This might happen on any thread.
+     */
+    public interface NoteChangedListener {
+        /**
+         * The note has been added or changed.
+         */
+        void onNoteChanged(Note note);
+
+        void onNoteRemoved(long noteId);
+
+        /**
+         * Many or all notes might have changed at once (e.g. due to an import), so everything
+         * depending on notes should be reloaded.
+         */
+        void onAllNotesChanged();
+    }
 
+    private final ChangeLog changeLog;
     private final NoteStore noteStore;
     private final PhotoStore photoStore;
     private final CategoryStore categoryStore;
+    private final List<CategoryChangedListener> categoryChangedListeners = new CopyOnWriteArrayList<>();
+    private final List<NoteChangedListener> noteChangedListeners = new CopyOnWriteArrayList<>();
+
+    // All notes in memory, filled on first usage and updated by every write (s. "getNoteCache()")
+    private final NoteCache noteCache;
+
+    // State of transactions started via "beginTransaction()". A rolled back transaction may have
+    // undone changes which have already been applied to the note cache.
+    private int transactionDepth;
+    private boolean transactionSuccessful;
+    private boolean transactionFailed;
 
     public Database(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
 
-        categoryStore = new CategoryStore();
-        noteStore = new NoteStore(categoryStore);
-        photoStore = new PhotoStore();
+        changeLog = new ChangeLog();
+        categoryStore = new CategoryStore(changeLog);
+        noteStore = new NoteStore(categoryStore, changeLog);
+        photoStore = new PhotoStore(changeLog);
+        noteCache = new NoteCache();
+
+        // Allows reading in parallel to writing (s. AsyncDatabase)
+        setWriteAheadLoggingEnabled(true);
 
         // This will call the onCreate and onUpgrade methods.
         getWritableDatabase();
@@ -39,6 +91,7 @@ public class Database extends SQLiteOpenHelper {
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        changeLog.onCreate(db);
         noteStore.onCreate(db);
         photoStore.onCreate(db);
         categoryStore.onCreate(db);
@@ -46,48 +99,191 @@ public class Database extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Ordered by reference relation: Photo references notes, notes references categories.
+        // Ordered by reference relation: Photo references notes, notes references categories. All
+        // stores log into the change log.
+        changeLog.onUpgrade(db, oldVersion, newVersion);
         categoryStore.onUpgrade(db, oldVersion, newVersion);
         noteStore.onUpgrade(db, oldVersion, newVersion);
         photoStore.onUpgrade(db, oldVersion, newVersion);
     }
 
+    /**
+     * Starts a transaction on the writable database. Like with SQLiteDatabase, the transaction must
+     * be marked as successful and ended in a finally block.
+     */
+    public void beginTransaction() {
+        getWritableDatabase().beginTransaction();
+        transactionDepth++;
+        transactionSuccessful = false;
+    }
+
+    public void setTransactionSuccessful() {
+        getWritableDatabase().setTransactionSuccessful();
+        transactionSuccessful = true;
+    }
+
+    public void endTransaction() {
+        try {
+            getWritableDatabase().endTransaction();
+        } finally {
+            transactionDepth--;
+            transactionFailed |= !transactionSuccessful;
+            transactionSuccessful = false;
+
+            if (transactionDepth == 0 && transactionFailed) {
+                // Nobody knows which changes have been undone, so load everything again
+                transactionFailed = false;
+                noteCache.invalidate();
+                notifyAllNotesChanged();
+            }
+        }
+    }
+
+    /**
+     * @return The cache containing all notes. It is filled from the database on first usage.
+     */
+    private NoteCache getNoteCache() {
+        // The lock of the cache is held while loading, so writes wait until the cache is complete.
+        synchronized (noteCache) {
+            if (!noteCache.isLoaded()) {
+                noteCache.load(noteStore.iterateAllNotes(getReadableDatabase(), CACHE_LOAD_PAGE_SIZE), categoryStore.getAllCategories(getReadableDatabase()));
+            }
+        }
+        return noteCache;
+    }
+
     public long addNote(String description, double lat, double lon, long categoryId) {
-        return noteStore.addNote(getWritableDatabase(), description, lat, lon, categoryId);
+        long createdAt = System.currentTimeMillis();
+        long id = noteStore.addNote(getWritableDatabase(), description, lat, lon, createdAt, categoryId);
+
+        getNoteCache().put(id, description, lat, lon, createdAt, categoryId);
+        notifyNoteChanged(id);
+
+        return id;
+    }
+
+    /**
+     * @return An inserter for adding many notes at once, which must be closed after usage.
+     */
+    public NoteInserter newNoteInserter(int batchSize) {
+        NoteCache noteCache = getNoteCache();
+        return noteStore.newInserter(getWritableDatabase(), batchSize, new NoteInserter.InsertListener() {
+            @Override
+            public void onInserted(long id, String description, double lat, double lon, long createdAt, long categoryId) {
+                noteCache.put(id, description, lat, lon, createdAt, categoryId);
+            }
+
+            @Override
+            public void onClosed() {
+                notifyAllNotesChanged();
+            }
+        });
     }
 
     public void updateNoteDescription(long noteId, String newDescription) {
         noteStore.updateDescription(getWritableDatabase(), noteId, newDescription);
+        getNoteCache().update(noteId, newDescription, null, null, null);
+        notifyNoteChanged(noteId);
+    }
+
+    /**
+     * Updates the description and category at once. Null values are not changed.
+     */
+    public void updateNote(long noteId, String newDescription, Long categoryId) {
+        noteStore.update(getWritableDatabase(), noteId, newDescription, categoryId);
+        getNoteCache().update(noteId, newDescription, categoryId, null, null);
+        notifyNoteChanged(noteId);
     }
 
     public void updateNoteCategory(long noteId, long categoryId) {
         noteStore.updateCategory(getWritableDatabase(), noteId, categoryId);
+        getNoteCache().update(noteId, null, categoryId, null, null);
+        notifyNoteChanged(noteId);
     }
 
     public void updateNoteLocation(long noteId, GeoPoint location) {
         noteStore.updateLocation(getWritableDatabase(), noteId, location);
+        getNoteCache().update(noteId, null, null, location.getLatitude(), location.getLongitude());
+        notifyNoteChanged(noteId);
     }
 
     public void removeNote(long id) {
         noteStore.removeNote(getWritableDatabase(), id);
+        getNoteCache().remove(id);
+        for (NoteChangedListener listener : noteChangedListeners) {
+            listener.onNoteRemoved(id);
+        }
     }
 
     public void removeAllNotes(File storageDir) {
         for (Note note : getAllNotes()) {
             removePhotos(note.getId(), storageDir);
         }
+        removeAllNotes();
+    }
+
+    /**
+     * Removes all notes and photos from the database but keeps the photo files.
+     */
+    public void removeAllNotes() {
         photoStore.removeAllPhotos(getWritableDatabase());
         noteStore.removeAllNotes(getWritableDatabase());
+        getNoteCache().clear();
+        notifyAllNotesChanged();
     }
 
     public List<Note> getAllNotes() {
-        return noteStore.getAllNotes(getWritableDatabase());
+        return getNoteCache().getAllNotes();
+    }
+
+    /**
+     * @return An iterator over all notes (ordered by ID), which takes "pageSize" notes at once.
+     */
+    public Iterator<Note> iterateAllNotes(int pageSize) {
+        return new NoteIterator(getNoteCache()::getNotesAfter, pageSize);
+    }
+
+    public long getNoteCount() {
+        return getNoteCache().size();
     }
 
     public List<Note> getAllNotes(String textFilter, Long categoryIdFilter) {
         return noteStore.getAllNotes(getWritableDatabase(), textFilter, categoryIdFilter);
     }
 
+    /**
+     * @return The IDs of all notes "getAllNotes(textFilter, categoryIdFilter)" would return, in the same order.
+     */
+    public long[] getNoteIds(String textFilter, Long categoryIdFilter) {
+        return noteStore.getNoteIds(getReadableDatabase(), textFilter, categoryIdFilter);
+    }
+
+    /**
+     * @param startTime Milliseconds since the epoch (inclusive).
+     * @param endTime   Milliseconds since the epoch (exclusive).
+     * @return The IDs of all notes created within the given time range, newest first.
+     */
+    public long[] getNoteIdsCreatedBetween(long startTime, long endTime) {
+        return noteStore.getNoteIdsCreatedBetween(getReadableDatabase(), startTime, endTime);
+    }
+
+    /**
+     * @return The notes with the given IDs in the same order. Notes that don't exist are left out.
+     */
+    public List<Note> getNotes(long[] noteIds) {
+        return getNoteCache().getNotes(noteIds);
+    }
+
+    /**
+     * Gets all notes within the given bounding box. This uses a spatial index and is therefore
+     * much faster than filtering the result of "getAllNotes()".
+     *
+     * @param categoryIdFilter Only notes of this category are returned. Use null to get notes of all categories.
+     */
+    public List<Note> getNotesInBoundingBox(double north, double east, double south, double west, Long categoryIdFilter) {
+        return noteStore.getNotesInBoundingBox(getReadableDatabase(), north, east, south, west, categoryIdFilter);
+    }
+
     public void addPhoto(Long noteId, File photoFile) {
         photoStore.addPhoto(getWritableDatabase(), noteId, photoFile);
     }
@@ -101,7 +297,25 @@ public class Database extends SQLiteOpenHelper {
     }
 
     public boolean hasPhotos(String noteId) {
-        return getPhotos(noteId).size() > 0;
+        return photoStore.hasPhotos(getReadableDatabase(), noteId);
+    }
+
+    public LongSet getNoteIdsWithPhotos() {
+        return photoStore.getNoteIdsWithPhotos(getReadableDatabase());
+    }
+
+    /**
+     * @return The note ID and file name of all photos, ordered by note.
+     */
+    public List<Pair<Long, String>> getAllPhotos() {
+        return photoStore.getAllPhotos(getReadableDatabase());
+    }
+
+    /**
+     * Removes the photo from the database but keeps its file.
+     */
+    public void removePhoto(String fileName) {
+        photoStore.removePhoto(getWritableDatabase(), fileName);
     }
 
     public void removePhotos(long noteId, File storageDir) {
@@ -118,13 +332,50 @@ public class Database extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * @return The note or null if there's no such note.
+     */
     public Note getNote(String noteId) {
-        return noteStore.getNote(getReadableDatabase(), noteId);
+        return getNoteCache().getNote(Long.parseLong(noteId));
     }
 
+    public void addNoteChangedListener(NoteChangedListener listener) {
+        noteChangedListeners.add(listener);
+    }
+
+    public void removeNoteChangedListener(NoteChangedListener listener) {
+        noteChangedListeners.remove(listener);
+    }
+
+    private void notifyNoteChanged(long noteId) {
+        if (noteChangedListeners.isEmpty()) {
+            return;
+        }
+
+        Note note = getNoteCache().getNote(noteId);
+        if (note == null) {
+            return;
+        }
+
+        for (NoteChangedListener listener : noteChangedListeners) {
+            listener.onNoteChanged(note);
+        }
+    }
+
+    private void notifyAllNotesChanged() {
+        for (NoteChangedListener listener : noteChangedListeners) {
+            listener.onAllNotesChanged();
+        }
+    }
+
+    public void addCategoryChangedListener(CategoryChangedListener listener) {
+        categoryChangedListeners.add(listener);
+    }
 
     public long addCategory(String color, String name) {
-        return categoryStore.addCategory(getWritableDatabase(), color, name);
+        long id = categoryStore.addCategory(getWritableDatabase(), color, name);
+        notifyCategoryChanged(new Category(id, color, name));
+        return id;
     }
 
     public Category getCategory(String id) {
@@ -137,5 +388,107 @@ public class Database extends SQLiteOpenHelper {
 
     public void updateCategory(long id, String newName, String newColor) {
         categoryStore.update(getWritableDatabase(), id, newName, newColor);
+        notifyCategoryChanged(new Category(id, newColor, newName));
+    }
+
+    /**
+     * @return The UUID of the note, which is the same on all devices, or null if there's no such note.
+     */
+    public String getNoteUuid(long noteId) {
+        return noteStore.getUuid(getReadableDatabase(), noteId);
+    }
+
+    /**
+     * @return The UUIDs of all notes by their ID.
+     */
+    public Map<Long, String> getAllNoteUuids() {
+        return noteStore.getAllUuids(getReadableDatabase());
+    }
+
+    /**
+     * @return The ID of the note with the given UUID or null if there's no such note.
+     */
+    public Long getNoteIdByUuid(String uuid) {
+        return noteStore.getNoteId(getReadableDatabase(), uuid);
+    }
+
+    /**
+     * @return The UUID of the category, which is the same on all devices, or null if there's no such category.
+     */
+    public String getCategoryUuid(long categoryId) {
+        return categoryStore.getUuid(getReadableDatabase(), categoryId);
+    }
+
+    /**
+     * @return The ID of the category with the given UUID or null if there's no such category.
+     */
+    public Long getCategoryIdByUuid(String uuid) {
+        return categoryStore.getCategoryId(getReadableDatabase(), uuid);
+    }
+
+    /**
+     * @return The ID of the note the photo belongs to or null if there's no such photo.
+     */
+    public Long getPhotoNoteId(String fileName) {
+        return photoStore.getNoteId(getReadableDatabase(), fileName);
+    }
+
+    /**
+     * Adds a category with the given UUID or updates it, if it already exists.
+     *
+     * @return The local ID of the category.
+     */
+    public long putCategory(String uuid, String color, String name) {
+        Long id = getCategoryIdByUuid(uuid);
+        if (id != null) {
+            categoryStore.update(getWritableDatabase(), id, name, color);
+        } else {
+            id = categoryStore.addCategory(getWritableDatabase(), uuid, color, name);
+        }
+        notifyCategoryChanged(new Category(id, color, name));
+        return id;
+    }
+
+    /**
+     * @return The sequence number of the latest change or 0 if nothing has been changed yet.
+     */
+    public long getLastChangeSequence() {
+        return changeLog.getLastSequence(getReadableDatabase());
+    }
+
+    /**
+     * @return All changes made on this device after the given sequence number (s. "ChangeLog").
+     */
+    public List<ChangeLog.Change> getLocalChangesAfter(long sequence) {
+        return changeLog.getLocalChangesAfter(getReadableDatabase(), sequence);
+    }
+
+    /**
+     * @return The latest change of the given object or null if it has never been changed.
+     */
+    public ChangeLog.Change getChange(int type, String key) {
+        return changeLog.getChange(getReadableDatabase(), type, key);
+    }
+
+    /**
+     * Replaces the latest change of the given object by a local change at the given time.
+     */
+    public void logChange(int type, String key, int operation, long changedAt) {
+        changeLog.log(getWritableDatabase(), type, key, operation, changedAt);
+    }
+
+    /**
+     * Replaces the latest change of the given object by a change received from another device.
+     * Such changes keep their original time and are not sent again (s. "ChangeLog").
+     */
+    public void logReceivedChange(int type, String key, int operation, long changedAt) {
+        changeLog.logReceived(getWritableDatabase(), type, key, operation, changedAt);
+    }
+
+    private void notifyCategoryChanged(Category category) {
+        getNoteCache().putCategory(category);
+        for (CategoryChangedListener listener : categoryChangedListeners) {
+            listener.onCategoryChanged(category);
+        }
     }
 }
@@ -0,0 +1,497 @@
+package de.hauke_stieler.geonotes.export;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import android.util.Pair;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.hauke_stieler.geonotes.categories.Category;
+import de.hauke_stieler.geonotes.common.FileHelper;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.notes.Note;
+import de.hauke_stieler.geonotes.notes.NoteInserter;
+import de.hauke_stieler.geonotes.photo.ThumbnailUtil;
+
+/**
+ * Creates and restores backups of all notes, categories and photos (incl. thumbnails). A backup is
+ * one single binary file, which is much smaller and faster to write and read than a GeoJSON export.
+ * <p>
+ * The file format (all numbers are unsigned varints unless stated otherwise, strings are a varint
+ * byte length followed by UTF-8 bytes, blobs are a varint length followed by raw bytes):
+ * <pre>
+ * "GNBK" format-version
+ * category-count { uuid color name }
+ * { id-delta lat-delta lon-delta category-index created-at uuid description } 0
+ * photo-count { note-id file-name photo-blob thumbnail-blob }
+ * </pre>
+ * Notes are ordered by ID, so the ID delta is always positive and 0 marks the end of the notes.
+ * Coordinates are fixed-point numbers (degrees * 10^7, which is about 1cm) stored as zigzag encoded
+ * signed difference to the previous note, so nearby notes only need a few bytes. The creation time
+ * is zigzag encoded milliseconds since the epoch (as in "Delta"), so it doesn't depend on the time
+ * zone of the device. The category of a note is the index into the category table. Notes and
+ * categories keep their UUID, so restored objects are still the same for other devices exchanging
+ * deltas (s. "Delta"). Photos are JPEGs already, so they're stored as they are.
+ */
+public class Backup {
+    private static final String LOGTAG = Backup.class.getName();
+
+    private static final byte[] MAGIC = {'G', 'N', 'B', 'K'};
+    private static final int FORMAT_VERSION = 3;
+    private static final double COORDINATE_FACTOR = 1e7;
+
+    // Number of notes read from the database at once and inserted within one transaction
+    private static final int BATCH_SIZE = 1000;
+
+    // Photo files are written with this suffix during the restore and only renamed after it succeeded
+    private static final String TEMPORARY_FILE_SUFFIX = ".restore";
+
+    private final AsyncDatabase database;
+    private final Context context;
+
+    public Backup(AsyncDatabase database, Context context) {
+        this.database = database;
+        this.context = context;
+    }
+
+    /**
+     * Writes a backup file in the background and opens the share dialog for it afterwards.
+     *
+     * @param callback Gets true when the backup has been written successfully.
+     */
+    public void create(AsyncDatabase.Callback<Boolean> callback) {
+        String timeStamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
+
+        File storageDir = context.getExternalFilesDir("GeoNotes");
+        File backupFile = new File(storageDir, "geonotes-backup_" + timeStamp + ".gnbk");
+
+        database.read(db -> {
+            try {
+                OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(backupFile));
+                try {
+                    write(db, storageDir, outputStream);
+                } finally {
+                    outputStream.close();
+                }
+                return true;
+            } catch (Exception e) {
+                Log.e(LOGTAG, "Writing backup failed: " + e.toString());
+                backupFile.delete();
+                return false;
+            }
+        }, successful -> {
+            if (successful) {
+                FileHelper.openShareIntent(context, backupFile, "application/octet-stream");
+            }
+            callback.onResult(successful);
+        });
+    }
+
+    /**
+     * Replaces all notes and photos by the content of the given backup file in the background.
+     *
+     * @param callback Gets the number of restored notes or -1 if the restore failed. In this case
+     *                 the existing notes are untouched.
+     */
+    public void restore(Uri uri, AsyncDatabase.Callback<Integer> callback) {
+        File storageDir = context.getExternalFilesDir("GeoNotes");
+
+        database.write(db -> {
+            try {
+                InputStream inputStream = context.getContentResolver().openInputStream(uri);
+                try {
+                    return read(db, storageDir, inputStream);
+                } finally {
+                    inputStream.close();
+                }
+            } catch (Exception e) {
+                Log.e(LOGTAG, "Restoring backup failed: " + e.toString());
+                return -1;
+            }
+        }, callback);
+    }
+
+    /**
+     * Writes all categories, notes and photos of the database into the given stream.
+     *
+     * @param storageDir The directory containing the photo files.
+     */
+    static void write(Database database, File storageDir, OutputStream outputStream) throws IOException {
+        outputStream.write(MAGIC);
+        writeVarLong(outputStream, FORMAT_VERSION);
+
+        List<Category> categories = database.getAllCategories();
+        Map<Long, Integer> categoryIndices = new HashMap<>();
+        writeVarLong(outputStream, categories.size());
+        for (Category category : categories) {
+            categoryIndices.put(category.getId(), categoryIndices.size());
+            String uuid = database.getCategoryUuid(category.getId());
+            writeString(outputStream, uuid == null ? "" : uuid);
+            writeString(outputStream, category.getColorString());
+            writeString(outputStream, category.getName());
+        }
+
+        Map<Long, String> noteUuids = database.getAllNoteUuids();
+        long lastId = 0;
+        long lastLat = 0;
+        long lastLon = 0;
+        Iterator<Note> notes = database.iterateAllNotes(BATCH_SIZE);
+        while (notes.hasNext()) {
+            Note note = notes.next();
+            long lat = Math.round(note.getLat() * COORDINATE_FACTOR);
+            long lon = Math.round(note.getLon() * COORDINATE_FACTOR);
+            Integer categoryIndex = note.getCategory() == null ? null : categoryIndices.get(note.getCategory().getId());
+            String uuid = noteUuids.get(note.getId());
+
+            writeVarLong(outputStream, note.getId() - lastId);
+            writeVarLong(outputStream, zigzag(lat - lastLat));
+            writeVarLong(outputStream, zigzag(lon - lastLon));
+            writeVarLong(outputStream, categoryIndex == null ? 0 : categoryIndex);
+            writeVarLong(outputStream, zigzag(note.getCreationTime()));
+            writeString(outputStream, uuid == null ? "" : uuid);
+            writeString(outputStream, note.getDescription());
+
+            lastId = note.getId();
+            lastLat = lat;
+            lastLon = lon;
+        }
+        writeVarLong(outputStream, 0);
+
+        List<Pair<Long, String>> photos = database.getAllPhotos();
+        writeVarLong(outputStream, photos.size());
+        for (Pair<Long, String> photo : photos) {
+            File photoFile = new File(storageDir, photo.second);
+
+            writeVarLong(outputStream, photo.first);
+            writeString(outputStream, photo.second);
+            writeFile(outputStream, photoFile);
+            writeFile(outputStream, ThumbnailUtil.getThumbnailFile(photoFile));
+        }
+
+        outputStream.flush();
+    }
+
+    /**
+     * Replaces all notes and photos by the ones from the given backup stream. Categories of the
+     * backup overwrite the local category with the same UUID. Notes get new IDs but keep their UUID.
+     * <p>
+     * Everything happens within one transaction, so a broken backup doesn't leave a half restored
+     * database behind. Photo files are written to temporary files first, which replace the
+     * existing files only after the restore succeeded. Old photo files are removed afterwards.
+     *
+     * @param storageDir The directory the photo files are written to.
+     * @return The number of restored notes.
+     */
+    static int read(Database database, File storageDir, InputStream inputStream) throws IOException {
+        inputStream = new BufferedInputStream(inputStream);
+
+        byte[] magic = new byte[MAGIC.length];
+        readFully(inputStream, magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException("Not a GeoNotes backup");
+            }
+        }
+        long formatVersion = readVarLong(inputStream);
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported backup format version " + formatVersion);
+        }
+
+        List<Pair<Long, String>> oldPhotos = database.getAllPhotos();
+        Set<String> restoredPhotos = new HashSet<>();
+        // Temporary files and the files they replace after the restore
+        List<Pair<File, File>> restoredFiles = new ArrayList<>();
+        int restoredNotes = 0;
+        boolean successful = false;
+
+        try {
+            database.beginTransaction();
+            try {
+                restoredNotes = readNotesAndPhotos(database, storageDir, inputStream, restoredPhotos, restoredFiles);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            successful = true;
+        } finally {
+            if (!successful) {
+                for (Pair<File, File> restoredFile : restoredFiles) {
+                    restoredFile.first.delete();
+                }
+            }
+        }
+
+        for (Pair<File, File> restoredFile : restoredFiles) {
+            if (!restoredFile.first.renameTo(restoredFile.second)) {
+                Log.e(LOGTAG, "Could not rename " + restoredFile.first.getName() + " to " + restoredFile.second.getName());
+                restoredFile.first.delete();
+            }
+        }
+
+        for (Pair<Long, String> oldPhoto : oldPhotos) {
+            if (!restoredPhotos.contains(oldPhoto.second)) {
+                File photoFile = new File(storageDir, oldPhoto.second);
+                photoFile.delete();
+                ThumbnailUtil.getThumbnailFile(photoFile).delete();
+            }
+        }
+
+        return restoredNotes;
+    }
+
+    /**
+     * Replaces all notes and photos within the current transaction. Photo and thumbnail blobs are
+     * written to temporary files.
+     *
+     * @param restoredPhotos Gets the file names of all restored photos.
+     * @param restoredFiles  Gets the written temporary files and the files they're meant for.
+     * @return The number of restored notes.
+     */
+    private static int readNotesAndPhotos(Database database, File storageDir, InputStream inputStream, Set<String> restoredPhotos, List<Pair<File, File>> restoredFiles) throws IOException {
+        int restoredNotes = 0;
+        database.removeAllNotes();
+
+        List<Long> categoryIds = readCategories(database, inputStream);
+
+        // Maps the note IDs of the backup to the new IDs
+        Map<Long, Long> noteIds = new HashMap<>();
+
+        NoteInserter inserter = database.newNoteInserter(BATCH_SIZE);
+        try {
+            long id = 0;
+            long lat = 0;
+            long lon = 0;
+            long idDelta;
+            while ((idDelta = readVarLong(inputStream)) != 0) {
+                id += idDelta;
+                lat += unzigzag(readVarLong(inputStream));
+                lon += unzigzag(readVarLong(inputStream));
+                int categoryIndex = (int) readVarLong(inputStream);
+                long createdAt = unzigzag(readVarLong(inputStream));
+                String uuid = readString(inputStream);
+                String description = readString(inputStream);
+
+                if (categoryIndex >= categoryIds.size()) {
+                    throw new IOException("Invalid category index " + categoryIndex);
+                }
+
+                long newId = uuid.isEmpty()
+                        ? inserter.insert(description, lat / COORDINATE_FACTOR, lon / COORDINATE_FACTOR, createdAt, categoryIds.get(categoryIndex))
+                        : inserter.insert(uuid, description, lat / COORDINATE_FACTOR, lon / COORDINATE_FACTOR, createdAt, categoryIds.get(categoryIndex));
+                noteIds.put(id, newId);
+                restoredNotes++;
+            }
+        } finally {
+            inserter.close();
+        }
+
+        long photoCount = readVarLong(inputStream);
+        for (long i = 0; i < photoCount; i++) {
+            Long noteId = noteIds.get(readVarLong(inputStream));
+            // Only the name, the backup must not be able to write files elsewhere
+            String fileName = new File(readString(inputStream)).getName();
+            if (noteId == null) {
+                skipFile(inputStream);
+                skipFile(inputStream);
+                continue;
+            }
+
+            File photoFile = new File(storageDir, fileName);
+            readTemporaryFile(inputStream, photoFile, restoredFiles);
+            readTemporaryFile(inputStream, ThumbnailUtil.getThumbnailFile(photoFile), restoredFiles);
+
+            database.addPhoto(noteId, photoFile);
+            restoredPhotos.add(fileName);
+        }
+
+        return restoredNotes;
+    }
+
+    /**
+     * Reads a blob into a temporary file next to the given file. Non-empty blobs are added to
+     * "restoredFiles", so the temporary file replaces the given file after the restore.
+     */
+    private static void readTemporaryFile(InputStream inputStream, File file, List<Pair<File, File>> restoredFiles) throws IOException {
+        File temporaryFile = new File(file.getParentFile(), file.getName() + TEMPORARY_FILE_SUFFIX);
+        // Added before reading, so a partially written file is removed as well
+        restoredFiles.add(new Pair<>(temporaryFile, file));
+        readFile(inputStream, temporaryFile);
+        if (!temporaryFile.exists()) {
+            restoredFiles.remove(restoredFiles.size() - 1);
+        }
+    }
+
+    /**
+     * Reads the category table and updates or adds the local categories accordingly.
+     *
+     * @return The local category IDs in the order of the category table.
+     */
+    private static List<Long> readCategories(Database database, InputStream inputStream) throws IOException {
+        long categoryCount = readVarLong(inputStream);
+        List<Long> categoryIds = new ArrayList<>();
+        for (long i = 0; i < categoryCount; i++) {
+            String uuid = readString(inputStream);
+            String color = readString(inputStream);
+            String name = readString(inputStream);
+
+            categoryIds.add(uuid.isEmpty() ? database.addCategory(color, name) : database.putCategory(uuid, color, name));
+        }
+
+        return categoryIds;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarLong(OutputStream outputStream, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            outputStream.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        outputStream.write((int) value);
+    }
+
+    static long readVarLong(InputStream inputStream) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(inputStream);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    static void writeString(OutputStream outputStream, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarLong(outputStream, bytes.length);
+        outputStream.write(bytes);
+    }
+
+    static String readString(InputStream inputStream) throws IOException {
+        byte[] bytes = new byte[readLength(inputStream)];
+        readFully(inputStream, bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Writes the content of the file as blob. A missing file is written as empty blob.
+     */
+    static void writeFile(OutputStream outputStream, File file) throws IOException {
+        if (!file.exists()) {
+            writeVarLong(outputStream, 0);
+            return;
+        }
+
+        writeVarLong(outputStream, file.length());
+        InputStream fileStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            long remaining = file.length();
+            int n;
+            while (remaining > 0 && (n = fileStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                outputStream.write(buffer, 0, n);
+                remaining -= n;
+            }
+            if (remaining > 0) {
+                throw new IOException("File " + file.getName() + " changed while writing backup");
+            }
+        } finally {
+            fileStream.close();
+        }
+    }
+
+    /**
+     * Reads a blob into the given file. Nothing is written for an empty blob.
+     */
+    static void readFile(InputStream inputStream, File file) throws IOException {
+        long remaining = readVarLong(inputStream);
+        if (remaining == 0) {
+            return;
+        }
+
+        OutputStream fileStream = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            while (remaining > 0) {
+                int n = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n == -1) {
+                    throw new EOFException();
+                }
+                fileStream.write(buffer, 0, n);
+                remaining -= n;
+            }
+        } finally {
+            fileStream.close();
+        }
+    }
+
+    /**
+     * Skips a blob written by "writeFile()".
+     */
+    static void skipFile(InputStream inputStream) throws IOException {
+        long remaining = readVarLong(inputStream);
+        while (remaining > 0) {
+            long n = inputStream.skip(remaining);
+            if (n <= 0) {
+                if (inputStream.read() == -1) {
+                    throw new EOFException();
+                }
+                n = 1;
+            }
+            remaining -= n;
+        }
+    }
+
+    static int readLength(InputStream inputStream) throws IOException {
+        long length = readVarLong(inputStream);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid length " + length);
+        }
+        return (int) length;
+    }
+
+    private static int readByte(InputStream inputStream) throws IOException {
+        int b = inputStream.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    static void readFully(InputStream inputStream, byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int n = inputStream.read(bytes, offset, bytes.length - offset);
+            if (n == -1) {
+                throw new EOFException();
+            }
+            offset += n;
+        }
+    }
+}
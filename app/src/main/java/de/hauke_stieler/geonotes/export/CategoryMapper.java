@@ -0,0 +1,85 @@
+package de.hauke_stieler.geonotes.export;
+
+import java.util.HashMap;
+import java.util.List;
+
+import de.hauke_stieler.geonotes.categories.Category;
+
+/**
+ * Finds the local category for a category of an imported note. Category IDs of different devices
+ * don't necessarily mean the same, so the ID is only trusted when the name or color matches as
+ * well. Otherwise categories are matched by name and then by color. Imported notes without any
+ * matching category get the first local category.
+ */
+class CategoryMapper {
+    private final List<Category> localCategories;
+    private final long defaultCategoryId;
+    // Imports usually contain only a few different categories, so remember the result per category
+    private final java.util.Map<String, Long> cache;
+
+    CategoryMapper(List<Category> localCategories) {
+        this.localCategories = localCategories;
+        this.cache = new HashMap<>();
+
+        long defaultCategoryId = Long.MAX_VALUE;
+        for (Category category : localCategories) {
+            defaultCategoryId = Math.min(defaultCategoryId, category.getId());
+        }
+        this.defaultCategoryId = defaultCategoryId;
+    }
+
+    /**
+     * @param importedCategory Category as given in the imported file. Name and color may be null.
+     * @return The ID of the matching local category.
+     */
+    long getLocalCategoryId(Category importedCategory) {
+        if (importedCategory == null) {
+            return defaultCategoryId;
+        }
+
+        String key = importedCategory.getId() + "|" + importedCategory.getName() + "|" + importedCategory.getColorString();
+        Long localId = cache.get(key);
+        if (localId == null) {
+            localId = findLocalCategoryId(importedCategory);
+            cache.put(key, localId);
+        }
+        return localId;
+    }
+
+    private long findLocalCategoryId(Category importedCategory) {
+        String name = importedCategory.getName();
+        String color = importedCategory.getColorString();
+
+        Category sameId = null;
+        Category sameName = null;
+        Category sameColor = null;
+        for (Category category : localCategories) {
+            boolean nameMatches = name != null && name.trim().equalsIgnoreCase(category.getName().trim());
+            boolean colorMatches = color != null && color.equalsIgnoreCase(category.getColorString());
+
+            if (category.getId() == importedCategory.getId()) {
+                if (nameMatches || colorMatches) {
+                    return category.getId();
+                }
+                sameId = category;
+            }
+            if (nameMatches && sameName == null) {
+                sameName = category;
+            }
+            if (colorMatches && sameColor == null) {
+                sameColor = category;
+            }
+        }
+
+        if (sameName != null) {
+            return sameName.getId();
+        }
+        if (sameColor != null) {
+            return sameColor.getId();
+        }
+        if (sameId != null) {
+            return sameId.getId();
+        }
+        return defaultCategoryId;
+    }
+}
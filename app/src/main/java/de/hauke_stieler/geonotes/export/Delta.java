@@ -0,0 +1,411 @@
+package de.hauke_stieler.geonotes.export;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import org.osmdroid.util.GeoPoint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.hauke_stieler.geonotes.categories.Category;
+import de.hauke_stieler.geonotes.common.FileHelper;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+import de.hauke_stieler.geonotes.database.ChangeLog;
+import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.notes.Note;
+import de.hauke_stieler.geonotes.notes.NoteInserter;
+import de.hauke_stieler.geonotes.photo.ThumbnailUtil;
+
+/**
+ * Exchanges changes between devices via files. A delta file contains all notes, photos and
+ * categories changed after a certain sequence number of the change log (s. "ChangeLog"), so only
+ * the changes since the last exchange need to be transferred instead of a whole backup.
+ * <p>
+ * The file format uses the same encoding as the backup (s. "Backup"):
+ * <pre>
+ * "GNDL" format-version last-sequence
+ * category-count { uuid changed-at operation [ color name ] }
+ * note-count { uuid changed-at operation [ lat lon category-uuid created-at description ] }
+ * photo-count { file-name changed-at operation [ note-uuid photo-blob thumbnail-blob ] }
+ * </pre>
+ * The values in brackets are only present for inserted and updated objects, deleted objects only
+ * consist of their key. Coordinates are zigzag encoded fixed-point numbers (degrees * 10^7), the
+ * creation time is zigzag encoded milliseconds since the epoch. Categories are identified by their
+ * UUID, because their local IDs differ between devices. Notes of unknown categories have an empty
+ * category UUID.
+ * <p>
+ * When applying a delta, the newer change wins: A received change is ignored when the local
+ * object has been changed later.
+ */
+public class Delta {
+    private static final String LOGTAG = Delta.class.getName();
+
+    private static final byte[] MAGIC = {'G', 'N', 'D', 'L'};
+    private static final int FORMAT_VERSION = 2;
+    private static final double COORDINATE_FACTOR = 1e7;
+
+    // Number of new notes inserted within one transaction
+    private static final int BATCH_SIZE = 1000;
+
+    private final AsyncDatabase database;
+    private final Context context;
+
+    public Delta(AsyncDatabase database, Context context) {
+        this.database = database;
+        this.context = context;
+    }
+
+    /**
+     * Writes a delta file with all changes after the given sequence number in the background and
+     * opens the share dialog for it afterwards. No file is shared when nothing has changed.
+     *
+     * @param callback Gets the sequence number of the latest exported change, which is the
+     *                 "afterSequence" of the next export. Gets -1 if writing the delta failed.
+     */
+    public void create(long afterSequence, AsyncDatabase.Callback<Long> callback) {
+        String timeStamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
+
+        File storageDir = context.getExternalFilesDir("GeoNotes");
+        File deltaFile = new File(storageDir, "geonotes-delta_" + timeStamp + ".gndl");
+
+        database.read(db -> {
+            try {
+                OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(deltaFile));
+                try {
+                    return write(db, storageDir, outputStream, afterSequence);
+                } finally {
+                    outputStream.close();
+                }
+            } catch (Exception e) {
+                Log.e(LOGTAG, "Writing delta failed: " + e.toString());
+                deltaFile.delete();
+                return -1L;
+            }
+        }, lastSequence -> {
+            if (lastSequence > afterSequence) {
+                FileHelper.openShareIntent(context, deltaFile, "application/octet-stream");
+            } else {
+                deltaFile.delete();
+            }
+            callback.onResult(lastSequence);
+        });
+    }
+
+    /**
+     * Applies the changes of the given delta file in the background.
+     *
+     * @param callback Gets the number of applied changes or -1 if applying the delta failed. In
+     *                 this case nothing has been changed.
+     */
+    public void apply(Uri uri, AsyncDatabase.Callback<Integer> callback) {
+        File storageDir = context.getExternalFilesDir("GeoNotes");
+
+        database.write(db -> {
+            try {
+                InputStream inputStream = context.getContentResolver().openInputStream(uri);
+                try {
+                    return read(db, storageDir, inputStream);
+                } finally {
+                    inputStream.close();
+                }
+            } catch (Exception e) {
+                Log.e(LOGTAG, "Applying delta failed: " + e.toString());
+                return -1;
+            }
+        }, callback);
+    }
+
+    /**
+     * Writes all changes after the given sequence number into the stream.
+     *
+     * @param storageDir The directory containing the photo files.
+     * @return The sequence number of the latest written change or "afterSequence" if nothing has
+     * been changed.
+     */
+    static long write(Database database, File storageDir, OutputStream outputStream, long afterSequence) throws IOException {
+        List<ChangeLog.Change> categoryChanges = new ArrayList<>();
+        List<ChangeLog.Change> noteChanges = new ArrayList<>();
+        List<ChangeLog.Change> photoChanges = new ArrayList<>();
+        long lastSequence = afterSequence;
+        for (ChangeLog.Change change : database.getLocalChangesAfter(afterSequence)) {
+            if (change.getType() == ChangeLog.TYPE_CATEGORY) {
+                categoryChanges.add(change);
+            } else if (change.getType() == ChangeLog.TYPE_NOTE) {
+                noteChanges.add(change);
+            } else if (change.getType() == ChangeLog.TYPE_PHOTO) {
+                photoChanges.add(change);
+            }
+            lastSequence = change.getSequence();
+        }
+
+        outputStream.write(MAGIC);
+        Backup.writeVarLong(outputStream, FORMAT_VERSION);
+        Backup.writeVarLong(outputStream, lastSequence);
+
+        Map<Long, Category> categories = new HashMap<>();
+        for (Category category : database.getAllCategories()) {
+            categories.put(category.getId(), category);
+        }
+
+        Backup.writeVarLong(outputStream, categoryChanges.size());
+        for (ChangeLog.Change change : categoryChanges) {
+            Long categoryId = database.getCategoryIdByUuid(change.getKey());
+            Category category = categoryId == null ? null : categories.get(categoryId);
+            int operation = category == null ? ChangeLog.OPERATION_DELETE : change.getOperation();
+
+            Backup.writeString(outputStream, change.getKey());
+            Backup.writeVarLong(outputStream, change.getChangedAt());
+            Backup.writeVarLong(outputStream, operation);
+            if (operation != ChangeLog.OPERATION_DELETE) {
+                Backup.writeString(outputStream, category.getColorString());
+                Backup.writeString(outputStream, category.getName());
+            }
+        }
+
+        Map<Long, String> categoryUuids = new HashMap<>();
+
+        Backup.writeVarLong(outputStream, noteChanges.size());
+        for (ChangeLog.Change change : noteChanges) {
+            Long noteId = database.getNoteIdByUuid(change.getKey());
+            Note note = noteId == null ? null : database.getNote("" + noteId);
+            // A note without a row has been deleted, even if the change log isn't up to date
+            int operation = note == null ? ChangeLog.OPERATION_DELETE : change.getOperation();
+
+            Backup.writeString(outputStream, change.getKey());
+            Backup.writeVarLong(outputStream, change.getChangedAt());
+            Backup.writeVarLong(outputStream, operation);
+            if (operation != ChangeLog.OPERATION_DELETE) {
+                Backup.writeVarLong(outputStream, Backup.zigzag(Math.round(note.getLat() * COORDINATE_FACTOR)));
+                Backup.writeVarLong(outputStream, Backup.zigzag(Math.round(note.getLon() * COORDINATE_FACTOR)));
+                Backup.writeString(outputStream, getCategoryUuid(database, categoryUuids, note.getCategory()));
+                Backup.writeVarLong(outputStream, Backup.zigzag(note.getCreationTime()));
+                Backup.writeString(outputStream, note.getDescription());
+            }
+        }
+
+        Backup.writeVarLong(outputStream, photoChanges.size());
+        for (ChangeLog.Change change : photoChanges) {
+            Long noteId = database.getPhotoNoteId(change.getKey());
+            String noteUuid = noteId == null ? null : database.getNoteUuid(noteId);
+            int operation = noteUuid == null ? ChangeLog.OPERATION_DELETE : change.getOperation();
+
+            Backup.writeString(outputStream, change.getKey());
+            Backup.writeVarLong(outputStream, change.getChangedAt());
+            Backup.writeVarLong(outputStream, operation);
+            if (operation != ChangeLog.OPERATION_DELETE) {
+                File photoFile = new File(storageDir, change.getKey());
+                Backup.writeString(outputStream, noteUuid);
+                Backup.writeFile(outputStream, photoFile);
+                Backup.writeFile(outputStream, ThumbnailUtil.getThumbnailFile(photoFile));
+            }
+        }
+
+        outputStream.flush();
+        return lastSequence;
+    }
+
+    /**
+     * Applies all changes of the delta stream, which are newer than the local changes of the same
+     * objects. Applied changes keep their original time in the local change log and are not sent
+     * back with the next delta.
+     * <p>
+     * Everything happens within one transaction, so a broken delta doesn't leave a half applied
+     * database behind. Photo files are only removed after the delta has been applied.
+     *
+     * @param storageDir The directory the photo files are written to.
+     * @return The number of applied changes.
+     */
+    static int read(Database database, File storageDir, InputStream inputStream) throws IOException {
+        inputStream = new BufferedInputStream(inputStream);
+
+        byte[] magic = new byte[MAGIC.length];
+        Backup.readFully(inputStream, magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException("Not a GeoNotes delta");
+            }
+        }
+        long formatVersion = Backup.readVarLong(inputStream);
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported delta format version " + formatVersion);
+        }
+        // Sequence number of the sender, only informative
+        Backup.readVarLong(inputStream);
+
+        List<File> removedPhotoFiles = new ArrayList<>();
+        int appliedChanges = 0;
+
+        database.beginTransaction();
+        try {
+            long categoryCount = Backup.readVarLong(inputStream);
+            for (long i = 0; i < categoryCount; i++) {
+                String uuid = Backup.readString(inputStream);
+                long changedAt = Backup.readVarLong(inputStream);
+                int operation = (int) Backup.readVarLong(inputStream);
+                // Categories can't be deleted, so a deleted category is just unknown to the sender
+                if (operation == ChangeLog.OPERATION_DELETE) {
+                    continue;
+                }
+
+                String color = Backup.readString(inputStream);
+                String name = Backup.readString(inputStream);
+                if (isOutdated(database, ChangeLog.TYPE_CATEGORY, uuid, changedAt)) {
+                    continue;
+                }
+
+                database.putCategory(uuid, color, name);
+                database.logReceivedChange(ChangeLog.TYPE_CATEGORY, uuid, operation, changedAt);
+                appliedChanges++;
+            }
+
+            Map<String, Long> categoryIds = new HashMap<>();
+
+            NoteInserter inserter = database.newNoteInserter(BATCH_SIZE);
+            try {
+                long noteCount = Backup.readVarLong(inputStream);
+                for (long i = 0; i < noteCount; i++) {
+                    String uuid = Backup.readString(inputStream);
+                    long changedAt = Backup.readVarLong(inputStream);
+                    int operation = (int) Backup.readVarLong(inputStream);
+                    boolean deleted = operation == ChangeLog.OPERATION_DELETE;
+
+                    double lat = 0;
+                    double lon = 0;
+                    long categoryId = 0;
+                    long createdAt = 0;
+                    String description = null;
+                    if (!deleted) {
+                        lat = Backup.unzigzag(Backup.readVarLong(inputStream)) / COORDINATE_FACTOR;
+                        lon = Backup.unzigzag(Backup.readVarLong(inputStream)) / COORDINATE_FACTOR;
+                        categoryId = getCategoryId(database, categoryIds, Backup.readString(inputStream));
+                        createdAt = Backup.unzigzag(Backup.readVarLong(inputStream));
+                        description = Backup.readString(inputStream);
+                    }
+
+                    if (isOutdated(database, ChangeLog.TYPE_NOTE, uuid, changedAt)) {
+                        continue;
+                    }
+
+                    Long noteId = database.getNoteIdByUuid(uuid);
+                    if (deleted) {
+                        if (noteId != null) {
+                            for (String photo : database.getPhotos("" + noteId)) {
+                                database.removePhoto(photo);
+                                removedPhotoFiles.add(new File(storageDir, photo));
+                            }
+                            database.removeNote(noteId);
+                        }
+                    } else if (noteId != null) {
+                        database.updateNote(noteId, description, categoryId);
+                        database.updateNoteLocation(noteId, new GeoPoint(lat, lon));
+                    } else {
+                        inserter.insert(uuid, description, lat, lon, createdAt, categoryId);
+                    }
+
+                    database.logReceivedChange(ChangeLog.TYPE_NOTE, uuid, operation, changedAt);
+                    appliedChanges++;
+                }
+            } finally {
+                inserter.close();
+            }
+
+            long photoCount = Backup.readVarLong(inputStream);
+            for (long i = 0; i < photoCount; i++) {
+                // Only the name, the delta must not be able to write files elsewhere
+                String fileName = new File(Backup.readString(inputStream)).getName();
+                long changedAt = Backup.readVarLong(inputStream);
+                int operation = (int) Backup.readVarLong(inputStream);
+                File photoFile = new File(storageDir, fileName);
+
+                if (operation == ChangeLog.OPERATION_DELETE) {
+                    if (isOutdated(database, ChangeLog.TYPE_PHOTO, fileName, changedAt) || database.getPhotoNoteId(fileName) == null) {
+                        continue;
+                    }
+
+                    database.removePhoto(fileName);
+                    removedPhotoFiles.add(photoFile);
+                } else {
+                    Long noteId = database.getNoteIdByUuid(Backup.readString(inputStream));
+                    // Photos never change, so an existing photo is already up to date
+                    if (noteId == null || database.getPhotoNoteId(fileName) != null || isOutdated(database, ChangeLog.TYPE_PHOTO, fileName, changedAt)) {
+                        Backup.skipFile(inputStream);
+                        Backup.skipFile(inputStream);
+                        continue;
+                    }
+
+                    Backup.readFile(inputStream, photoFile);
+                    Backup.readFile(inputStream, ThumbnailUtil.getThumbnailFile(photoFile));
+                    database.addPhoto(noteId, photoFile);
+                }
+
+                database.logReceivedChange(ChangeLog.TYPE_PHOTO, fileName, operation, changedAt);
+                appliedChanges++;
+            }
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        for (File photoFile : removedPhotoFiles) {
+            photoFile.delete();
+            ThumbnailUtil.getThumbnailFile(photoFile).delete();
+        }
+
+        return appliedChanges;
+    }
+
+    /**
+     * @return True if the local object has been changed at the same time or later. Changes with
+     * the same time are changes this device has sent before, they come back with the next delta of
+     * the other device.
+     */
+    private static boolean isOutdated(Database database, int type, String key, long changedAt) {
+        ChangeLog.Change localChange = database.getChange(type, key);
+        return localChange != null && localChange.getChangedAt() >= changedAt;
+    }
+
+    /**
+     * @return The UUID of the category or an empty string, if the category is unknown.
+     */
+    private static String getCategoryUuid(Database database, Map<Long, String> cache, Category category) {
+        if (category == null) {
+            return "";
+        }
+
+        String uuid = cache.get(category.getId());
+        if (uuid == null) {
+            uuid = database.getCategoryUuid(category.getId());
+            uuid = uuid == null ? "" : uuid;
+            cache.put(category.getId(), uuid);
+        }
+        return uuid;
+    }
+
+    /**
+     * @return The local ID of the category with the given UUID or "Category.NONE_ID", if there's
+     * no such category.
+     */
+    private static long getCategoryId(Database database, Map<String, Long> cache, String uuid) {
+        Long id = cache.get(uuid);
+        if (id == null) {
+            id = uuid.isEmpty() ? null : database.getCategoryIdByUuid(uuid);
+            id = id == null ? Category.NONE_ID : id;
+            cache.put(uuid, id);
+        }
+        return id;
+    }
+}
@@ -1,75 +1,186 @@
 package de.hauke_stieler.geonotes.export;
 
 import android.content.Context;
-import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
 
 import de.hauke_stieler.geonotes.R;
 import de.hauke_stieler.geonotes.common.FileHelper;
-import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
 import de.hauke_stieler.geonotes.notes.Note;
 
+/**
+ * Exports all notes into a file in the background and opens the share dialog for it afterwards.
+ * Only one export can run at a time.
+ */
 public class Exporter {
     private static final String LOGTAG = Exporter.class.getName();
 
-    private final Database database;
+    // Number of notes read from the database at once. Progress is also reported after each page.
+    private static final int PAGE_SIZE = 500;
+
+    public interface ProgressListener {
+        /**
+         * Called on the main thread whenever another page of notes has been exported.
+         */
+        void onProgress(long exportedNotes, long totalNotes);
+
+        /**
+         * Called on the main thread when the export is done, failed or has been cancelled.
+         */
+        void onFinished();
+    }
+
+    /**
+     * Writes the content of an export file.
+     */
+    private interface ExportWriter {
+        void write(Iterator<Note> notes, Writer writer) throws IOException;
+    }
+
+    private final AsyncDatabase database;
     private final Context context;
+    private final Handler mainHandler;
 
-    public Exporter(Database database, Context context) {
+    private ProgressListener progressListener;
+    private boolean running;
+    private volatile boolean cancelled;
+
+    public Exporter(AsyncDatabase database, Context context) {
         this.database = database;
         this.context = context;
+        this.mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops the currently running export. The partially written file is removed and nothing is shared.
+     */
+    public void cancel() {
+        cancelled = true;
     }
 
     public void shareAsGeoJson() {
-        String geoJson = GeoJson.toGeoJson(database.getAllNotes());
         String fileExtension = ".geojson";
         String mimeType = "application/geo+json";
 
-        openShareIntent(geoJson, fileExtension, mimeType);
+        export(GeoJson::write, fileExtension, mimeType, R.string.geojson_export_failed);
     }
 
     public void shareAsGpx() {
-        List<Note> notes = database.getAllNotes();
-        String gpxString = Gpx.toGpx(notes);
-
-        if ("".equals(gpxString)) {
-            Toast.makeText(context, R.string.gpx_export_failed, Toast.LENGTH_SHORT).show();
-        }
-
         String fileExtension = ".gpx";
         String mimeType = "application/gpx+xml";
 
-        openShareIntent(gpxString, fileExtension, mimeType);
+        export(Gpx::write, fileExtension, mimeType, R.string.gpx_export_failed);
     }
 
-    private void openShareIntent(String data, String fileExtension, String mimeType) {
-        try {
-            String timeStamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
-
-            File storageDir = context.getExternalFilesDir("GeoNotes");
-            File exportFile = new File(storageDir, "geonotes-export_" + timeStamp + fileExtension);
-            OutputStreamWriter outputStreamWriter = new OutputStreamWriter(new FileOutputStream(exportFile));
-            outputStreamWriter.write(data);
-            outputStreamWriter.close();
-
-            Intent sendIntent = new Intent();
-            sendIntent.setAction(Intent.ACTION_SEND);
-            sendIntent.putExtra(Intent.EXTRA_STREAM, FileHelper.getFileUri(context, exportFile));
-            sendIntent.setType(mimeType);
-
-            Intent shareIntent = Intent.createChooser(sendIntent, null);
-            shareIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK); // needed because we're outside of an activity
-            context.startActivity(shareIntent);
-        } catch (Exception e) {
-            Log.e(LOGTAG, "File write failed: " + e.toString());
+    /**
+     * Writes the export file in the background (without building the whole content in memory
+     * first) and opens the share dialog for it once the file is completely written.
+     */
+    private void export(ExportWriter exportWriter, String fileExtension, String mimeType, int errorMessageId) {
+        if (running) {
+            return;
+        }
+        running = true;
+        cancelled = false;
+
+        String timeStamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
+
+        File storageDir = context.getExternalFilesDir("GeoNotes");
+        File exportFile = new File(storageDir, "geonotes-export_" + timeStamp + fileExtension);
+
+        database.read(db -> {
+            try {
+                long totalNotes = db.getNoteCount();
+                Iterator<Note> notes = new ProgressIterator(db.iterateAllNotes(PAGE_SIZE), totalNotes);
+
+                Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(exportFile), "UTF-8"));
+                try {
+                    exportWriter.write(notes, writer);
+                } finally {
+                    writer.close();
+                }
+                return true;
+            } catch (CancellationException e) {
+                Log.i(LOGTAG, "Export cancelled");
+            } catch (Exception e) {
+                Log.e(LOGTAG, "File write failed: " + e.toString());
+            }
+
+            exportFile.delete();
+            return false;
+        }, successful -> {
+            running = false;
+            if (progressListener != null) {
+                progressListener.onFinished();
+            }
+
+            if (successful) {
+                FileHelper.openShareIntent(context, exportFile, mimeType);
+            } else if (!cancelled) {
+                Toast.makeText(context, errorMessageId, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Passes the notes through, reports the progress after each page and stops the export (by
+     * throwing a CancellationException) as soon as it has been cancelled.
+     */
+    private class ProgressIterator implements Iterator<Note> {
+        private final Iterator<Note> notes;
+        private final long totalNotes;
+        private long exportedNotes;
+
+        ProgressIterator(Iterator<Note> notes, long totalNotes) {
+            this.notes = notes;
+            this.totalNotes = totalNotes;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            return notes.hasNext();
+        }
+
+        @Override
+        public Note next() {
+            Note note = notes.next();
+            exportedNotes++;
+
+            if (exportedNotes % PAGE_SIZE == 0 || exportedNotes == totalNotes) {
+                long progress = exportedNotes;
+                mainHandler.post(() -> {
+                    if (progressListener != null) {
+                        progressListener.onProgress(progress, totalNotes);
+                    }
+                });
+            }
+
+            return note;
         }
     }
 }
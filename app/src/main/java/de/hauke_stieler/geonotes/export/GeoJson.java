@@ -1,16 +1,210 @@
 package de.hauke_stieler.geonotes.export;
 
-import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Iterator;
 import java.util.List;
 
+import de.hauke_stieler.geonotes.categories.Category;
 import de.hauke_stieler.geonotes.notes.Note;
 
+/**
+ * Writes and reads notes as GeoJSON feature collection. The notes are written and read one by one,
+ * so even exports of many notes don't need to keep the whole document in memory.
+ */
 public class GeoJson {
     public static String toGeoJson(List<Note> notes) {
-        return new GsonBuilder()
-                .setPrettyPrinting()
-                .create()
-                .toJson(new NoteExportModel(notes));
+        StringWriter stringWriter = new StringWriter();
+        try {
+            write(notes.iterator(), stringWriter);
+        } catch (IOException e) {
+            // Can't happen when writing into a string
+            throw new RuntimeException(e);
+        }
+        return stringWriter.toString();
+    }
+
+    /**
+     * Writes all notes of the iterator into the given writer. The writer is flushed but not closed.
+     */
+    public static void write(Iterator<Note> notes, Writer writer) throws IOException {
+        // Same format as a pretty printing Gson instance would produce
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.setIndent("  ");
+        jsonWriter.setHtmlSafe(true);
+        jsonWriter.setSerializeNulls(false);
+
+        jsonWriter.beginObject();
+        jsonWriter.name("type").value("FeatureCollection");
+        jsonWriter.name("features");
+        jsonWriter.beginArray();
+        while (notes.hasNext()) {
+            writeFeature(jsonWriter, notes.next());
+        }
+        jsonWriter.endArray();
+        jsonWriter.endObject();
+
+        jsonWriter.flush();
+    }
+
+    private static void writeFeature(JsonWriter jsonWriter, Note note) throws IOException {
+        jsonWriter.beginObject();
+        jsonWriter.name("type").value("Feature");
+
+        jsonWriter.name("properties");
+        jsonWriter.beginObject();
+        jsonWriter.name("name").value(note.getId());
+        jsonWriter.name("description").value(note.getDescription());
+        jsonWriter.name("created_at").value(note.getCreationDateTimeString());
+        Category category = note.getCategory();
+        if (category != null) {
+            jsonWriter.name("category");
+            jsonWriter.beginObject();
+            jsonWriter.name("id").value(category.getId());
+            jsonWriter.name("name").value(category.getName());
+            jsonWriter.name("color").value(category.getColorString());
+            jsonWriter.endObject();
+        }
+        jsonWriter.endObject();
+
+        jsonWriter.name("geometry");
+        jsonWriter.beginObject();
+        jsonWriter.name("type").value("Point");
+        jsonWriter.name("coordinates");
+        jsonWriter.beginArray();
+        jsonWriter.value(note.getLon());
+        jsonWriter.value(note.getLat());
+        jsonWriter.endArray();
+        jsonWriter.endObject();
+
+        jsonWriter.endObject();
+    }
+
+    /**
+     * Reads all point features of a feature collection in the format written by "write()". Each
+     * note is passed to the handler as soon as it has been read.
+     */
+    static void read(Reader reader, Importer.NoteHandler handler) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            if ("features".equals(jsonReader.nextName())) {
+                jsonReader.beginArray();
+                while (jsonReader.hasNext()) {
+                    readFeature(jsonReader, handler);
+                }
+                jsonReader.endArray();
+            } else {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+    }
+
+    private static void readFeature(JsonReader jsonReader, Importer.NoteHandler handler) throws IOException {
+        String description = null;
+        String createdAt = null;
+        Category category = null;
+        double[] coordinates = null;
+
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String name = jsonReader.nextName();
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.skipValue();
+            } else if ("properties".equals(name)) {
+                jsonReader.beginObject();
+                while (jsonReader.hasNext()) {
+                    String propertyName = jsonReader.nextName();
+                    if (jsonReader.peek() == JsonToken.NULL) {
+                        jsonReader.skipValue();
+                    } else if ("description".equals(propertyName)) {
+                        description = jsonReader.nextString();
+                    } else if ("created_at".equals(propertyName)) {
+                        createdAt = jsonReader.nextString();
+                    } else if ("category".equals(propertyName)) {
+                        category = readCategory(jsonReader);
+                    } else {
+                        jsonReader.skipValue();
+                    }
+                }
+                jsonReader.endObject();
+            } else if ("geometry".equals(name)) {
+                coordinates = readPointCoordinates(jsonReader);
+            } else {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        // Only points can become notes
+        if (coordinates != null) {
+            handler.onNote(new Note(-1, description, coordinates[1], coordinates[0], createdAt, category));
+        }
+    }
+
+    private static Category readCategory(JsonReader jsonReader) throws IOException {
+        long id = Category.NONE_ID;
+        String name = null;
+        String color = null;
+
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String propertyName = jsonReader.nextName();
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.skipValue();
+            } else if ("id".equals(propertyName)) {
+                id = jsonReader.nextLong();
+            } else if ("name".equals(propertyName)) {
+                name = jsonReader.nextString();
+            } else if ("color".equals(propertyName)) {
+                color = jsonReader.nextString();
+            } else {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        return new Category(id, color, name);
+    }
+
+    /**
+     * @return Longitude and latitude or null if the geometry isn't a point.
+     */
+    private static double[] readPointCoordinates(JsonReader jsonReader) throws IOException {
+        String type = null;
+        double[] coordinates = null;
+
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String name = jsonReader.nextName();
+            if ("type".equals(name) && jsonReader.peek() == JsonToken.STRING) {
+                type = jsonReader.nextString();
+            } else if ("coordinates".equals(name) && jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+                jsonReader.beginArray();
+                if (jsonReader.peek() == JsonToken.NUMBER) {
+                    double lon = jsonReader.nextDouble();
+                    double lat = jsonReader.nextDouble();
+                    coordinates = new double[]{lon, lat};
+                }
+                // Ignore elevation or (for other geometries than points) further coordinates
+                while (jsonReader.hasNext()) {
+                    jsonReader.skipValue();
+                }
+                jsonReader.endArray();
+            } else {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        return "Point".equals(type) ? coordinates : null;
     }
 }
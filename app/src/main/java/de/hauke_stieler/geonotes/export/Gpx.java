@@ -1,40 +1,208 @@
 package de.hauke_stieler.geonotes.export;
 
 import android.util.Log;
+import android.util.Xml;
 
-import java.io.ByteArrayOutputStream;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Iterator;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import de.hauke_stieler.geonotes.categories.Category;
 import de.hauke_stieler.geonotes.notes.Note;
-import me.himanshusoni.gpxparser.GPXWriter;
-import me.himanshusoni.gpxparser.modal.GPX;
-import me.himanshusoni.gpxparser.modal.Waypoint;
 
+/**
+ * Writes and reads notes as GPX waypoints. The XML is written and read directly waypoint by
+ * waypoint, so even exports of many notes don't need to keep the whole document in memory.
+ */
 public class Gpx {
     private static final String LOGTAG = Gpx.class.getName();
 
-    static String toGpx(List<Note> notes) {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        GPX gpx = new GPX();
+    private static final String INDENT = "  ";
 
-        try {
-            for (Note note : notes) {
-                Waypoint waypoint = new Waypoint(note.getLat(), note.getLon());
-                waypoint.setName(note.getId() + "");
-                waypoint.setTime(note.getCreationDateTime().getTime());
-                waypoint.setDescription(note.getDescription());
-                waypoint.setType(note.getCategory().getId() + " (" + note.getCategory().getName() + ")");
-                gpx.addWaypoint(waypoint);
-            }
+    // Format of the "time" element as written by "write()" (s. "toCreationDateTime()")
+    private static final Pattern TIME_PATTERN = Pattern.compile("^(\\d{4}-\\d{2}-\\d{2})T(\\d{2}:\\d{2}:\\d{2})");
+    // Format of the "type" element as written by "write()": "<category-id> (<category-name>)"
+    private static final Pattern TYPE_PATTERN = Pattern.compile("^(\\d{1,18}) \\((.*)\\)$", Pattern.DOTALL);
 
-            // TODO Use normal GPXWriter from library, when indentation is supported
-            GPXWriter writer = new CustomGpxWriter();
-            writer.writeGPX(gpx, outputStream);
+    static String toGpx(List<Note> notes) {
+        StringWriter stringWriter = new StringWriter();
+        try {
+            write(notes.iterator(), stringWriter);
         } catch (Exception e) {
             Log.e(LOGTAG, "GPX creation failed: " + e.toString());
             return "";
         }
 
-        return new String(outputStream.toByteArray());
+        return stringWriter.toString();
+    }
+
+    /**
+     * Writes all notes of the iterator into the given writer. The writer is flushed but not closed.
+     */
+    public static void write(Iterator<Note> notes, Writer writer) throws IOException {
+        SimpleDateFormat xmlDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+
+        if (!notes.hasNext()) {
+            writer.write("<gpx version=\"1.1\"/>\n");
+            writer.flush();
+            return;
+        }
+
+        writer.write("<gpx version=\"1.1\">\n");
+        while (notes.hasNext()) {
+            writeWaypoint(writer, notes.next(), xmlDateFormat);
+        }
+        writer.write("</gpx>\n");
+
+        writer.flush();
+    }
+
+    private static void writeWaypoint(Writer writer, Note note, SimpleDateFormat xmlDateFormat) throws IOException {
+        String time = xmlDateFormat.format(note.getCreationDateTime().getTime());
+
+        writer.write(INDENT);
+        writer.write("<wpt lat=\"" + note.getLat() + "\" lon=\"" + note.getLon() + "\">\n");
+
+        writeElement(writer, "time", time);
+        writeElement(writer, "name", note.getId() + "");
+        writeElement(writer, "desc", note.getDescription());
+        Category category = note.getCategory();
+        if (category != null) {
+            writeElement(writer, "type", category.getId() + " (" + category.getName() + ")");
+        }
+
+        writer.write(INDENT);
+        writer.write("</wpt>\n");
+    }
+
+    private static void writeElement(Writer writer, String name, String text) throws IOException {
+        if (text == null) {
+            return;
+        }
+
+        writer.write(INDENT);
+        writer.write(INDENT);
+        if (text.isEmpty()) {
+            writer.write("<" + name + "/>\n");
+            return;
+        }
+
+        writer.write("<" + name + ">");
+        writeEscaped(writer, text);
+        writer.write("</" + name + ">\n");
+    }
+
+    private static void writeEscaped(Writer writer, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '\r':
+                    writer.write("&#13;");
+                    break;
+                default:
+                    // Other control characters are not allowed in XML 1.0
+                    if (c >= 0x20 || c == '\t' || c == '\n') {
+                        writer.write(c);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Reads all waypoints of a GPX file. Each note is passed to the handler as soon as it has been read.
+     */
+    static void read(InputStream inputStream, Importer.NoteHandler handler) throws IOException, XmlPullParserException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        parser.setInput(inputStream, null);
+
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG && "wpt".equals(parser.getName())) {
+                readWaypoint(parser, handler);
+            }
+            eventType = parser.next();
+        }
+    }
+
+    private static void readWaypoint(XmlPullParser parser, Importer.NoteHandler handler) throws IOException, XmlPullParserException {
+        String latString = parser.getAttributeValue(null, "lat");
+        String lonString = parser.getAttributeValue(null, "lon");
+
+        String createdAt = null;
+        String description = null;
+        Category category = null;
+
+        int depth = parser.getDepth();
+        while (parser.next() != XmlPullParser.END_TAG || parser.getDepth() > depth) {
+            if (parser.getEventType() == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("Unexpected end of document within waypoint");
+            }
+            if (parser.getEventType() != XmlPullParser.START_TAG || parser.getDepth() != depth + 1) {
+                continue;
+            }
+
+            switch (parser.getName()) {
+                case "time":
+                    createdAt = toCreationDateTime(parser.nextText());
+                    break;
+                case "desc":
+                    description = parser.nextText();
+                    break;
+                case "type":
+                    category = toCategory(parser.nextText());
+                    break;
+            }
+        }
+
+        if (latString == null || lonString == null) {
+            return;
+        }
+
+        try {
+            handler.onNote(new Note(-1, description, Double.parseDouble(latString), Double.parseDouble(lonString), createdAt, category));
+        } catch (NumberFormatException e) {
+            Log.w(LOGTAG, "Ignoring waypoint with invalid location: " + latString + ", " + lonString);
+        }
+    }
+
+    /**
+     * The export writes the local creation time with a "Z" suffix, so the date and time are just
+     * taken over as they are.
+     */
+    private static String toCreationDateTime(String time) {
+        Matcher matcher = TIME_PATTERN.matcher(time.trim());
+        if (!matcher.find()) {
+            return null;
+        }
+        return matcher.group(1) + " " + matcher.group(2);
+    }
+
+    private static Category toCategory(String type) {
+        Matcher matcher = TYPE_PATTERN.matcher(type.trim());
+        if (matcher.matches()) {
+            return new Category(Long.parseLong(matcher.group(1)), null, matcher.group(2));
+        }
+        return new Category(Category.NONE_ID, null, type.trim());
     }
 }
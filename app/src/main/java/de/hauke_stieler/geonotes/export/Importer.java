@@ -0,0 +1,136 @@
+package de.hauke_stieler.geonotes.export;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.notes.Note;
+import de.hauke_stieler.geonotes.notes.NoteInserter;
+
+/**
+ * Imports notes from GeoJSON and GPX files as created by the Exporter. The file is read note by
+ * note and the notes are inserted in large batches, so even huge files can be imported quickly.
+ * <p>
+ * Imported notes always get new IDs. Their categories are mapped to the local categories (s.
+ * "CategoryMapper").
+ */
+public class Importer {
+    private static final String LOGTAG = Importer.class.getName();
+
+    // Number of notes inserted within one transaction
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Gets every note read from a file. The ID of these notes is meaningless and the category only
+     * contains what's stated in the file.
+     */
+    interface NoteHandler {
+        void onNote(Note note);
+    }
+
+    private final AsyncDatabase database;
+    private final Context context;
+
+    public Importer(AsyncDatabase database, Context context) {
+        this.database = database;
+        this.context = context;
+    }
+
+    /**
+     * Imports all notes of the given GeoJSON or GPX file in the background.
+     *
+     * @param callback Gets the number of imported notes or -1 if the import failed.
+     */
+    public void importFile(Uri uri, AsyncDatabase.Callback<Integer> callback) {
+        database.write(db -> {
+            try {
+                InputStream inputStream = context.getContentResolver().openInputStream(uri);
+                try {
+                    return importNotes(db, inputStream);
+                } finally {
+                    inputStream.close();
+                }
+            } catch (Exception e) {
+                Log.e(LOGTAG, "Import failed: " + e.toString());
+                return -1;
+            }
+        }, callback);
+    }
+
+    /**
+     * Imports all notes of the given stream. The format (GeoJSON or GPX) is detected automatically.
+     * When the import fails in the middle of the file, the notes read so far stay imported.
+     *
+     * @return The number of imported notes.
+     */
+    static int importNotes(Database database, InputStream inputStream) throws IOException, XmlPullParserException {
+        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
+        boolean isJson = startsWith(bufferedInputStream, '{');
+
+        CategoryMapper categoryMapper = new CategoryMapper(database.getAllCategories());
+        long now = System.currentTimeMillis();
+        int[] importedNotes = new int[1];
+
+        NoteInserter inserter = database.newNoteInserter(BATCH_SIZE);
+        try {
+            NoteHandler handler = note -> {
+                String description = note.getDescription() == null ? "" : note.getDescription();
+                long createdAt = note.getCreationTime();
+                if (createdAt == Note.UNKNOWN_CREATION_TIME) {
+                    createdAt = now;
+                }
+                long categoryId = categoryMapper.getLocalCategoryId(note.getCategory());
+
+                inserter.insert(description, note.getLat(), note.getLon(), createdAt, categoryId);
+                importedNotes[0]++;
+            };
+
+            if (isJson) {
+                skipByteOrderMark(bufferedInputStream);
+                GeoJson.read(new InputStreamReader(bufferedInputStream, "UTF-8"), handler);
+            } else {
+                Gpx.read(bufferedInputStream, handler);
+            }
+        } finally {
+            inserter.close();
+        }
+
+        return importedNotes[0];
+    }
+
+    /**
+     * @return True when the first non-whitespace character of the stream is the given one. The
+     * stream position is not changed.
+     */
+    private static boolean startsWith(BufferedInputStream inputStream, char expected) throws IOException {
+        inputStream.mark(1024);
+        try {
+            int c;
+            do {
+                c = inputStream.read();
+            } while (c != -1 && (Character.isWhitespace(c) || c == 0xEF || c == 0xBB || c == 0xBF)); // also skip UTF-8 byte order mark
+            return c == expected;
+        } finally {
+            inputStream.reset();
+        }
+    }
+
+    /**
+     * The JSON reader can't handle a UTF-8 byte order mark, which some editors add to files.
+     */
+    private static void skipByteOrderMark(BufferedInputStream inputStream) throws IOException {
+        inputStream.mark(3);
+        if (inputStream.read() != 0xEF || inputStream.read() != 0xBB || inputStream.read() != 0xBF) {
+            inputStream.reset();
+        }
+    }
+}
@@ -5,16 +5,26 @@ import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.Marker;
 
 public class GeoNotesMarker extends Marker {
+    private final long noteId;
     private long categoryId;
 
-    public GeoNotesMarker(MapView mapView, String id, String description, GeoPoint position, long categoryId) {
+    public GeoNotesMarker(MapView mapView, long noteId, String description, GeoPoint position, long categoryId) {
         super(mapView);
-        setId(id);
+        this.noteId = noteId;
+        setId("" + noteId);
         setSnippet(description);
         setPosition(position);
+        setAnchor(NotesOverlay.ICON_ANCHOR_U, NotesOverlay.ICON_ANCHOR_V);
         this.categoryId = categoryId;
     }
 
+    /**
+     * @return The ID of the note this marker belongs to. Use this instead of parsing "getId()".
+     */
+    public long getNoteId() {
+        return noteId;
+    }
+
     public long getCategoryId() {
         return categoryId;
     }
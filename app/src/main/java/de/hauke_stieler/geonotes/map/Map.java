@@ -9,6 +9,7 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.PowerManager;
 import android.util.DisplayMetrics;
+import android.util.Pair;
 import android.view.MotionEvent;
 import android.widget.Toast;
 
@@ -22,12 +23,12 @@ import org.osmdroid.config.Configuration;
 import org.osmdroid.events.MapEventsReceiver;
 import org.osmdroid.events.MapListener;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.CustomZoomButtonsController;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.MapEventsOverlay;
 import org.osmdroid.views.overlay.Marker;
-import org.osmdroid.views.overlay.Overlay;
 import org.osmdroid.views.overlay.ScaleBarOverlay;
 import org.osmdroid.views.overlay.mylocation.GpsMyLocationProvider;
 import org.osmdroid.views.overlay.mylocation.MyLocationNewOverlay;
@@ -38,14 +39,23 @@ import java.util.List;
 import de.hauke_stieler.geonotes.Injector;
 import de.hauke_stieler.geonotes.R;
 import de.hauke_stieler.geonotes.common.BitmapRenderer;
+import de.hauke_stieler.geonotes.common.LongSet;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
 import de.hauke_stieler.geonotes.database.Database;
 import de.hauke_stieler.geonotes.notes.Note;
 import de.hauke_stieler.geonotes.notes.NoteIconProvider;
 
 public class Map {
+    // The area in which notes are loaded is the visible area scaled by this factor. This prevents
+    // loading notes after every small movement of the map.
+    private static final float LOADED_AREA_SCALE = 1.5f;
+    // Below this zoom level, notes are shown as clusters instead of single markers.
+    private static final double CLUSTER_MAX_ZOOM = 14;
+
     private final Context context;
     private final PowerManager.WakeLock wakeLock;
-    private final Database database;
+    private final AsyncDatabase database;
+    private final NoteWriteBuffer writeBuffer;
     private final SharedPreferences preferences;
     private final NoteIconProvider noteIconProvider;
 
@@ -57,6 +67,15 @@ public class Map {
     private final MarkerFragment markerFragment;
     private Marker.OnMarkerClickListener markerClickListener;
 
+    // IDs of all notes having photos. Loaded together with the visible notes and used to choose the
+    // marker icons without querying the database for every single marker.
+    private LongSet noteIdsWithPhotos;
+    // Increased with every load of visible notes. Results of older loads are then outdated and discarded.
+    private int loadGeneration;
+    // The area of the last load of visible notes. Null while clusters are shown.
+    private BoundingBox loadedArea;
+    private final Database.NoteChangedListener noteChangedListener;
+
     private boolean snapNoteToGps;
 
     // Variables used during moving a marker. Do not use when no marker is currently in move mode (aka when markerToMove==null)
@@ -65,21 +84,29 @@ public class Map {
 
     private SnappableRotationOverlay rotationGestureOverlay;
     private ClickableMapCompass compassOverlay;
+    private NoteClusterOverlay clusterOverlay;
+    // Shows all loaded notes except the selected one, which is a GeoNotesMarker.
+    private NotesOverlay notesOverlay;
 
     public Map(Context context,
                MapView map,
-               Database database,
+               AsyncDatabase database,
                SharedPreferences preferences,
                NoteIconProvider noteIconProvider) {
         this.context = context;
         this.map = map;
         this.database = database;
+        this.writeBuffer = new NoteWriteBuffer(database);
         this.preferences = preferences;
         this.noteIconProvider = noteIconProvider;
+        this.noteIdsWithPhotos = new LongSet();
 
         markerFragment = Injector.get(MarkerFragment.class);
         addMarkerFragmentEventHandler(markerFragment);
 
+        noteChangedListener = createNoteChangedListener();
+        database.addNoteChangedListener(noteChangedListener);
+
         // Keep device on
         final PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
         wakeLock = pm.newWakeLock(PowerManager.SCREEN_DIM_WAKE_LOCK, "geonotes:wakelock");
@@ -113,24 +140,101 @@ public class Map {
 
         createOverlays((BitmapDrawable) locationIcon, (BitmapDrawable) arrowIcon);
 
-        reloadAllNotes();
+        // The visible area is only known after the map has been layouted.
+        map.addOnFirstLayoutListener((v, left, top, right, bottom) -> loadVisibleNotes());
     }
 
+    /**
+     * Removes all notes and loads the notes of the visible area again. This is needed when notes
+     * may have been changed somewhere else (e.g. in the note list).
+     */
     public void reloadAllNotes() {
-        for (Overlay o : map.getOverlays()) {
-            if (o instanceof Marker) {
-                map.getOverlayManager().remove(o);
+        notesOverlay.clear();
+
+        database.getNoteCount(noteCount -> {
+            if (noteCount != null && noteCount == 0) {
+                this.markerFragment.reset();
             }
+        });
+
+        loadVisibleNotes();
+    }
+
+    /**
+     * Makes sure that exactly the notes within the visible area (plus a margin) are shown. The
+     * selected note has its own marker, which is never removed.
+     */
+    public void loadVisibleNotes() {
+        BoundingBox box = map.getBoundingBox().increaseByScale(LOADED_AREA_SCALE);
+        int generation = ++loadGeneration;
+
+        // Too many markers would make the map slow, so show clusters instead
+        if (map.getZoomLevelDouble() < CLUSTER_MAX_ZOOM) {
+            loadedArea = null;
+            notesOverlay.clear();
+            clusterOverlay.update(box, map.getZoomLevelDouble());
+            redraw();
+            return;
         }
+        clusterOverlay.clear();
+        loadedArea = box;
+
+        database.read(db -> {
+            List<Note> visibleNotes = db.getNotesInBoundingBox(box.getLatNorth(), box.getLonEast(), box.getLatSouth(), box.getLonWest(), null);
+            LongSet noteIdsWithPhotos = db.getNoteIdsWithPhotos();
+            return new Pair<>(visibleNotes, noteIdsWithPhotos);
+        }, result -> {
+            if (result != null && generation == loadGeneration) {
+                noteIdsWithPhotos = result.second;
+                showVisibleNotes(result.first);
+            }
+        });
+    }
 
-        List<Note> allNotes = this.database.getAllNotes();
-        if (allNotes.isEmpty()) {
-            this.markerFragment.reset();
-        } else {
-            for (Note n : allNotes) {
-                createMarker("" + n.getId(), n.getDescription(), new GeoPoint(n.getLat(), n.getLon()), n.getCategory().getId(), markerClickListener);
+    private void showVisibleNotes(List<Note> visibleNotes) {
+        notesOverlay.setNotes(visibleNotes, noteIdsWithPhotos);
+        redraw();
+    }
+
+    /**
+     * Applies changes of single notes (e.g. made in the note list or by the write buffer) to the
+     * notes overlay instead of loading all visible notes again.
+     */
+    private Database.NoteChangedListener createNoteChangedListener() {
+        return new Database.NoteChangedListener() {
+            @Override
+            public void onNoteChanged(Note note) {
+                // The selected note has its own marker, which already shows the latest state
+                GeoNotesMarker selectedMarker = markerFragment.getSelectedMarker();
+                if (selectedMarker != null && selectedMarker.getNoteId() == note.getId()) {
+                    return;
+                }
+
+                // Clusters are updated with the next movement of the map
+                if (loadedArea == null) {
+                    return;
+                }
+
+                if (loadedArea.contains(note.getLat(), note.getLon())) {
+                    notesOverlay.putNote(note.getId(), note.getLat(), note.getLon(), note.getCategory().getId(), noteIdsWithPhotos.contains(note.getId()));
+                } else {
+                    notesOverlay.removeNote(note.getId());
+                }
+                redraw();
             }
-        }
+
+            @Override
+            public void onNoteRemoved(long noteId) {
+                noteIdsWithPhotos.remove(noteId);
+                notesOverlay.removeNote(noteId);
+                redraw();
+            }
+
+            @Override
+            public void onAllNotesChanged() {
+                reloadAllNotes();
+            }
+        };
     }
 
     private void createOverlays(BitmapDrawable locationIcon, BitmapDrawable arrowIcon) {
@@ -199,6 +303,15 @@ public class Map {
         };
         map.getOverlays().add(new MapEventsOverlay(mapEventsReceiver));
 
+        // Add notes after mapEventReceiver so that a click on a note does not create a new note
+        notesOverlay = new NotesOverlay(noteIconProvider);
+        notesOverlay.setNoteClickListener(this::selectNote);
+        map.getOverlays().add(notesOverlay);
+
+        // Add clusters after mapEventReceiver so that a click on a cluster does not create a new note
+        clusterOverlay = new NoteClusterOverlay(context, map, database, noteIconProvider);
+        map.getOverlays().add(clusterOverlay);
+
         // Add compass after mapEventReceiver so that a click on the compass does not create a new note
         compassOverlay = new ClickableMapCompass(context, rotationGestureOverlay, map);
         compassOverlay.enableCompass();
@@ -237,13 +350,10 @@ public class Map {
                     break;
                 case MotionEvent.ACTION_UP:
                     if (markerToMove != null) {
-                        selectMarker(markerToMove, false);
+                        // Every marker belongs to a note in the DB, therefore we store that new location
+                        database.updateNoteLocation(markerToMove.getNoteId(), markerToMove.getPosition());
 
-                        // If the ID is set, the marker exists in the DB, therefore we store that new location
-                        String id = markerToMove.getId();
-                        if (id != null) {
-                            database.updateNoteLocation(Long.parseLong(id), markerToMove.getPosition());
-                        }
+                        selectMarker(markerToMove, false);
 
                         dragStartMarkerPosition = null;
                         markerToMove = null;
@@ -259,17 +369,30 @@ public class Map {
             @Override
             public void onDelete(GeoNotesMarker marker) {
                 // We always have an ID and can therefore delete the note
-                database.removeNote(Long.parseLong(marker.getId()));
-                database.removePhotos(Long.parseLong(marker.getId()), context.getExternalFilesDir("GeoNotes"));
+                writeBuffer.discard(marker.getNoteId());
+                noteIdsWithPhotos.remove(marker.getNoteId());
+                database.removeNote(marker.getNoteId(), context.getExternalFilesDir("GeoNotes"));
                 map.getOverlays().remove(marker);
+                notesOverlay.removeNote(marker.getNoteId());
+                if (getSelectedMarker() == null) {
+                    notesOverlay.setHiddenNoteId(NotesOverlay.NO_NOTE);
+                }
                 redraw();
             }
 
             @Override
             public void onSave(GeoNotesMarker marker) {
-                // We always have an ID and can therefore update the note
-                database.updateNoteDescription(Long.parseLong(marker.getId()), marker.getSnippet());
-                onCategoryChanged(marker);
+                // We always have an ID and can therefore update the note. This is called on every
+                // typed character, so the change is buffered and written later.
+                writeBuffer.setDescription(marker.getNoteId(), marker.getSnippet());
+
+                // The marker is not selected anymore (e.g. the save button has been clicked), so
+                // no further changes are expected.
+                if (getSelectedMarker() != marker) {
+                    writeBuffer.flush();
+                    releaseMarker(marker);
+                    redraw();
+                }
             }
 
             @Override
@@ -280,11 +403,11 @@ public class Map {
 
             @Override
             public void onCategoryChanged(GeoNotesMarker marker) {
-                database.updateNoteCategory(Long.parseLong(marker.getId()), marker.getCategoryId());
+                writeBuffer.setCategory(marker.getNoteId(), marker.getCategoryId());
 
                 SharedPreferences.Editor editor = preferences.edit();
                 editor.putLong(context.getString(R.string.pref_last_category_id), marker.getCategoryId());
-                editor.commit();
+                editor.apply();
 
                 setIcon(marker, getSelectedMarker() == marker);
                 redraw();
@@ -303,14 +426,20 @@ public class Map {
     private void initAndSelectMarker(GeoPoint location) {
         long categoryId = preferences.getLong(context.getString(R.string.pref_last_category_id), 1);
 
-        long id = database.addNote("", location.getLatitude(), location.getLongitude(), categoryId);
+        database.addNote("", location.getLatitude(), location.getLongitude(), categoryId, id -> {
+            if (id == null) {
+                Toast.makeText(context, R.string.note_create_failed, Toast.LENGTH_SHORT).show();
+                return;
+            }
 
-        if (snapNoteToGps) {
-            location = snapToGpsLocation(location);
-        }
+            GeoPoint markerLocation = location;
+            if (snapNoteToGps) {
+                markerLocation = snapToGpsLocation(location);
+            }
 
-        GeoNotesMarker newMarker = createMarker("" + id, "", location, categoryId, markerClickListener);
-        selectMarker(newMarker, true);
+            GeoNotesMarker newMarker = createMarker(id, "", markerLocation, categoryId, markerClickListener);
+            selectMarker(newMarker, true);
+        });
     }
 
     /**
@@ -341,12 +470,24 @@ public class Map {
     }
 
     public void selectNote(long noteId) {
-        String noteIdString = "" + noteId;
-        for (Overlay marker : map.getOverlays()) {
-            if (marker instanceof GeoNotesMarker && ((GeoNotesMarker) marker).getId().equals(noteIdString)) {
-                this.selectMarker((GeoNotesMarker) marker, false);
-            }
+        GeoNotesMarker selectedMarker = markerFragment.getSelectedMarker();
+        if (selectedMarker != null && selectedMarker.getNoteId() == noteId) {
+            this.selectMarker(selectedMarker, false);
+            return;
         }
+
+        // Only the selected note has a marker, which is therefore created from the note in the
+        // database. If the note is outside of the visible area, selecting it moves the map to the
+        // note, which then loads all other notes around it.
+        database.getNote(noteId, note -> {
+            // The note might have been deleted in the meantime
+            if (note == null) {
+                return;
+            }
+
+            GeoNotesMarker marker = createMarker(noteId, note.getDescription(), new GeoPoint(note.getLat(), note.getLon()), note.getCategory().getId(), markerClickListener);
+            this.selectMarker(marker, false);
+        });
     }
 
     /**
@@ -362,11 +503,15 @@ public class Map {
         // Deselect previously selected marker
         GeoNotesMarker currentlySelectedMarker = markerFragment.getSelectedMarker();
         if (currentlySelectedMarker != null) {
-            // This icon will not be the selected marker after "showInfoWindow", therefore we set the normal icon here.
-            setIcon(currentlySelectedMarker, false);
+            writeBuffer.flush();
             markerFragment.reset();
+
+            if (currentlySelectedMarker != markerToSelect) {
+                releaseMarker(currentlySelectedMarker);
+            }
         }
 
+        notesOverlay.setHiddenNoteId(markerToSelect.getNoteId());
         setIcon(markerToSelect, true);
         markerFragment.selectMarker(markerToSelect, transferEditTextContent);
         zoomToSelectedMarker();
@@ -375,6 +520,25 @@ public class Map {
         redraw();
     }
 
+    /**
+     * Removes the marker of a note, which is not selected anymore, and shows the note as part of
+     * the notes overlay again.
+     */
+    private void releaseMarker(GeoNotesMarker marker) {
+        map.getOverlays().remove(marker);
+
+        // When clusters are shown, the notes overlay is empty and the note is part of a cluster
+        if (map.getZoomLevelDouble() >= CLUSTER_MAX_ZOOM) {
+            GeoPoint position = marker.getPosition();
+            long noteId = marker.getNoteId();
+            notesOverlay.putNote(noteId, position.getLatitude(), position.getLongitude(), marker.getCategoryId(), noteIdsWithPhotos.contains(noteId));
+        }
+
+        if (getSelectedMarker() == null) {
+            notesOverlay.setHiddenNoteId(NotesOverlay.NO_NOTE);
+        }
+    }
+
     private Marker getSelectedMarker() {
         return markerFragment.getSelectedMarker();
     }
@@ -392,19 +556,32 @@ public class Map {
             return;
         }
 
-        List<String> photoFileNames = database.getPhotos(marker.getId());
-        for (String photoFileName : photoFileNames) {
-            File storageDir = context.getExternalFilesDir("GeoNotes");
-            File image = new File(storageDir, photoFileName);
-            markerFragment.addPhoto(image);
-        }
+        database.getPhotos(marker.getNoteId(), photoFileNames -> {
+            // The selection might have changed in the meantime
+            if (photoFileNames == null || markerFragment.getSelectedMarker() != marker) {
+                return;
+            }
 
-        setIcon(marker, true);
-        redraw();
+            for (String photoFileName : photoFileNames) {
+                File storageDir = context.getExternalFilesDir("GeoNotes");
+                File image = new File(storageDir, photoFileName);
+                markerFragment.addPhoto(image);
+            }
+
+            if (photoFileNames.isEmpty()) {
+                noteIdsWithPhotos.remove(marker.getNoteId());
+            } else {
+                noteIdsWithPhotos.add(marker.getNoteId());
+            }
+
+            marker.setIcon(noteIconProvider.getIcon(marker.getCategoryId(), true, !photoFileNames.isEmpty()));
+            redraw();
+        });
     }
 
     private void setIcon(GeoNotesMarker marker, boolean isSelected) {
-        marker.setIcon(noteIconProvider.getIcon(marker.getCategoryId(), isSelected, database.hasPhotos(marker.getId())));
+        boolean hasPhotos = noteIdsWithPhotos.contains(marker.getNoteId());
+        marker.setIcon(noteIconProvider.getIcon(marker.getCategoryId(), isSelected, hasPhotos));
     }
 
     public void setZoomButtonVisibility(boolean visible) {
@@ -430,10 +607,12 @@ public class Map {
     }
 
     /**
-     * Just creates a new marker and adds it to the map overlay. No database operations or selection is performed.
+     * Just creates a new marker and adds it to the map overlay. No database operations or selection
+     * is performed. Only the selected note has such a marker, all other notes are part of the notes
+     * overlay.
      */
-    private GeoNotesMarker createMarker(String id, String description, GeoPoint p, long categoryId, Marker.OnMarkerClickListener markerClickListener) {
-        GeoNotesMarker marker = new GeoNotesMarker(map, id, description, p, categoryId);
+    private GeoNotesMarker createMarker(long noteId, String description, GeoPoint p, long categoryId, Marker.OnMarkerClickListener markerClickListener) {
+        GeoNotesMarker marker = new GeoNotesMarker(map, noteId, description, p, categoryId);
         marker.setOnMarkerClickListener(markerClickListener);
         setIcon(marker, false);
         map.getOverlays().add(marker);
@@ -450,10 +629,13 @@ public class Map {
     }
 
     public void onPause() {
+        writeBuffer.flush();
         map.onPause();
     }
 
     public void onDestroy() {
+        database.removeNoteChangedListener(noteChangedListener);
+        writeBuffer.flush();
         markerFragment.reset();
         if (wakeLock.isHeld()) {
             wakeLock.release();
@@ -32,16 +32,17 @@ import org.apache.commons.text.StringEscapeUtils;
 import org.osmdroid.views.overlay.Marker;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import de.hauke_stieler.geonotes.Injector;
 import de.hauke_stieler.geonotes.R;
 import de.hauke_stieler.geonotes.common.FileHelper;
-import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
 import de.hauke_stieler.geonotes.categories.Category;
-import de.hauke_stieler.geonotes.notes.Note;
-import de.hauke_stieler.geonotes.photo.ThumbnailUtil;
+import de.hauke_stieler.geonotes.photo.ThumbnailService;
 
 public class MarkerFragment extends Fragment {
     private static final String LOGTAG = MarkerFragment.class.getName();
@@ -82,9 +83,15 @@ public class MarkerFragment extends Fragment {
     private State state;
     private Spinner categorySpinner;
     private CategorySpinnerAdapter categorySpinnerAdapter;
+    // The category to select, even when the categories are not loaded yet
+    private long categoryIdToSelect;
 
-    private Database database;
+    // Thumbnails of the shown photos that are still loading
+    private final List<Future<?>> thumbnailRequests = new ArrayList<>();
+
+    private AsyncDatabase database;
     private SharedPreferences preferences;
+    private ThumbnailService thumbnailService;
 
     public MarkerFragment() {
         super(R.layout.marker_fragment);
@@ -94,8 +101,9 @@ public class MarkerFragment extends Fragment {
     public void onAttach(@NonNull Context context) {
         super.onAttach(context);
         Log.i("MarkerFragment", "onAttach: ");
-        this.database = Injector.get(Database.class);
+        this.database = Injector.get(AsyncDatabase.class);
         this.preferences = Injector.get(SharedPreferences.class);
+        this.thumbnailService = Injector.get(ThumbnailService.class);
     }
 
     public void addEventHandler(MarkerFragmentEventHandler markerEventHandler) {
@@ -148,19 +156,37 @@ public class MarkerFragment extends Fragment {
         categorySpinnerAdapter = new CategorySpinnerAdapter(getContext(), R.layout.item_category_spinner);
         long lastUsedCategoryId = preferences.getLong(getString(R.string.pref_last_category_id), 1);
 
-        List<Category> allCategories = database.getAllCategories();
-        for (int i = 0; i < allCategories.size(); i++) {
-            Category category = allCategories.get(i);
-            categorySpinnerAdapter.add(category);
-        }
-
         categorySpinner = view.findViewById(R.id.category_spinner);
         categorySpinner.setAdapter(categorySpinnerAdapter);
         selectCategory(lastUsedCategoryId);
+
+        database.getAllCategories(allCategories -> {
+            if (allCategories == null) {
+                return;
+            }
+
+            for (int i = 0; i < allCategories.size(); i++) {
+                Category category = allCategories.get(i);
+                categorySpinnerAdapter.add(category);
+            }
+            categorySpinnerAdapter.notifyDataSetChanged();
+            selectCategory(categoryIdToSelect);
+        });
+
         categorySpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                // Selecting the initial category after loading them, happens without any selected marker
+                if (selectedMarker == null) {
+                    return;
+                }
+
+                // Selecting the category of a note when the note gets selected is no change
                 Category selectedCategory = categorySpinnerAdapter.getItem(position);
+                if (selectedCategory.getId() == selectedMarker.getCategoryId()) {
+                    return;
+                }
+
                 selectedMarker.setCategoryId(selectedCategory.getId());
                 if (markerEventHandler != null) {
                     markerEventHandler.onCategoryChanged(selectedMarker);
@@ -187,7 +213,6 @@ public class MarkerFragment extends Fragment {
         selectedMarker = marker;
         state = State.EDITING;
 
-        Note note = database.getNote(marker.getId());
         View view = getView();
 
         // Title
@@ -198,16 +223,19 @@ public class MarkerFragment extends Fragment {
         }
 
         // Creation date
-        try {
-            TextView creationDateLabel = view.findViewById(R.id.creation_date_label);
+        database.getNote(marker.getNoteId(), note -> {
+            // The selection might have changed or the note might have been deleted in the meantime
+            if (selectedMarker != marker || getView() == null || note == null) {
+                return;
+            }
+
+            TextView creationDateLabel = getView().findViewById(R.id.creation_date_label);
             if (creationDateLabel != null) {
-                Date time = note.getCreationDateTime().getTime();
+                Date time = new Date(note.getCreationTime());
                 String creationDateString = DateFormat.getDateFormat(getView().getContext()).format(time) + " " + DateFormat.getTimeFormat(getView().getContext()).format(time);
                 creationDateLabel.setText(creationDateString);
             }
-        } catch (Exception e) {
-            Log.e(LOGTAG, String.format("Could not create creation date label for note %d with date string '%s'", note.getId(), note.getCreationDateTimeString()));
-        }
+        });
 
         // Description / Snippet
         EditText descriptionView = view.findViewById(R.id.note_description);
@@ -257,7 +285,7 @@ public class MarkerFragment extends Fragment {
         ImageButton cameraButton = view.findViewById(R.id.camera_button);
         cameraButton.setOnClickListener(v -> {
             markerEventHandler.onSave(marker);
-            requestPhotoHandler.onRequestPhoto(Long.parseLong(marker.getId()));
+            requestPhotoHandler.onRequestPhoto(marker.getNoteId());
         });
 
         selectCategory(marker.getCategoryId());
@@ -273,10 +301,22 @@ public class MarkerFragment extends Fragment {
             return;
         }
 
+        cancelThumbnailRequests();
+
         LinearLayout photoLayout = getView().findViewById(R.id.note_image_panel);
         photoLayout.removeAllViews();
     }
 
+    /**
+     * The photos of the previously selected note are not shown anymore, so there's no need to load them.
+     */
+    private void cancelThumbnailRequests() {
+        for (Future<?> thumbnailRequest : thumbnailRequests) {
+            thumbnailRequest.cancel(true);
+        }
+        thumbnailRequests.clear();
+    }
+
     public void addPhoto(File photo) {
         Context context = getView().getContext();
 
@@ -296,8 +336,11 @@ public class MarkerFragment extends Fragment {
             context.startActivity(intent);
         });
 
-        // Get thumbnail that can be shown on image button
-        imageButton.setImageBitmap(ThumbnailUtil.loadThumbnail(photo));
+        // Shows a placeholder until the thumbnail is loaded in the background
+        Future<?> thumbnailRequest = thumbnailService.load(photo, sizeInPixel, imageButton);
+        if (thumbnailRequest != null) {
+            thumbnailRequests.add(thumbnailRequest);
+        }
 
         LinearLayout photoLayout = getView().findViewById(R.id.note_image_panel);
         photoLayout.addView(imageButton);
@@ -317,6 +360,7 @@ public class MarkerFragment extends Fragment {
 
         ((EditText) getView().findViewById(R.id.note_description)).setText("");
 
+        cancelThumbnailRequests();
         LinearLayout photoLayout = getView().findViewById(R.id.note_image_panel);
         photoLayout.removeAllViews();
 
@@ -348,7 +392,9 @@ public class MarkerFragment extends Fragment {
     }
 
     private void selectCategory(long categoryId) {
-        List<Category> allCategories = database.getAllCategories();
+        categoryIdToSelect = categoryId;
+
+        List<Category> allCategories = categorySpinnerAdapter.getAllCategories();
         for (int i = 0; i < allCategories.size(); i++) {
             if (allCategories.get(i).getId() == categoryId) {
                 categorySpinner.setSelection(i);
@@ -0,0 +1,216 @@
+package de.hauke_stieler.geonotes.map;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Typeface;
+import android.view.MotionEvent;
+
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.util.TileSystem;
+import org.osmdroid.util.TileSystemWebMercator;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Overlay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+import de.hauke_stieler.geonotes.notes.Note;
+import de.hauke_stieler.geonotes.notes.NoteIconProvider;
+
+/**
+ * Shows notes aggregated into clusters instead of single markers. The map is divided into a grid of
+ * cells (in screen pixels) and all notes within one cell become one cluster. A cluster shows the
+ * number of its notes and has the color of the category most of its notes belong to.
+ * <p>
+ * Loading the notes and computing the clusters happens in a background thread. Tapping on a
+ * cluster zooms into it.
+ */
+public class NoteClusterOverlay extends Overlay {
+    private static final int CELL_SIZE_DP = 60;
+    private static final int MIN_RADIUS_DP = 14;
+    private static final int TEXT_SIZE_DP = 13;
+
+    private static class Cluster {
+        final GeoPoint center;
+        final int noteCount;
+        final int color;
+
+        Cluster(GeoPoint center, int noteCount, int color) {
+            this.center = center;
+            this.noteCount = noteCount;
+            this.color = color;
+        }
+    }
+
+    private final AsyncDatabase database;
+    private final NoteIconProvider noteIconProvider;
+    private final MapView map;
+    private final float density;
+    private final TileSystem tileSystem;
+
+    private int currentGeneration;
+
+    private List<Cluster> clusters;
+    private final Paint circlePaint;
+    private final Paint outlinePaint;
+    private final Paint textPaint;
+    private final Point pixel;
+
+    public NoteClusterOverlay(Context context, MapView map, AsyncDatabase database, NoteIconProvider noteIconProvider) {
+        this.database = database;
+        this.noteIconProvider = noteIconProvider;
+        this.map = map;
+        this.density = context.getResources().getDisplayMetrics().density;
+        this.tileSystem = new TileSystemWebMercator();
+
+        this.clusters = Collections.emptyList();
+
+        circlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        circlePaint.setStyle(Paint.Style.FILL);
+
+        outlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        outlinePaint.setStyle(Paint.Style.STROKE);
+        outlinePaint.setStrokeWidth(2 * density);
+        outlinePaint.setColor(Color.WHITE);
+
+        textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        textPaint.setTextSize(TEXT_SIZE_DP * density);
+        textPaint.setTypeface(Typeface.DEFAULT_BOLD);
+
+        pixel = new Point();
+    }
+
+    /**
+     * Loads all notes within the given area and computes the clusters for the given zoom level in
+     * the background. When done, the map will be redrawn. Results of previous and still running
+     * updates are discarded.
+     */
+    public void update(BoundingBox box, double zoom) {
+        int generation = ++currentGeneration;
+
+        database.read(db -> {
+            List<Note> notes = db.getNotesInBoundingBox(box.getLatNorth(), box.getLonEast(), box.getLatSouth(), box.getLonWest(), null);
+            return computeClusters(notes, zoom);
+        }, newClusters -> {
+            if (newClusters == null || generation != currentGeneration) {
+                return;
+            }
+
+            clusters = newClusters;
+            map.postInvalidate();
+        });
+    }
+
+    /**
+     * Removes all clusters from the map and discards the results of still running updates.
+     */
+    public void clear() {
+        currentGeneration++;
+        clusters = Collections.emptyList();
+    }
+
+    private List<Cluster> computeClusters(List<Note> notes, double zoom) {
+        double mapSize = TileSystem.MapSize(zoom);
+        double cellSize = CELL_SIZE_DP * density;
+
+        // Notes of each cell, the key is the x and y index of the cell
+        java.util.Map<Long, List<Note>> cells = new HashMap<>();
+        for (Note note : notes) {
+            long cellX = (long) (tileSystem.getMercatorXFromLongitude(note.getLon(), mapSize, true) / cellSize);
+            long cellY = (long) (tileSystem.getMercatorYFromLatitude(note.getLat(), mapSize, true) / cellSize);
+            long cellKey = (cellX << 32) | cellY;
+
+            List<Note> cellNotes = cells.get(cellKey);
+            if (cellNotes == null) {
+                cellNotes = new ArrayList<>();
+                cells.put(cellKey, cellNotes);
+            }
+            cellNotes.add(note);
+        }
+
+        List<Cluster> newClusters = new ArrayList<>(cells.size());
+        for (List<Note> cellNotes : cells.values()) {
+            newClusters.add(createCluster(cellNotes));
+        }
+        return newClusters;
+    }
+
+    private Cluster createCluster(List<Note> notes) {
+        double latSum = 0;
+        double lonSum = 0;
+        java.util.Map<Long, Integer> notesPerCategory = new HashMap<>();
+        long dominantCategoryId = notes.get(0).getCategory().getId();
+        int dominantCategoryCount = 0;
+
+        for (Note note : notes) {
+            latSum += note.getLat();
+            lonSum += note.getLon();
+
+            long categoryId = note.getCategory().getId();
+            Integer count = notesPerCategory.get(categoryId);
+            count = count == null ? 1 : count + 1;
+            notesPerCategory.put(categoryId, count);
+
+            if (count > dominantCategoryCount) {
+                dominantCategoryId = categoryId;
+                dominantCategoryCount = count;
+            }
+        }
+
+        GeoPoint center = new GeoPoint(latSum / notes.size(), lonSum / notes.size());
+        return new Cluster(center, notes.size(), noteIconProvider.getColor(dominantCategoryId));
+    }
+
+    @Override
+    public void draw(Canvas canvas, Projection projection) {
+        for (Cluster cluster : clusters) {
+            projection.toPixels(cluster.center, pixel);
+            float radius = getRadius(cluster);
+
+            circlePaint.setColor(cluster.color);
+            canvas.drawCircle(pixel.x, pixel.y, radius, circlePaint);
+            canvas.drawCircle(pixel.x, pixel.y, radius, outlinePaint);
+
+            // Vertically center the text within the circle
+            float textY = pixel.y - (textPaint.descent() + textPaint.ascent()) / 2;
+            canvas.drawText("" + cluster.noteCount, pixel.x, textY, textPaint);
+        }
+    }
+
+    /**
+     * Clusters with many notes are slightly larger than clusters with only a few notes.
+     */
+    private float getRadius(Cluster cluster) {
+        return (MIN_RADIUS_DP + 4 * (float) Math.log10(cluster.noteCount)) * density;
+    }
+
+    @Override
+    public boolean onSingleTapConfirmed(MotionEvent e, MapView mapView) {
+        Projection projection = mapView.getProjection();
+        Point tapPosition = projection.rotateAndScalePoint((int) e.getX(), (int) e.getY(), null);
+
+        for (Cluster cluster : clusters) {
+            projection.toPixels(cluster.center, pixel);
+            float radius = getRadius(cluster);
+
+            float dx = tapPosition.x - pixel.x;
+            float dy = tapPosition.y - pixel.y;
+            if (dx * dx + dy * dy <= radius * radius) {
+                mapView.getController().setCenter(cluster.center);
+                mapView.getController().setZoom(mapView.getZoomLevelDouble() + 2);
+                return true; // prevent the creation of a new note at this location
+            }
+        }
+        return false;
+    }
+}
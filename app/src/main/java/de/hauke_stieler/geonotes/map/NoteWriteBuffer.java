@@ -0,0 +1,104 @@
+package de.hauke_stieler.geonotes.map;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+
+/**
+ * Collects changes of notes and writes them to the database once the user stopped editing for a
+ * moment. All changes of one note are combined into one update, so typing a whole paragraph causes
+ * only a few writes instead of one per character.
+ * <p>
+ * Call "flush()" whenever the pending changes must be written right away (e.g. when the note gets
+ * deselected or the app gets paused).
+ */
+class NoteWriteBuffer {
+    static final long QUIET_PERIOD_MS = 1000;
+
+    private static class PendingChange {
+        final long noteId;
+        String description;
+        Long categoryId;
+
+        PendingChange(long noteId) {
+            this.noteId = noteId;
+        }
+    }
+
+    private final AsyncDatabase database;
+    private final Handler handler;
+    private final Runnable flushRunnable;
+    private final java.util.Map<Long, PendingChange> pendingChanges;
+
+    NoteWriteBuffer(AsyncDatabase database) {
+        this.database = database;
+        this.handler = new Handler(Looper.getMainLooper());
+        this.flushRunnable = this::flush;
+        this.pendingChanges = new LinkedHashMap<>();
+    }
+
+    void setDescription(long noteId, String description) {
+        getPendingChange(noteId).description = description;
+        scheduleFlush();
+    }
+
+    void setCategory(long noteId, long categoryId) {
+        getPendingChange(noteId).categoryId = categoryId;
+        scheduleFlush();
+    }
+
+    /**
+     * Forgets all pending changes of the given note, e.g. because it has been deleted.
+     */
+    void discard(long noteId) {
+        pendingChanges.remove(noteId);
+    }
+
+    /**
+     * Writes all pending changes in one database transaction.
+     */
+    void flush() {
+        handler.removeCallbacks(flushRunnable);
+        if (pendingChanges.isEmpty()) {
+            return;
+        }
+
+        List<PendingChange> changes = new ArrayList<>(pendingChanges.values());
+        pendingChanges.clear();
+
+        database.write(db -> {
+            db.beginTransaction();
+            try {
+                for (PendingChange change : changes) {
+                    db.updateNote(change.noteId, change.description, change.categoryId);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return null;
+        }, null);
+    }
+
+    private PendingChange getPendingChange(long noteId) {
+        PendingChange change = pendingChanges.get(noteId);
+        if (change == null) {
+            change = new PendingChange(noteId);
+            pendingChanges.put(noteId, change);
+        }
+        return change;
+    }
+
+    /**
+     * (Re)starts the quiet period after which all pending changes are written.
+     */
+    private void scheduleFlush() {
+        handler.removeCallbacks(flushRunnable);
+        handler.postDelayed(flushRunnable, QUIET_PERIOD_MS);
+    }
+}
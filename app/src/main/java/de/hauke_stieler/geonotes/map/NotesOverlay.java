@@ -0,0 +1,417 @@
+package de.hauke_stieler.geonotes.map;
+
+import android.graphics.Canvas;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.view.MotionEvent;
+
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Marker;
+import org.osmdroid.views.overlay.Overlay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.hauke_stieler.geonotes.common.LongSet;
+import de.hauke_stieler.geonotes.notes.Note;
+import de.hauke_stieler.geonotes.notes.NoteIconProvider;
+
+/**
+ * Draws all loaded notes (except the selected one) as icons. In contrast to one osmdroid marker per
+ * note, the notes are stored in a few primitive arrays sorted by the note ID and are drawn within
+ * one pass without creating any objects.
+ * <p>
+ * Notes are looked up by their ID with a binary search over these arrays, so adding, updating and
+ * removing a single note (e.g. when it gets selected or changed) neither scans the map overlays nor
+ * parses string IDs or boxes numbers.
+ * <p>
+ * The screen positions of the last draw are kept in a grid of icon-sized cells, so a tap only
+ * checks the notes in the cells around the tapped position.
+ * <p>
+ * The selected note is shown as GeoNotesMarker (s. "setHiddenNoteId()") because it can be moved
+ * and edited.
+ */
+public class NotesOverlay extends Overlay {
+    public static final long NO_NOTE = -1;
+
+    // Same anchor as the marker of the selected note, so an icon doesn't jump when it gets selected
+    static final float ICON_ANCHOR_U = Marker.ANCHOR_CENTER;
+    static final float ICON_ANCHOR_V = Marker.ANCHOR_CENTER;
+
+    /**
+     * Gets called when the user tapped on the icon of a note.
+     */
+    public interface NoteClickListener {
+        void onNoteClick(long noteId);
+    }
+
+    private final NoteIconProvider noteIconProvider;
+    private NoteClickListener noteClickListener;
+
+    // The notes sorted by their ID. Only the first "noteCount" entries of these arrays are used.
+    private long[] noteIds;
+    private double[] lats;
+    private double[] lons;
+    private long[] categoryIds;
+    private boolean[] hasPhotos;
+    private int noteCount;
+
+    private long hiddenNoteId;
+
+    // Screen positions of the notes drawn by the last "draw()" call
+    private int[] drawnIndices;
+    private int[] drawnX;
+    private int[] drawnY;
+    private int drawnCount;
+    // Distance from the anchor to the farthest corner of the icon, i.e. the radius in which a tap can hit an icon
+    private int iconRadius;
+
+    // Grid of the drawn notes. The entries of cell "c" are at "gridEntries[gridCellStarts[c] ... gridCellStarts[c + 1] - 1]".
+    private boolean gridValid;
+    private int gridMinX;
+    private int gridMinY;
+    private int gridColumns;
+    private int gridRows;
+    private int gridCellSize;
+    private int[] gridCellStarts;
+    private int[] gridEntries;
+
+    private final GeoPoint reusedGeoPoint;
+    private final Point reusedPixel;
+    private final Rect clipBounds;
+
+    public NotesOverlay(NoteIconProvider noteIconProvider) {
+        this.noteIconProvider = noteIconProvider;
+        this.hiddenNoteId = NO_NOTE;
+
+        noteIds = new long[0];
+        lats = new double[0];
+        lons = new double[0];
+        categoryIds = new long[0];
+        hasPhotos = new boolean[0];
+
+        drawnIndices = new int[0];
+        drawnX = new int[0];
+        drawnY = new int[0];
+
+        reusedGeoPoint = new GeoPoint(0.0, 0.0);
+        reusedPixel = new Point();
+        clipBounds = new Rect();
+    }
+
+    public void setNoteClickListener(NoteClickListener noteClickListener) {
+        this.noteClickListener = noteClickListener;
+    }
+
+    /**
+     * Replaces all notes of this overlay.
+     */
+    public void setNotes(List<Note> notes, LongSet noteIdsWithPhotos) {
+        List<Note> sortedNotes = new ArrayList<>(notes);
+        Collections.sort(sortedNotes, (n1, n2) -> n1.getId() < n2.getId() ? -1 : (n1.getId() == n2.getId() ? 0 : 1));
+
+        noteCount = 0;
+        ensureCapacity(sortedNotes.size());
+        for (Note note : sortedNotes) {
+            noteIds[noteCount] = note.getId();
+            lats[noteCount] = note.getLat();
+            lons[noteCount] = note.getLon();
+            categoryIds[noteCount] = note.getCategory().getId();
+            hasPhotos[noteCount] = noteIdsWithPhotos.contains(note.getId());
+            noteCount++;
+        }
+    }
+
+    /**
+     * Adds the note or updates it when it's already part of this overlay.
+     */
+    public void putNote(long noteId, double lat, double lon, long categoryId, boolean hasPhotos) {
+        int index = indexOf(noteId);
+        if (index < 0) {
+            index = -index - 1;
+            ensureCapacity(noteCount + 1);
+
+            int notesToShift = noteCount - index;
+            System.arraycopy(noteIds, index, noteIds, index + 1, notesToShift);
+            System.arraycopy(lats, index, lats, index + 1, notesToShift);
+            System.arraycopy(lons, index, lons, index + 1, notesToShift);
+            System.arraycopy(categoryIds, index, categoryIds, index + 1, notesToShift);
+            System.arraycopy(this.hasPhotos, index, this.hasPhotos, index + 1, notesToShift);
+            noteCount++;
+        }
+
+        noteIds[index] = noteId;
+        lats[index] = lat;
+        lons[index] = lon;
+        categoryIds[index] = categoryId;
+        this.hasPhotos[index] = hasPhotos;
+    }
+
+    public void removeNote(long noteId) {
+        int index = indexOf(noteId);
+        if (index < 0) {
+            return;
+        }
+
+        int notesToShift = noteCount - index - 1;
+        System.arraycopy(noteIds, index + 1, noteIds, index, notesToShift);
+        System.arraycopy(lats, index + 1, lats, index, notesToShift);
+        System.arraycopy(lons, index + 1, lons, index, notesToShift);
+        System.arraycopy(categoryIds, index + 1, categoryIds, index, notesToShift);
+        System.arraycopy(hasPhotos, index + 1, hasPhotos, index, notesToShift);
+        noteCount--;
+    }
+
+    public boolean contains(long noteId) {
+        return indexOf(noteId) >= 0;
+    }
+
+    public int size() {
+        return noteCount;
+    }
+
+    /**
+     * The note with this ID is neither drawn nor can it be tapped. This is used for the selected
+     * note, which is shown as separate marker.
+     *
+     * @param noteId The ID of the note to hide or NO_NOTE to show all notes.
+     */
+    public void setHiddenNoteId(long noteId) {
+        hiddenNoteId = noteId;
+    }
+
+    public void clear() {
+        noteCount = 0;
+        drawnCount = 0;
+        gridValid = false;
+    }
+
+    private int indexOf(long noteId) {
+        int low = 0;
+        int high = noteCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (noteIds[middle] < noteId) {
+                low = middle + 1;
+            } else if (noteIds[middle] > noteId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (noteIds.length >= capacity) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, noteIds.length * 3 / 2);
+        long[] newNoteIds = new long[newCapacity];
+        double[] newLats = new double[newCapacity];
+        double[] newLons = new double[newCapacity];
+        long[] newCategoryIds = new long[newCapacity];
+        boolean[] newHasPhotos = new boolean[newCapacity];
+
+        System.arraycopy(noteIds, 0, newNoteIds, 0, noteCount);
+        System.arraycopy(lats, 0, newLats, 0, noteCount);
+        System.arraycopy(lons, 0, newLons, 0, noteCount);
+        System.arraycopy(categoryIds, 0, newCategoryIds, 0, noteCount);
+        System.arraycopy(hasPhotos, 0, newHasPhotos, 0, noteCount);
+
+        noteIds = newNoteIds;
+        lats = newLats;
+        lons = newLons;
+        categoryIds = newCategoryIds;
+        hasPhotos = newHasPhotos;
+    }
+
+    @Override
+    public void draw(Canvas canvas, Projection projection) {
+        if (drawnIndices.length < noteCount) {
+            drawnIndices = new int[noteIds.length];
+            drawnX = new int[noteIds.length];
+            drawnY = new int[noteIds.length];
+        }
+        drawnCount = 0;
+        gridValid = false;
+
+        // Icons stay upright when the map is rotated, just like the ones of osmdroid markers
+        float iconRotation = -projection.getOrientation();
+
+        // The clip bounds are in the (rotated) coordinates of the projection, so notes outside of
+        // the screen can be skipped. The bounds are enlarged for icons partially on the screen.
+        canvas.getClipBounds(clipBounds);
+        clipBounds.inset(-iconRadius, -iconRadius);
+
+        for (int i = 0; i < noteCount; i++) {
+            if (noteIds[i] == hiddenNoteId) {
+                continue;
+            }
+
+            reusedGeoPoint.setCoords(lats[i], lons[i]);
+            projection.toPixels(reusedGeoPoint, reusedPixel);
+            int x = reusedPixel.x;
+            int y = reusedPixel.y;
+            if (!clipBounds.contains(x, y)) {
+                continue;
+            }
+
+            Drawable icon = noteIconProvider.getIcon(categoryIds[i], false, hasPhotos[i]);
+            int width = icon.getIntrinsicWidth();
+            int height = icon.getIntrinsicHeight();
+            int left = x - Math.round(width * ICON_ANCHOR_U);
+            int top = y - Math.round(height * ICON_ANCHOR_V);
+            icon.setBounds(left, top, left + width, top + height);
+
+            if (iconRotation != 0) {
+                canvas.save();
+                canvas.rotate(iconRotation, x, y);
+                icon.draw(canvas);
+                canvas.restore();
+            } else {
+                icon.draw(canvas);
+            }
+
+            updateIconRadius(width, height);
+
+            drawnIndices[drawnCount] = i;
+            drawnX[drawnCount] = x;
+            drawnY[drawnCount] = y;
+            drawnCount++;
+        }
+    }
+
+    private void updateIconRadius(int width, int height) {
+        float maxU = Math.max(ICON_ANCHOR_U, 1 - ICON_ANCHOR_U);
+        float maxV = Math.max(ICON_ANCHOR_V, 1 - ICON_ANCHOR_V);
+        int radius = (int) Math.ceil(Math.hypot(width * maxU, height * maxV));
+        if (radius > iconRadius) {
+            iconRadius = radius;
+        }
+    }
+
+    @Override
+    public boolean onSingleTapConfirmed(MotionEvent e, MapView mapView) {
+        if (noteClickListener == null) {
+            return false;
+        }
+
+        Projection projection = mapView.getProjection();
+        Point tapPosition = projection.rotateAndScalePoint((int) e.getX(), (int) e.getY(), null);
+
+        long noteId = findNoteAt(tapPosition.x, tapPosition.y, -projection.getOrientation());
+        if (noteId == NO_NOTE) {
+            return false;
+        }
+
+        noteClickListener.onNoteClick(noteId);
+        return true; // prevent the creation of a new note at this location
+    }
+
+    /**
+     * @param x            Position in the coordinates of the last "draw()" call.
+     * @param y            Position in the coordinates of the last "draw()" call.
+     * @param iconRotation Rotation of the icons in degrees.
+     * @return The ID of the top-most note whose icon contains the given position or NO_NOTE.
+     */
+    private long findNoteAt(int x, int y, float iconRotation) {
+        if (drawnCount == 0) {
+            return NO_NOTE;
+        }
+        if (!gridValid) {
+            buildGrid();
+        }
+
+        // Only the cells around the tapped position can contain icons covering it
+        int firstColumn = Math.max(0, (x - iconRadius - gridMinX) / gridCellSize);
+        int lastColumn = Math.min(gridColumns - 1, (x + iconRadius - gridMinX) / gridCellSize);
+        int firstRow = Math.max(0, (y - iconRadius - gridMinY) / gridCellSize);
+        int lastRow = Math.min(gridRows - 1, (y + iconRadius - gridMinY) / gridCellSize);
+
+        // Turn the tap position into the coordinate system of the (maybe rotated) icons
+        double angle = Math.toRadians(-iconRotation);
+        double sin = Math.sin(angle);
+        double cos = Math.cos(angle);
+
+        // Later drawn icons are on top, so the hit with the highest draw index wins
+        int hitDrawIndex = -1;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * gridColumns + column;
+                for (int entry = gridCellStarts[cell]; entry < gridCellStarts[cell + 1]; entry++) {
+                    int drawIndex = gridEntries[entry];
+                    if (drawIndex > hitDrawIndex && isIconHit(drawIndex, x, y, sin, cos)) {
+                        hitDrawIndex = drawIndex;
+                    }
+                }
+            }
+        }
+
+        return hitDrawIndex == -1 ? NO_NOTE : noteIds[drawnIndices[hitDrawIndex]];
+    }
+
+    private boolean isIconHit(int drawIndex, int x, int y, double sin, double cos) {
+        int noteIndex = drawnIndices[drawIndex];
+        Drawable icon = noteIconProvider.getIcon(categoryIds[noteIndex], false, hasPhotos[noteIndex]);
+
+        int dx = x - drawnX[drawIndex];
+        int dy = y - drawnY[drawIndex];
+        double iconX = dx * cos - dy * sin + icon.getIntrinsicWidth() * ICON_ANCHOR_U;
+        double iconY = dx * sin + dy * cos + icon.getIntrinsicHeight() * ICON_ANCHOR_V;
+
+        return iconX >= 0 && iconX <= icon.getIntrinsicWidth() && iconY >= 0 && iconY <= icon.getIntrinsicHeight();
+    }
+
+    /**
+     * Sorts the drawn notes into the cells of the grid (counting sort by cell index).
+     */
+    private void buildGrid() {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < drawnCount; i++) {
+            minX = Math.min(minX, drawnX[i]);
+            minY = Math.min(minY, drawnY[i]);
+            maxX = Math.max(maxX, drawnX[i]);
+            maxY = Math.max(maxY, drawnY[i]);
+        }
+
+        gridCellSize = Math.max(1, iconRadius);
+        gridMinX = minX;
+        gridMinY = minY;
+        gridColumns = (maxX - minX) / gridCellSize + 1;
+        gridRows = (maxY - minY) / gridCellSize + 1;
+
+        int cellCount = gridColumns * gridRows;
+        gridCellStarts = new int[cellCount + 1];
+        gridEntries = new int[drawnCount];
+
+        for (int i = 0; i < drawnCount; i++) {
+            gridCellStarts[getCell(i) + 1]++;
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            gridCellStarts[cell + 1] += gridCellStarts[cell];
+        }
+
+        int[] nextEntry = new int[cellCount];
+        System.arraycopy(gridCellStarts, 0, nextEntry, 0, cellCount);
+        for (int i = 0; i < drawnCount; i++) {
+            gridEntries[nextEntry[getCell(i)]++] = i;
+        }
+
+        gridValid = true;
+    }
+
+    private int getCell(int drawIndex) {
+        int column = (drawnX[drawIndex] - gridMinX) / gridCellSize;
+        int row = (drawnY[drawIndex] - gridMinY) / gridCellSize;
+        return row * gridColumns + column;
+    }
+}
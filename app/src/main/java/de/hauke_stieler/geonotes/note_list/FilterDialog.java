@@ -19,7 +19,7 @@ import java.util.List;
 import de.hauke_stieler.geonotes.Injector;
 import de.hauke_stieler.geonotes.R;
 import de.hauke_stieler.geonotes.categories.Category;
-import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
 import de.hauke_stieler.geonotes.map.CategorySpinnerAdapter;
 
 public class FilterDialog extends DialogFragment {
@@ -29,7 +29,7 @@ public class FilterDialog extends DialogFragment {
 
     public static final int NONE_CATEGORY_ITEM_INDEX = 0;
 
-    private final Database database;
+    private final AsyncDatabase database;
     private final FilterChangedListener filterChangedListener;
 
     private final String initialFilterText;
@@ -43,7 +43,7 @@ public class FilterDialog extends DialogFragment {
         this.filterChangedListener = filterChangedListener;
         this.initialFilterText = initialFilterText;
         this.initialFilterCategoryId = initialFilterCategoryId;
-        database = Injector.get(Database.class);
+        database = Injector.get(AsyncDatabase.class);
     }
 
     @Override
@@ -69,15 +69,23 @@ public class FilterDialog extends DialogFragment {
 
         categorySpinnerAdapter = new CategorySpinnerAdapter(getContext(), R.layout.item_category_spinner);
         categorySpinnerAdapter.add(new Category(Category.NONE_ID, "#ffffff", "(none)", R.drawable.shape_item_cetagory_spinner_none));
-        List<Category> allCategories = database.getAllCategories();
-        for (int i = 0; i < allCategories.size(); i++) {
-            Category category = allCategories.get(i);
-            categorySpinnerAdapter.add(category);
-        }
 
         categorySpinner = view.findViewById(R.id.note_list_filter_category_spinner);
         categorySpinner.setAdapter(categorySpinnerAdapter);
-        selectCategory(initialFilterCategoryId);
+
+        database.getAllCategories(allCategories -> {
+            if (allCategories == null) {
+                return;
+            }
+
+            for (int i = 0; i < allCategories.size(); i++) {
+                Category category = allCategories.get(i);
+                categorySpinnerAdapter.add(category);
+            }
+            categorySpinnerAdapter.notifyDataSetChanged();
+            selectCategory(initialFilterCategoryId);
+        });
+
         categorySpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
@@ -9,7 +9,6 @@ import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.widget.ListView;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
@@ -17,13 +16,13 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.view.menu.ActionMenuItemView;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.graphics.BlendModeCompat;
-
-import java.util.ArrayList;
-import java.util.List;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import de.hauke_stieler.geonotes.Injector;
 import de.hauke_stieler.geonotes.R;
 import de.hauke_stieler.geonotes.categories.Category;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
 import de.hauke_stieler.geonotes.database.Database;
 import de.hauke_stieler.geonotes.notes.Note;
 import de.hauke_stieler.geonotes.notes.NoteIconProvider;
@@ -31,8 +30,10 @@ import de.hauke_stieler.geonotes.notes.NoteIconProvider;
 public class NoteListActivity extends AppCompatActivity implements FilterDialog.FilterChangedListener {
     public static final String EXTRA_CLICKED_NOTE = "clicked_note";
 
-    private Database database;
-    private NoteIconProvider noteIconProvider;
+    private AsyncDatabase database;
+    private NoteListAdapter adapter;
+    private NoteListFilter filter;
+    private Database.NoteChangedListener noteChangedListener;
     private Menu toolbarMenu;
 
     private String filterText;
@@ -49,27 +50,11 @@ public class NoteListActivity extends AppCompatActivity implements FilterDialog.
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
         getSupportActionBar().setDisplayShowHomeEnabled(true);
 
-        database = Injector.get(Database.class);
-        noteIconProvider = Injector.get(NoteIconProvider.class);
-
-        load();
-    }
+        database = Injector.get(AsyncDatabase.class);
 
-    private void load() {
-        List<Note> notes = database.getAllNotes(this.filterText, this.filterCategoryId);
-
-        List<Note> notesWithPhoto = new ArrayList<>();
-        for (Note note : notes) {
-            if (database.hasPhotos(note.getId())) {
-                notesWithPhoto.add(note);
-            }
-        }
-
-        NoteListAdapter adapter = new NoteListAdapter(
+        adapter = new NoteListAdapter(
                 this,
-                noteIconProvider,
-                notes,
-                notesWithPhoto,
+                Injector.get(NoteIconProvider.class),
                 id -> {
                     // Close this activity and send back clicked note id
                     Intent resultIntent = new Intent();
@@ -78,8 +63,42 @@ public class NoteListActivity extends AppCompatActivity implements FilterDialog.
                     finish();
                 });
 
-        ListView listView = findViewById(R.id.note_list_view);
+        RecyclerView listView = findViewById(R.id.note_list_view);
+        listView.setLayoutManager(new LinearLayoutManager(this));
+        listView.setHasFixedSize(true);
         listView.setAdapter(adapter);
+
+        // Only the IDs of the matching notes are determined here, the notes themselves are loaded
+        // page by page while scrolling through the list (s. "NotePages").
+        filter = new NoteListFilter(database, (noteIds, noteIdsWithPhotos) -> adapter.setNotes(new NotePages(database, noteIds, noteIdsWithPhotos)));
+        filter.reload();
+
+        // Any change may affect which notes match and their order, so simply determine them again
+        noteChangedListener = new Database.NoteChangedListener() {
+            @Override
+            public void onNoteChanged(Note note) {
+                filter.reload();
+            }
+
+            @Override
+            public void onNoteRemoved(long noteId) {
+                filter.reload();
+            }
+
+            @Override
+            public void onAllNotesChanged() {
+                filter.reload();
+            }
+        };
+        database.addNoteChangedListener(noteChangedListener);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        database.removeNoteChangedListener(noteChangedListener);
+        filter.close();
+        adapter.close();
     }
 
     @Override
@@ -105,8 +124,7 @@ public class NoteListActivity extends AppCompatActivity implements FilterDialog.
                 AlertDialog.Builder builder = new AlertDialog.Builder(this);
                 builder.setMessage(R.string.delete_all_notes);
                 builder.setPositiveButton(R.string.dialog_yes, (dialog, id) -> {
-                    database.removeAllNotes(getExternalFilesDir("GeoNotes"));
-                    load();
+                    database.removeAllNotes(getExternalFilesDir("GeoNotes"), null);
                 });
                 builder.setNegativeButton(R.string.dialog_no, (dialog, id) -> {
                 });
@@ -131,6 +149,6 @@ public class NoteListActivity extends AppCompatActivity implements FilterDialog.
             toolbarMenu.findItem(R.id.toolbar_btn_filter).getIcon().clearColorFilter();
         }
 
-        this.load();
+        filter.setFilter(filterText, categoryId);
     }
 }
\ No newline at end of file
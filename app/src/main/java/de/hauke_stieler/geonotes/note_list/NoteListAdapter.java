@@ -1,82 +1,129 @@
 package de.hauke_stieler.geonotes.note_list;
 
 import android.content.Context;
+import android.content.res.ColorStateList;
 import android.graphics.Typeface;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.util.List;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
 
 import de.hauke_stieler.geonotes.R;
 import de.hauke_stieler.geonotes.notes.Note;
 import de.hauke_stieler.geonotes.notes.NoteIconProvider;
 
-public class NoteListAdapter extends BaseAdapter {
+public class NoteListAdapter extends RecyclerView.Adapter<NoteListAdapter.ViewHolder> {
     public interface NoteListClickListener {
         void onClick(long id);
     }
 
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final ImageView icon;
+        final TextView text;
+        // Rows are reused, so the style of the "(only photo)" text must be reset for other notes
+        final ColorStateList defaultTextColors;
+
+        ViewHolder(View view) {
+            super(view);
+            icon = view.findViewById(R.id.note_list_row_icon);
+            text = view.findViewById(R.id.note_list_row_text_view);
+            defaultTextColors = text.getTextColors();
+        }
+    }
+
     private final Context context;
     private final NoteIconProvider noteIconProvider;
-    private final List<Note> notes;
-    private final List<Note> notesWithPhoto;
     private final NoteListClickListener clickListener;
     private final LayoutInflater inflater;
 
-    public NoteListAdapter(Context context, NoteIconProvider noteIconProvider, List<Note> notes, List<Note> notesWithPhoto, NoteListClickListener clickListener) {
+    private NotePages notes;
+
+    public NoteListAdapter(Context context, NoteIconProvider noteIconProvider, NoteListClickListener clickListener) {
         this.context = context;
         this.noteIconProvider = noteIconProvider;
-        this.notes = notes;
-        this.notesWithPhoto = notesWithPhoto;
         this.clickListener = clickListener;
 
         this.inflater = (LayoutInflater) context
                 .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+
+        setHasStableIds(true);
     }
 
-    @Override
-    public int getCount() {
-        return notes.size();
+    /**
+     * Shows the given notes instead of the current ones. Pages of the current notes, which are
+     * still loading, are discarded.
+     */
+    void setNotes(NotePages notes) {
+        if (this.notes != null) {
+            this.notes.close();
+        }
+
+        this.notes = notes;
+        notes.setPageLoadedListener(this::notifyItemRangeChanged);
+        notifyDataSetChanged();
     }
 
-    @Override
-    public Note getItem(int index) {
-        return notes.get(index);
+    void close() {
+        if (notes != null) {
+            notes.close();
+        }
     }
 
     @Override
-    public long getItemId(int index) {
-        return notes.get(index).getId();
+    public int getItemCount() {
+        return notes == null ? 0 : notes.size();
     }
 
     @Override
-    public View getView(int index, View convertView, ViewGroup parent) {
-        View view = inflater.inflate(R.layout.note_list_row, null);
-
-        Note note = getItem(index);
-        boolean noteHasPhotos = notesWithPhoto.contains(note);
-        view.setOnClickListener(v -> this.clickListener.onClick(note.getId()));
+    public long getItemId(int position) {
+        return notes.getNoteId(position);
+    }
 
-        ImageView icon = view.findViewById(R.id.note_list_row_icon);
-        fillIconView(noteHasPhotos, note.getCategory().getId(), icon);
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = inflater.inflate(R.layout.note_list_row, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+
+        view.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                this.clickListener.onClick(notes.getNoteId(position));
+            }
+        });
+
+        return holder;
+    }
 
-        TextView text = view.findViewById(R.id.note_list_row_text_view);
-        fillTextView(note, noteHasPhotos, text);
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        Note note = notes.getNote(position);
+        if (note == null) {
+            // The page of this note is still loading, the row gets bound again afterwards
+            holder.icon.setImageDrawable(null);
+            holder.text.setText(null);
+            return;
+        }
 
-        return view;
+        boolean noteHasPhotos = notes.hasPhotos(note.getId());
+        fillIconView(noteHasPhotos, note.getCategory().getId(), holder.icon);
+        fillTextView(note, noteHasPhotos, holder);
     }
 
-    void fillTextView(Note note, boolean noteHasPhotos, TextView text) {
+    void fillTextView(Note note, boolean noteHasPhotos, ViewHolder holder) {
+        TextView text = holder.text;
         if (noteHasPhotos && note.getDescription().trim().isEmpty()) {
             text.setText("(only photo)");
             text.setTypeface(null, Typeface.ITALIC);
             text.setTextColor(context.getResources().getColor(R.color.grey));
         } else {
             text.setText(note.getDescription());
+            text.setTypeface(null, Typeface.NORMAL);
+            text.setTextColor(holder.defaultTextColors);
         }
     }
 
@@ -0,0 +1,253 @@
+package de.hauke_stieler.geonotes.note_list;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import de.hauke_stieler.geonotes.common.LongSet;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.notes.Note;
+
+/**
+ * Determines the notes of the note list matching the current filter. The filter changes with every
+ * typed character, so:
+ * <ul>
+ *     <li>The database is only queried when the filter hasn't changed for a short time. A running
+ *     query is cancelled when the filter changes again and results of outdated queries are
+ *     discarded.</li>
+ *     <li>When the new filter text only extends the previous one, the new result is a subset of
+ *     the previous result. This subset is determined in memory right away, so the list follows
+ *     the typed text without waiting. The in-memory matching may keep a few more notes than the
+ *     database would (e.g. words only containing the filter text), therefore the query still runs
+ *     afterwards and provides the exact result and order.</li>
+ *     <li>The IDs of notes with photos don't depend on the filter and are only loaded once.</li>
+ * </ul>
+ * This class must only be used on the main thread.
+ */
+class NoteListFilter {
+    static final long QUERY_DELAY_MILLIS = 300;
+    // Refining in memory requires the descriptions of the result. Larger results are not kept in
+    // memory, they're only shown after the query.
+    static final int MAX_REFINABLE_NOTES = 10000;
+
+    private static final Pattern NON_WORD_CHARACTERS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    /**
+     * Gets called with the IDs of all notes matching the filter.
+     */
+    interface ResultListener {
+        void onResult(long[] noteIds, LongSet noteIdsWithPhotos);
+    }
+
+    private static class Result {
+        final String text;
+        final Long categoryId;
+        final long[] noteIds;
+        // Normalized descriptions of the notes (s. "normalize()") or null for too large results
+        final String[] descriptions;
+        final LongSet noteIdsWithPhotos;
+
+        Result(String text, Long categoryId, long[] noteIds, String[] descriptions, LongSet noteIdsWithPhotos) {
+            this.text = text;
+            this.categoryId = categoryId;
+            this.noteIds = noteIds;
+            this.descriptions = descriptions;
+            this.noteIdsWithPhotos = noteIdsWithPhotos;
+        }
+    }
+
+    private final AsyncDatabase database;
+    private final ResultListener resultListener;
+    private final Handler handler;
+
+    private String text;
+    private Long categoryId;
+
+    private Result currentResult;
+
+    private Runnable pendingQuery;
+    private Future<?> runningQuery;
+    // Increased with every filter change. Results of queries for older filters are discarded.
+    private int generation;
+
+    NoteListFilter(AsyncDatabase database, ResultListener resultListener) {
+        this.database = database;
+        this.resultListener = resultListener;
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Sets a new filter. If possible, the current result is refined right away, the query for the
+     * exact result runs after a short delay.
+     *
+     * @param categoryId Only notes of this category match. Use null for notes of all categories.
+     */
+    void setFilter(String text, Long categoryId) {
+        if (currentResult != null && equals(this.text, text) && equals(this.categoryId, categoryId)) {
+            return;
+        }
+
+        this.text = text;
+        this.categoryId = categoryId;
+        cancelQuery();
+        int queryGeneration = ++generation;
+
+        Result refinedResult = refine(currentResult, text, categoryId);
+        if (refinedResult != null) {
+            currentResult = refinedResult;
+            resultListener.onResult(refinedResult.noteIds, refinedResult.noteIdsWithPhotos);
+        }
+
+        pendingQuery = () -> {
+            pendingQuery = null;
+            query(queryGeneration);
+        };
+        handler.postDelayed(pendingQuery, QUERY_DELAY_MILLIS);
+    }
+
+    /**
+     * Queries the notes for the current filter right away. Nothing of previous results is reused,
+     * so use this when notes may have changed (e.g. all notes have been deleted).
+     */
+    void reload() {
+        cancelQuery();
+        currentResult = null;
+        query(++generation);
+    }
+
+    /**
+     * Cancels the pending and running queries. The listener won't be called anymore.
+     */
+    void close() {
+        cancelQuery();
+        generation++;
+    }
+
+    private void cancelQuery() {
+        if (pendingQuery != null) {
+            handler.removeCallbacks(pendingQuery);
+            pendingQuery = null;
+        }
+        if (runningQuery != null) {
+            runningQuery.cancel(false);
+            runningQuery = null;
+        }
+    }
+
+    private void query(int queryGeneration) {
+        String text = this.text;
+        Long categoryId = this.categoryId;
+        LongSet knownNoteIdsWithPhotos = currentResult != null ? currentResult.noteIdsWithPhotos : null;
+
+        runningQuery = database.read(db -> {
+            long[] noteIds = db.getNoteIds(text, categoryId);
+            String[] descriptions = noteIds.length <= MAX_REFINABLE_NOTES ? loadDescriptions(db, noteIds) : null;
+            LongSet noteIdsWithPhotos = knownNoteIdsWithPhotos != null ? knownNoteIdsWithPhotos : db.getNoteIdsWithPhotos();
+            return new Result(text, categoryId, noteIds, descriptions, noteIdsWithPhotos);
+        }, result -> {
+            if (queryGeneration != generation) {
+                return;
+            }
+
+            runningQuery = null;
+            // The previous result stays when the query failed
+            if (result == null) {
+                return;
+            }
+
+            currentResult = result;
+            resultListener.onResult(result.noteIds, result.noteIdsWithPhotos);
+        });
+    }
+
+    /**
+     * @return The normalized descriptions of the given notes in the same order. The notes come
+     * from the note cache of the database, so this doesn't read from the disk.
+     */
+    private static String[] loadDescriptions(Database db, long[] noteIds) {
+        List<Note> notes = db.getNotes(noteIds);
+
+        // The notes are in the order of the IDs, only deleted notes are missing
+        String[] descriptions = new String[noteIds.length];
+        int noteIndex = 0;
+        for (int i = 0; i < noteIds.length; i++) {
+            if (noteIndex < notes.size() && notes.get(noteIndex).getId() == noteIds[i]) {
+                descriptions[i] = normalize(notes.get(noteIndex++).getDescription());
+            } else {
+                descriptions[i] = "";
+            }
+        }
+        return descriptions;
+    }
+
+    /**
+     * @return The notes of the previous result matching the new filter or null if the new filter
+     * is not a refinement of the previous one.
+     */
+    private static Result refine(Result previousResult, String text, Long categoryId) {
+        if (previousResult == null || previousResult.descriptions == null || !equals(previousResult.categoryId, categoryId)) {
+            return null;
+        }
+
+        String previousText = previousResult.text == null ? "" : normalize(previousResult.text);
+        String newText = text == null ? "" : normalize(text);
+        if (!newText.startsWith(previousText)) {
+            return null;
+        }
+
+        String[] words = getWords(newText);
+
+        long[] noteIds = new long[previousResult.noteIds.length];
+        String[] descriptions = new String[previousResult.noteIds.length];
+        int matchCount = 0;
+        for (int i = 0; i < previousResult.noteIds.length; i++) {
+            if (containsAll(previousResult.descriptions[i], words)) {
+                noteIds[matchCount] = previousResult.noteIds[i];
+                descriptions[matchCount] = previousResult.descriptions[i];
+                matchCount++;
+            }
+        }
+
+        return new Result(text, categoryId, Arrays.copyOf(noteIds, matchCount), Arrays.copyOf(descriptions, matchCount), previousResult.noteIdsWithPhotos);
+    }
+
+    private static boolean containsAll(String description, String[] words) {
+        for (String word : words) {
+            if (!description.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lower case without accents, just like the full-text index compares words.
+     */
+    static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private static String[] getWords(String normalizedText) {
+        List<String> words = new ArrayList<>();
+        for (String word : NON_WORD_CHARACTERS.split(normalizedText)) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,150 @@
+package de.hauke_stieler.geonotes.note_list;
+
+import android.util.SparseArray;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import de.hauke_stieler.geonotes.common.LongSet;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+import de.hauke_stieler.geonotes.notes.Note;
+
+/**
+ * The notes shown in the note list. Only the IDs of all notes are loaded up front, the notes
+ * themselves are loaded page by page in the background as soon as they're about to be shown. Pages
+ * far away from the recently shown ones are dropped again, so the used memory doesn't grow with
+ * the number of notes.
+ * <p>
+ * This class must only be used on the main thread.
+ */
+class NotePages {
+    static final int PAGE_SIZE = 50;
+    // When a note this close to the end of its page is shown, the next page is loaded as well.
+    private static final int PREFETCH_DISTANCE = 10;
+    private static final int MAX_LOADED_PAGES = 10;
+
+    /**
+     * Gets called when the notes at the given positions have been loaded.
+     */
+    interface PageLoadedListener {
+        void onPageLoaded(int firstPosition, int noteCount);
+    }
+
+    private final AsyncDatabase database;
+    private final long[] noteIds;
+    private final LongSet noteIdsWithPhotos;
+
+    // Page index to the notes of that page. A note is null when it doesn't exist anymore.
+    private final SparseArray<Note[]> loadedPages;
+    private final SparseArray<Future<?>> loadingPages;
+
+    private PageLoadedListener pageLoadedListener;
+    private boolean closed;
+
+    NotePages(AsyncDatabase database, long[] noteIds, LongSet noteIdsWithPhotos) {
+        this.database = database;
+        this.noteIds = noteIds;
+        this.noteIdsWithPhotos = noteIdsWithPhotos;
+        this.loadedPages = new SparseArray<>();
+        this.loadingPages = new SparseArray<>();
+    }
+
+    void setPageLoadedListener(PageLoadedListener pageLoadedListener) {
+        this.pageLoadedListener = pageLoadedListener;
+    }
+
+    int size() {
+        return noteIds.length;
+    }
+
+    long getNoteId(int position) {
+        return noteIds[position];
+    }
+
+    boolean hasPhotos(long noteId) {
+        return noteIdsWithPhotos.contains(noteId);
+    }
+
+    /**
+     * @return The note at this position or null if its page is not loaded yet. In this case the
+     * page is loaded and the listener gets called afterwards.
+     */
+    Note getNote(int position) {
+        int pageIndex = position / PAGE_SIZE;
+
+        if (position % PAGE_SIZE >= PAGE_SIZE - PREFETCH_DISTANCE && (pageIndex + 1) * PAGE_SIZE < noteIds.length) {
+            loadPage(pageIndex + 1);
+        }
+
+        Note[] page = loadedPages.get(pageIndex);
+        if (page == null) {
+            loadPage(pageIndex);
+            return null;
+        }
+        return page[position % PAGE_SIZE];
+    }
+
+    /**
+     * Cancels all loading pages. The listener won't be called anymore.
+     */
+    void close() {
+        closed = true;
+        for (int i = 0; i < loadingPages.size(); i++) {
+            Future<?> future = loadingPages.valueAt(i);
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+        loadingPages.clear();
+    }
+
+    private void loadPage(int pageIndex) {
+        if (closed || loadedPages.get(pageIndex) != null || loadingPages.indexOfKey(pageIndex) >= 0) {
+            return;
+        }
+
+        int firstPosition = pageIndex * PAGE_SIZE;
+        long[] pageNoteIds = Arrays.copyOfRange(noteIds, firstPosition, Math.min(firstPosition + PAGE_SIZE, noteIds.length));
+
+        Future<List<Note>> future = database.read(db -> db.getNotes(pageNoteIds), notes -> {
+            loadingPages.remove(pageIndex);
+            // A failed page is loaded again when it's requested the next time
+            if (closed || notes == null) {
+                return;
+            }
+
+            // The notes are in the order of the IDs, only deleted notes are missing
+            Note[] page = new Note[pageNoteIds.length];
+            int noteIndex = 0;
+            for (int i = 0; i < pageNoteIds.length && noteIndex < notes.size(); i++) {
+                if (notes.get(noteIndex).getId() == pageNoteIds[i]) {
+                    page[i] = notes.get(noteIndex++);
+                }
+            }
+
+            loadedPages.put(pageIndex, page);
+            dropPagesFarAwayFrom(pageIndex);
+
+            if (pageLoadedListener != null) {
+                pageLoadedListener.onPageLoaded(firstPosition, page.length);
+            }
+        });
+        // The callback might have already been called (e.g. in tests with a synchronous database)
+        if (loadedPages.get(pageIndex) == null) {
+            loadingPages.put(pageIndex, future);
+        }
+    }
+
+    private void dropPagesFarAwayFrom(int pageIndex) {
+        while (loadedPages.size() > MAX_LOADED_PAGES) {
+            int farthestIndex = 0;
+            for (int i = 1; i < loadedPages.size(); i++) {
+                if (Math.abs(loadedPages.keyAt(i) - pageIndex) > Math.abs(loadedPages.keyAt(farthestIndex) - pageIndex)) {
+                    farthestIndex = i;
+                }
+            }
+            loadedPages.removeAt(farthestIndex);
+        }
+    }
+}
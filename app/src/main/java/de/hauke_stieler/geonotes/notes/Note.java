@@ -3,31 +3,58 @@ package de.hauke_stieler.geonotes.notes;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.Locale;
+import java.util.regex.Pattern;
 
 import de.hauke_stieler.geonotes.categories.Category;
 
 public class Note {
+    /**
+     * Creation time of notes read from files without (valid) creation date.
+     */
+    public static final long UNKNOWN_CREATION_TIME = Long.MIN_VALUE;
+
+    // Local time, used by all exports and backups
     private static final String DATE_TIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
-    private static final SimpleDateFormat SIMPLE_DATE_FORMAT = new SimpleDateFormat(DATE_TIME_FORMAT, Locale.getDefault());
+    private static final Pattern DATE_TIME_PATTERN = Pattern.compile("^\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}$");
+    // SimpleDateFormat is not thread-safe, but notes are formatted on the UI thread and in the
+    // background. Creating a new format for every call would be expensive, so each thread has its own.
+    private static final ThreadLocal<SimpleDateFormat> SIMPLE_DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(DATE_TIME_FORMAT, Locale.getDefault());
+        }
+    };
 
     private final long id;
     private final String description;
     private final double lat;
     private final double lon;
-    private final String creationDateTime;
+    private final long creationTime;
     private final Category category;
 
-    public Note(long id, String description, double lat, double lon, String creationDateTime, Category category) {
+    /**
+     * @param creationTime Milliseconds since the epoch.
+     */
+    public Note(long id, String description, double lat, double lon, long creationTime, Category category) {
         this.id = id;
         this.description = description;
         this.lat = lat;
         this.lon = lon;
-        this.creationDateTime = creationDateTime;
+        this.creationTime = creationTime;
         this.category = category;
     }
 
+    /**
+     * @param creationDateTime Local time in the format "yyyy-MM-dd HH:mm:ss" (e.g. from an export).
+     *                         Null or invalid values result in an unknown creation time.
+     */
+    public Note(long id, String description, double lat, double lon, String creationDateTime, Category category) {
+        this(id, description, lat, lon, parseDateTimeString(creationDateTime), category);
+    }
+
     public long getId() {
         return id;
     }
@@ -44,21 +71,49 @@ public class Note {
         return lon;
     }
 
-    public String getCreationDateTimeString() {
-        return creationDateTime;
+    /**
+     * @return Milliseconds since the epoch or UNKNOWN_CREATION_TIME.
+     */
+    public long getCreationTime() {
+        return creationTime;
     }
 
-    public Calendar getCreationDateTime() throws ParseException {
-        long time = SIMPLE_DATE_FORMAT.parse(creationDateTime).getTime();
+    /**
+     * @return The creation time in the format of exports and backups or null if it's unknown.
+     */
+    public String getCreationDateTimeString() {
+        return creationTime == UNKNOWN_CREATION_TIME ? null : getDateTimeString(creationTime);
+    }
 
+    public Calendar getCreationDateTime() {
         GregorianCalendar calendar = new GregorianCalendar(Locale.getDefault());
-        calendar.setTimeInMillis(time);
+        calendar.setTimeInMillis(creationTime);
 
         return calendar;
     }
 
     public static String getDateTimeString(Calendar now) {
-        return SIMPLE_DATE_FORMAT.format(now.getTime());
+        return getDateTimeString(now.getTimeInMillis());
+    }
+
+    public static String getDateTimeString(long time) {
+        return SIMPLE_DATE_FORMAT.get().format(new Date(time));
+    }
+
+    /**
+     * @return Milliseconds since the epoch or UNKNOWN_CREATION_TIME, if the string is null or not
+     * in the format "yyyy-MM-dd HH:mm:ss".
+     */
+    public static long parseDateTimeString(String dateTime) {
+        if (dateTime == null || !DATE_TIME_PATTERN.matcher(dateTime).matches()) {
+            return UNKNOWN_CREATION_TIME;
+        }
+
+        try {
+            return SIMPLE_DATE_FORMAT.get().parse(dateTime).getTime();
+        } catch (ParseException e) {
+            return UNKNOWN_CREATION_TIME;
+        }
     }
 
     public Category getCategory() {
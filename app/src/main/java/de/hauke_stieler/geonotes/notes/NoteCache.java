@@ -0,0 +1,240 @@
+package de.hauke_stieler.geonotes.notes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import de.hauke_stieler.geonotes.categories.Category;
+
+/**
+ * Holds all notes in memory, so that the map, the note list and the exports don't read the same
+ * notes from the database again and again. The notes are stored column by column in arrays sorted
+ * by ID instead of one object per note. This needs much less memory and a note is found via binary
+ * search. Note objects are only created when requested.
+ * <p>
+ * The cache is filled once from the database and then kept up to date by the Database, which
+ * applies every change to the cache as well. All methods are thread-safe.
+ */
+public class NoteCache {
+    private static final int INITIAL_CAPACITY = 64;
+    // Notes of unknown categories (e.g. deleted ones) are grey, just like their icons
+    private static final String UNKNOWN_CATEGORY_COLOR = "#bdbdbd";
+
+    private long[] ids;
+    private double[] lats;
+    private double[] lons;
+    private String[] descriptions;
+    private long[] createdAts;
+    private long[] categoryIds;
+    private int size;
+
+    // Shared by all notes of the same category
+    private final Map<Long, Category> categories;
+    private boolean loaded;
+
+    public NoteCache() {
+        categories = new HashMap<>();
+        clear();
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Replaces the content of the cache.
+     *
+     * @param notes Must be ordered by ID.
+     */
+    public synchronized void load(Iterator<Note> notes, List<Category> allCategories) {
+        clear();
+
+        categories.clear();
+        for (Category category : allCategories) {
+            categories.put(category.getId(), category);
+        }
+
+        while (notes.hasNext()) {
+            Note note = notes.next();
+            long categoryId = note.getCategory() == null ? Category.NONE_ID : note.getCategory().getId();
+            put(note.getId(), note.getDescription(), note.getLat(), note.getLon(), note.getCreationTime(), categoryId);
+        }
+
+        loaded = true;
+    }
+
+    /**
+     * Drops all notes. The cache must be loaded again before it can be used.
+     */
+    public synchronized void invalidate() {
+        clear();
+        loaded = false;
+    }
+
+    /**
+     * Removes all notes, e.g. because they've been removed from the database.
+     */
+    public synchronized void clear() {
+        ids = new long[INITIAL_CAPACITY];
+        lats = new double[INITIAL_CAPACITY];
+        lons = new double[INITIAL_CAPACITY];
+        descriptions = new String[INITIAL_CAPACITY];
+        createdAts = new long[INITIAL_CAPACITY];
+        categoryIds = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds the note or replaces it, if a note with this ID already exists.
+     */
+    public synchronized void put(long id, String description, double lat, double lon, long createdAt, long categoryId) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index < 0) {
+            index = -index - 1;
+            insertAt(index);
+            ids[index] = id;
+        }
+
+        lats[index] = lat;
+        lons[index] = lon;
+        descriptions[index] = description;
+        createdAts[index] = createdAt;
+        categoryIds[index] = categoryId;
+    }
+
+    /**
+     * Updates the description, category and location of the note. Null values are not changed.
+     *
+     * @return False if there's no such note.
+     */
+    public synchronized boolean update(long id, String description, Long categoryId, Double lat, Double lon) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index < 0) {
+            return false;
+        }
+
+        if (description != null) {
+            descriptions[index] = description;
+        }
+        if (categoryId != null) {
+            categoryIds[index] = categoryId;
+        }
+        if (lat != null && lon != null) {
+            lats[index] = lat;
+            lons[index] = lon;
+        }
+        return true;
+    }
+
+    public synchronized void remove(long id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index < 0) {
+            return;
+        }
+
+        int movedCount = size - index - 1;
+        System.arraycopy(ids, index + 1, ids, index, movedCount);
+        System.arraycopy(lats, index + 1, lats, index, movedCount);
+        System.arraycopy(lons, index + 1, lons, index, movedCount);
+        System.arraycopy(descriptions, index + 1, descriptions, index, movedCount);
+        System.arraycopy(createdAts, index + 1, createdAts, index, movedCount);
+        System.arraycopy(categoryIds, index + 1, categoryIds, index, movedCount);
+        size--;
+
+        // No references to removed strings
+        descriptions[size] = null;
+    }
+
+    /**
+     * Adds or replaces the category. Notes of this category will use the new one.
+     */
+    public synchronized void putCategory(Category category) {
+        categories.put(category.getId(), category);
+    }
+
+    /**
+     * @return The note or null if there's no such note.
+     */
+    public synchronized Note getNote(long id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        return index < 0 ? null : createNote(index);
+    }
+
+    /**
+     * @return The notes with the given IDs in the same order. Notes that don't exist are left out.
+     */
+    public synchronized List<Note> getNotes(long[] noteIds) {
+        List<Note> notes = new ArrayList<>(noteIds.length);
+        for (long id : noteIds) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                notes.add(createNote(index));
+            }
+        }
+        return notes;
+    }
+
+    /**
+     * @return At most "limit" notes with an ID greater than "afterId", ordered by ID.
+     */
+    public synchronized List<Note> getNotesAfter(long afterId, int limit) {
+        int index = Arrays.binarySearch(ids, 0, size, afterId);
+        index = index < 0 ? -index - 1 : index + 1;
+
+        int end = (int) Math.min((long) index + limit, size);
+        List<Note> notes = new ArrayList<>(Math.max(end - index, 0));
+        for (; index < end; index++) {
+            notes.add(createNote(index));
+        }
+        return notes;
+    }
+
+    public synchronized List<Note> getAllNotes() {
+        return getNotesAfter(Long.MIN_VALUE, size);
+    }
+
+    private Note createNote(int index) {
+        return new Note(ids[index], descriptions[index], lats[index], lons[index], createdAts[index], getCategory(categoryIds[index]));
+    }
+
+    /**
+     * @return The category or, if there's no such category, a grey one without name. The ID is
+     * kept, so the category of the note doesn't change when it's saved again.
+     */
+    private Category getCategory(long categoryId) {
+        Category category = categories.get(categoryId);
+        if (category == null) {
+            return new Category(categoryId, UNKNOWN_CATEGORY_COLOR, "");
+        }
+        return category;
+    }
+
+    private void insertAt(int index) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            lons = Arrays.copyOf(lons, capacity);
+            descriptions = Arrays.copyOf(descriptions, capacity);
+            createdAts = Arrays.copyOf(createdAts, capacity);
+            categoryIds = Arrays.copyOf(categoryIds, capacity);
+        }
+
+        // New notes usually have the highest ID, so nothing needs to be moved
+        int movedCount = size - index;
+        System.arraycopy(ids, index, ids, index + 1, movedCount);
+        System.arraycopy(lats, index, lats, index + 1, movedCount);
+        System.arraycopy(lons, index, lons, index + 1, movedCount);
+        System.arraycopy(descriptions, index, descriptions, index + 1, movedCount);
+        System.arraycopy(createdAts, index, createdAts, index + 1, movedCount);
+        System.arraycopy(categoryIds, index, categoryIds, index + 1, movedCount);
+        size++;
+    }
+}
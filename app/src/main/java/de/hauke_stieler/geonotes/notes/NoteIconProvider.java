@@ -1,12 +1,9 @@
 package de.hauke_stieler.geonotes.notes;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.graphics.drawable.LayerDrawable;
 
+import androidx.core.content.ContextCompat;
 import androidx.core.content.res.ResourcesCompat;
 import androidx.core.graphics.BlendModeColorFilterCompat;
 import androidx.core.graphics.BlendModeCompat;
@@ -17,76 +14,111 @@ import java.util.List;
 import de.hauke_stieler.geonotes.R;
 import de.hauke_stieler.geonotes.categories.Category;
 import de.hauke_stieler.geonotes.common.BitmapRenderer;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
 import de.hauke_stieler.geonotes.database.Database;
 
+/**
+ * Provides the marker icons of all categories. Icons are rendered when they're used for the first
+ * time and then cached, so categories nobody uses don't cost anything. An icon is only rendered
+ * again when the color of its category changes.
+ * <p>
+ * The colors are loaded in the background when the provider is created, because icons are
+ * requested while drawing the map. Until then, all icons are grey and get rendered again
+ * afterwards.
+ * <p>
+ * This class is thread-safe.
+ */
 public class NoteIconProvider {
+    private static final int ICON_NORMAL = 0;
+    private static final int ICON_CAMERA = 1;
+    private static final int ICON_NORMAL_SELECTED = 2;
+    private static final int ICON_CAMERA_SELECTED = 3;
 
     private final Context context;
 
-    private final java.util.Map<Long, Drawable> categoryToNormalIcon;
-    private final java.util.Map<Long, Drawable> categoryToCameraIcon;
-    private final java.util.Map<Long, Drawable> categoryToNormalIconSelected;
-    private final java.util.Map<Long, Drawable> categoryToCameraIconSelected;
+    // Category ID to the icons of that category, indexed by the ICON_... constants
+    private final java.util.Map<Long, Drawable[]> categoryToIcons;
+    private final java.util.Map<Long, Integer> categoryToColor;
 
-    public NoteIconProvider(Context context, Database database) {
+    public NoteIconProvider(Context context, Database database, AsyncDatabase asyncDatabase) {
         this.context = context;
 
-        categoryToNormalIcon = new HashMap<>();
-        categoryToCameraIcon = new HashMap<>();
-        categoryToNormalIconSelected = new HashMap<>();
-        categoryToCameraIconSelected = new HashMap<>();
+        categoryToIcons = new HashMap<>();
+        categoryToColor = new HashMap<>();
 
-        List<Category> allCategories = database.getAllCategories();
-        for (int i = 0; i < allCategories.size(); i++) {
-            Category category = allCategories.get(i);
-
-            Drawable exclamationMarkIcon = ResourcesCompat.getDrawable(context.getResources(), R.drawable.ic_note_exclamation_mark, null);
-            Drawable cameraForegroundIcon = ResourcesCompat.getDrawable(context.getResources(), R.drawable.ic_note_camera, null);
-
-            // We render the drawables to a single bitmap because OsmDroid (or Android?) has problem
-            // with these LayerDrawables. Parts of these layered drawables just disappear after some
-            // time o.O This does not happen to a single pre-rendered bitmap.
-
-            // Normal icons
-            Drawable backgroundOuterNormalIcon = ResourcesCompat.getDrawable(context.getResources(), R.drawable.ic_note_background, null);
+        database.addCategoryChangedListener(this::onCategoryChanged);
+        asyncDatabase.getAllCategories(this::onCategoriesLoaded);
+    }
 
-            Drawable backgroundInnerIcon = ResourcesCompat.getDrawable(context.getResources(), R.drawable.ic_note_background_inner, null);
-            backgroundInnerIcon.setColorFilter(BlendModeColorFilterCompat.createBlendModeColorFilterCompat(category.getColor(), BlendModeCompat.SRC_IN));
+    private synchronized void onCategoriesLoaded(List<Category> categories) {
+        if (categories == null) {
+            return;
+        }
 
-            Drawable noteIcon = BitmapRenderer.renderToBitmap(context, backgroundOuterNormalIcon, backgroundInnerIcon, exclamationMarkIcon);
-            Drawable noteWithCameraIcon = BitmapRenderer.renderToBitmap(context, backgroundOuterNormalIcon, backgroundInnerIcon, cameraForegroundIcon);
+        for (Category category : categories) {
+            // Colors changed in the meantime are newer than the loaded ones
+            if (!categoryToColor.containsKey(category.getId())) {
+                onCategoryChanged(category);
+            }
+        }
+    }
 
-            categoryToNormalIcon.put(category.getId(), noteIcon);
-            categoryToCameraIcon.put(category.getId(), noteWithCameraIcon);
+    private synchronized void onCategoryChanged(Category category) {
+        Integer oldColor = categoryToColor.put(category.getId(), category.getColor());
+        if (oldColor == null || oldColor != category.getColor()) {
+            categoryToIcons.remove(category.getId());
+        }
+    }
 
-            // Selection icons
-            Drawable backgroundOuterSelectedIcon = ResourcesCompat.getDrawable(context.getResources(), R.drawable.ic_note_background, null);
-            backgroundOuterSelectedIcon.setColorFilter(BlendModeColorFilterCompat.createBlendModeColorFilterCompat(0xFF000000, BlendModeCompat.SRC_IN));
+    /**
+     * @return The color of the category. Unknown categories and all categories before the colors
+     * have been loaded are grey.
+     */
+    public synchronized int getColor(long categoryId) {
+        Integer color = categoryToColor.get(categoryId);
+        if (color == null) {
+            return ContextCompat.getColor(context, R.color.grey);
+        }
+        return color;
+    }
 
-            Drawable backgroundInnerSmallIcon = ResourcesCompat.getDrawable(context.getResources(), R.drawable.ic_note_background_inner_small, null);
-            backgroundInnerSmallIcon.setColorFilter(BlendModeColorFilterCompat.createBlendModeColorFilterCompat(category.getColor(), BlendModeCompat.SRC_IN));
+    public synchronized Drawable getIcon(long categoryId, boolean isSelected, boolean isPhotoNote) {
+        int iconType;
+        if (isSelected) {
+            iconType = isPhotoNote ? ICON_CAMERA_SELECTED : ICON_NORMAL_SELECTED;
+        } else {
+            iconType = isPhotoNote ? ICON_CAMERA : ICON_NORMAL;
+        }
 
-            Drawable noteSelectedIcon = BitmapRenderer.renderToBitmap(context, backgroundOuterSelectedIcon, backgroundInnerSmallIcon, exclamationMarkIcon);
-            Drawable noteWithCameraSelectedIcon = BitmapRenderer.renderToBitmap(context, backgroundOuterSelectedIcon, backgroundInnerSmallIcon, cameraForegroundIcon);
+        Drawable[] icons = categoryToIcons.get(categoryId);
+        if (icons == null) {
+            icons = new Drawable[4];
+            categoryToIcons.put(categoryId, icons);
+        }
 
-            categoryToNormalIconSelected.put(category.getId(), noteSelectedIcon);
-            categoryToCameraIconSelected.put(category.getId(), noteWithCameraSelectedIcon);
+        if (icons[iconType] == null) {
+            icons[iconType] = renderIcon(getColor(categoryId), isSelected, isPhotoNote);
         }
+        return icons[iconType];
     }
 
-    public Drawable getIcon(long categoryId, boolean isSelected, boolean isPhotoNote) {
+    private Drawable renderIcon(int color, boolean isSelected, boolean isPhotoNote) {
+        Drawable foregroundIcon = ResourcesCompat.getDrawable(context.getResources(), isPhotoNote ? R.drawable.ic_note_camera : R.drawable.ic_note_exclamation_mark, null);
+
+        // We render the drawables to a single bitmap because OsmDroid (or Android?) has problem
+        // with these LayerDrawables. Parts of these layered drawables just disappear after some
+        // time o.O This does not happen to a single pre-rendered bitmap.
+
+        Drawable backgroundOuterIcon = ResourcesCompat.getDrawable(context.getResources(), R.drawable.ic_note_background, null);
+        Drawable backgroundInnerIcon;
         if (isSelected) {
-            if (isPhotoNote) {
-                return categoryToCameraIconSelected.get(categoryId);
-            } else {
-                return categoryToNormalIconSelected.get(categoryId);
-            }
+            backgroundOuterIcon.setColorFilter(BlendModeColorFilterCompat.createBlendModeColorFilterCompat(0xFF000000, BlendModeCompat.SRC_IN));
+            backgroundInnerIcon = ResourcesCompat.getDrawable(context.getResources(), R.drawable.ic_note_background_inner_small, null);
         } else {
-            if (isPhotoNote) {
-                return categoryToCameraIcon.get(categoryId);
-            } else {
-                return categoryToNormalIcon.get(categoryId);
-            }
+            backgroundInnerIcon = ResourcesCompat.getDrawable(context.getResources(), R.drawable.ic_note_background_inner, null);
         }
+        backgroundInnerIcon.setColorFilter(BlendModeColorFilterCompat.createBlendModeColorFilterCompat(color, BlendModeCompat.SRC_IN));
+
+        return BitmapRenderer.renderToBitmap(context, backgroundOuterIcon, backgroundInnerIcon, foregroundIcon);
     }
 }
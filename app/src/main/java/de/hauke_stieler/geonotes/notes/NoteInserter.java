@@ -0,0 +1,130 @@
+package de.hauke_stieler.geonotes.notes;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.Closeable;
+import java.util.UUID;
+
+import de.hauke_stieler.geonotes.database.ChangeLog;
+
+/**
+ * Inserts many notes at once as fast as possible. All notes are inserted with the same precompiled
+ * statement and several notes share one transaction, which avoids parsing the SQL and syncing the
+ * database file for every single note.
+ * <p>
+ * Always close this inserter when done, which commits the last (possibly incomplete) batch.
+ */
+public class NoteInserter implements Closeable {
+    /**
+     * Gets informed about the inserted notes, e.g. to keep a cache up to date.
+     */
+    public interface InsertListener {
+        void onInserted(long id, String description, double lat, double lon, long createdAt, long categoryId);
+
+        /**
+         * Gets called when the inserter has been closed and all notes have been committed.
+         */
+        void onClosed();
+    }
+
+    private final SQLiteDatabase db;
+    private final SQLiteStatement insertNote;
+    private final SQLiteStatement insertLocation;
+    private final SQLiteStatement logChange;
+    private final int batchSize;
+    private final InsertListener insertListener;
+
+    private int notesInTransaction;
+
+    /**
+     * @param insertLocation Statement inserting into the spatial index. Null, if there's no spatial index.
+     * @param logChange      Statement adding an entry to the change log (s. "ChangeLog.compileLog()").
+     * @param insertListener May be null.
+     */
+    NoteInserter(SQLiteDatabase db, SQLiteStatement insertNote, SQLiteStatement insertLocation, SQLiteStatement logChange, int batchSize, InsertListener insertListener) {
+        this.db = db;
+        this.insertNote = insertNote;
+        this.insertLocation = insertLocation;
+        this.logChange = logChange;
+        this.batchSize = batchSize;
+        this.insertListener = insertListener;
+    }
+
+    /**
+     * @param createdAt Milliseconds since the epoch.
+     * @return The ID of the new note.
+     */
+    public long insert(String description, double lat, double lon, long createdAt, long categoryId) {
+        return insert(UUID.randomUUID().toString(), description, lat, lon, createdAt, categoryId);
+    }
+
+    /**
+     * Inserts a note, which already has a UUID (e.g. because it has been received from another device).
+     *
+     * @return The ID of the new note.
+     */
+    public long insert(String uuid, String description, double lat, double lon, long createdAt, long categoryId) {
+        if (notesInTransaction == 0) {
+            db.beginTransaction();
+        }
+
+        // Parameter order as in "NoteStore.newInserter()"
+        insertNote.bindDouble(1, lat);
+        insertNote.bindDouble(2, lon);
+        insertNote.bindString(3, description);
+        insertNote.bindLong(4, createdAt);
+        insertNote.bindLong(5, categoryId);
+        insertNote.bindString(6, uuid);
+        long id = insertNote.executeInsert();
+
+        if (insertLocation != null) {
+            insertLocation.bindLong(1, id);
+            insertLocation.bindDouble(2, lat);
+            insertLocation.bindDouble(3, lat);
+            insertLocation.bindDouble(4, lon);
+            insertLocation.bindDouble(5, lon);
+            insertLocation.executeInsert();
+        }
+
+        logChange.bindLong(1, ChangeLog.TYPE_NOTE);
+        logChange.bindString(2, uuid);
+        logChange.bindLong(3, ChangeLog.OPERATION_INSERT);
+        logChange.bindLong(4, System.currentTimeMillis());
+        logChange.executeInsert();
+
+        if (insertListener != null) {
+            insertListener.onInserted(id, description, lat, lon, createdAt, categoryId);
+        }
+
+        notesInTransaction++;
+        if (notesInTransaction == batchSize) {
+            commit();
+        }
+
+        return id;
+    }
+
+    private void commit() {
+        db.setTransactionSuccessful();
+        db.endTransaction();
+        notesInTransaction = 0;
+    }
+
+    @Override
+    public void close() {
+        if (notesInTransaction > 0) {
+            commit();
+        }
+
+        insertNote.close();
+        logChange.close();
+        if (insertLocation != null) {
+            insertLocation.close();
+        }
+
+        if (insertListener != null) {
+            insertListener.onClosed();
+        }
+    }
+}
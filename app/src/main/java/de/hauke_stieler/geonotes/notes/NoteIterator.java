@@ -0,0 +1,58 @@
+package de.hauke_stieler.geonotes.notes;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads notes page by page (ordered by ID) from the database or the note cache. Other than the
+ * lists returned by the NoteStore, this never holds all notes in memory at once, which makes it
+ * suitable for exporting many notes.
+ * <p>
+ * Each page continues after the last ID of the previous page instead of using an offset, so
+ * loading a page doesn't get slower the further the iteration proceeds.
+ */
+public class NoteIterator implements Iterator<Note> {
+    /**
+     * Loads one page of notes.
+     */
+    public interface PageLoader {
+        /**
+         * @return At most "limit" notes with an ID greater than "afterId", ordered by ID.
+         */
+        List<Note> getNotesAfter(long afterId, int limit);
+    }
+
+    private final PageLoader pageLoader;
+    private final int pageSize;
+
+    private List<Note> page;
+    private int indexInPage;
+    private long lastId;
+
+    public NoteIterator(PageLoader pageLoader, int pageSize) {
+        this.pageLoader = pageLoader;
+        this.pageSize = pageSize;
+        this.lastId = -1;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (page == null || (indexInPage == page.size() && page.size() == pageSize)) {
+            page = pageLoader.getNotesAfter(lastId, pageSize);
+            indexInPage = 0;
+        }
+        return indexInPage < page.size();
+    }
+
+    @Override
+    public Note next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Note note = page.get(indexInPage++);
+        lastId = note.getId();
+        return note;
+    }
+}
@@ -0,0 +1,200 @@
+package de.hauke_stieler.geonotes.notes;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Full-text index over the descriptions of all notes. It's an SQLite FTS5 table (or FTS4 on older
+ * SQLite builds) using the notes table as external content, so the descriptions are not stored
+ * twice.
+ * <p>
+ * Words are compared case-insensitive and without diacritics ("über" matches "Über" and "muller"
+ * matches "müller"). That's the default of FTS5, FTS4 needs the "unicode61" tokenizer for it. Only
+ * SQLite builds without that tokenizer fall back to the "simple" one, which only handles ASCII.
+ * <p>
+ * The index is kept in sync by triggers on the notes table. Removing an entry from an external
+ * content FTS table requires the old description, which the NoteStore usually doesn't know (e.g.
+ * when removing a note), but a trigger does.
+ * <p>
+ * When neither FTS5 nor FTS4 is available, the NoteStore falls back to a LIKE query (s.
+ * "isAvailable()").
+ */
+public class NoteSearchIndex {
+    private static final String LOGTAG = NoteSearchIndex.class.getName();
+
+    static final String FTS_TABLE_NAME = "notes_fts";
+    private static final String TRIGGER_INSERT = "notes_fts_insert";
+    private static final String TRIGGER_DELETE = "notes_fts_delete";
+    private static final String TRIGGER_BEFORE_UPDATE = "notes_fts_before_update";
+    private static final String TRIGGER_AFTER_UPDATE = "notes_fts_after_update";
+
+    private static final int FTS_NONE = 0;
+    private static final int FTS_4 = 4;
+    private static final int FTS_5 = 5;
+
+    private Integer ftsVersion;
+
+    /**
+     * Creates the FTS table and the triggers keeping it in sync with the given notes table.
+     *
+     * @return True when the table has been created, false when the SQLite build has no FTS support.
+     */
+    public boolean onCreate(SQLiteDatabase db, String notesTable, String idColumn, String descriptionColumn) {
+        try {
+            createFts5(db, notesTable, idColumn, descriptionColumn);
+            ftsVersion = FTS_5;
+        } catch (SQLiteException e5) {
+            try {
+                createFts4(db, notesTable, idColumn, descriptionColumn);
+                ftsVersion = FTS_4;
+            } catch (SQLiteException e4) {
+                Log.w(LOGTAG, "FTS modules not available, falling back to LIKE queries: " + e4.getMessage());
+                ftsVersion = FTS_NONE;
+            }
+        }
+        return ftsVersion != FTS_NONE;
+    }
+
+    private void createFts5(SQLiteDatabase db, String notesTable, String idColumn, String descriptionColumn) {
+        db.execSQL(String.format("CREATE VIRTUAL TABLE IF NOT EXISTS %s USING fts5(%s, content='%s', content_rowid='%s');",
+                FTS_TABLE_NAME, descriptionColumn, notesTable, idColumn));
+
+        // FTS5 removes entries with the special "delete" command, which needs the old values.
+        String insert = String.format("INSERT INTO %s(rowid, %s) VALUES (new.%s, new.%s);",
+                FTS_TABLE_NAME, descriptionColumn, idColumn, descriptionColumn);
+        String delete = String.format("INSERT INTO %s(%s, rowid, %s) VALUES ('delete', old.%s, old.%s);",
+                FTS_TABLE_NAME, FTS_TABLE_NAME, descriptionColumn, idColumn, descriptionColumn);
+
+        createTrigger(db, TRIGGER_INSERT, "AFTER INSERT ON " + notesTable, insert);
+        createTrigger(db, TRIGGER_DELETE, "AFTER DELETE ON " + notesTable, delete);
+        createTrigger(db, TRIGGER_AFTER_UPDATE, String.format("AFTER UPDATE OF %s ON %s", descriptionColumn, notesTable), delete + " " + insert);
+    }
+
+    private void createFts4(SQLiteDatabase db, String notesTable, String idColumn, String descriptionColumn) {
+        try {
+            db.execSQL(String.format("CREATE VIRTUAL TABLE IF NOT EXISTS %s USING fts4(content='%s', %s, tokenize=unicode61 \"remove_diacritics=1\");",
+                    FTS_TABLE_NAME, notesTable, descriptionColumn));
+        } catch (SQLiteException e) {
+            Log.w(LOGTAG, "FTS4 tokenizer unicode61 not available, falling back to simple: " + e.getMessage());
+            db.execSQL(String.format("CREATE VIRTUAL TABLE IF NOT EXISTS %s USING fts4(content='%s', %s);",
+                    FTS_TABLE_NAME, notesTable, descriptionColumn));
+        }
+
+        // FTS4 reads the old values from the content table, so entries must be removed before the
+        // row in the notes table changes.
+        String insert = String.format("INSERT INTO %s(docid, %s) VALUES (new.%s, new.%s);",
+                FTS_TABLE_NAME, descriptionColumn, idColumn, descriptionColumn);
+        String delete = String.format("DELETE FROM %s WHERE docid = old.%s;",
+                FTS_TABLE_NAME, idColumn);
+
+        createTrigger(db, TRIGGER_INSERT, "AFTER INSERT ON " + notesTable, insert);
+        createTrigger(db, TRIGGER_DELETE, "BEFORE DELETE ON " + notesTable, delete);
+        createTrigger(db, TRIGGER_BEFORE_UPDATE, String.format("BEFORE UPDATE OF %s ON %s", descriptionColumn, notesTable), delete);
+        createTrigger(db, TRIGGER_AFTER_UPDATE, String.format("AFTER UPDATE OF %s ON %s", descriptionColumn, notesTable), insert);
+    }
+
+    private void createTrigger(SQLiteDatabase db, String name, String event, String statements) {
+        db.execSQL(String.format("CREATE TRIGGER IF NOT EXISTS %s %s BEGIN %s END;", name, event, statements));
+    }
+
+    /**
+     * Creates the FTS table again, if it's an FTS4 table with the "simple" tokenizer (created before
+     * database version 14), so that it also ignores diacritics.
+     */
+    public void upgradeTokenizer(SQLiteDatabase db, String notesTable, String idColumn, String descriptionColumn) {
+        Cursor cursor = db.query("sqlite_master", new String[]{"sql"}, "type='table' AND name=?", new String[]{FTS_TABLE_NAME}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            String sql = cursor.getString(0).toLowerCase();
+            if (!sql.contains("fts4") || sql.contains("unicode61")) {
+                return;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (String trigger : new String[]{TRIGGER_INSERT, TRIGGER_DELETE, TRIGGER_BEFORE_UPDATE, TRIGGER_AFTER_UPDATE}) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + trigger + ";");
+        }
+        db.execSQL("DROP TABLE IF EXISTS " + FTS_TABLE_NAME + ";");
+
+        ftsVersion = null;
+        onCreate(db, notesTable, idColumn, descriptionColumn);
+        backfill(db);
+    }
+
+    /**
+     * Fills the index with the descriptions of all existing notes.
+     */
+    public void backfill(SQLiteDatabase db) {
+        if (!isAvailable(db)) {
+            return;
+        }
+
+        db.execSQL(String.format("INSERT INTO %s(%s) VALUES ('rebuild');", FTS_TABLE_NAME, FTS_TABLE_NAME));
+    }
+
+    /**
+     * @return True when the FTS table exists and can be used for queries.
+     */
+    public boolean isAvailable(SQLiteDatabase db) {
+        if (ftsVersion == null) {
+            Cursor cursor = db.query("sqlite_master", new String[]{"sql"}, "type='table' AND name=?", new String[]{FTS_TABLE_NAME}, null, null, null);
+            if (!cursor.moveToFirst()) {
+                ftsVersion = FTS_NONE;
+            } else if (cursor.getString(0).toLowerCase().contains("fts5")) {
+                ftsVersion = FTS_5;
+            } else {
+                ftsVersion = FTS_4;
+            }
+            cursor.close();
+        }
+        return ftsVersion != FTS_NONE;
+    }
+
+    /**
+     * @return An ORDER BY term putting the best matches first or null when the index can't rank
+     * results. Only valid in queries with a MATCH on the FTS table.
+     */
+    public String getRankingTerm(SQLiteDatabase db) {
+        if (isAvailable(db) && ftsVersion == FTS_5) {
+            return "bm25(" + FTS_TABLE_NAME + ")";
+        }
+        return null;
+    }
+
+    /**
+     * Turns the text entered by the user into an FTS query. Each word matches all words starting
+     * with it, all words must be found in a description.
+     *
+     * @return The query or null when the text doesn't contain any words.
+     */
+    public String toMatchQuery(SQLiteDatabase db, String text) {
+        List<String> terms = new ArrayList<>();
+        for (String word : text.trim().split("\\s+")) {
+            // Quotes are the only special characters within a quoted FTS string
+            word = word.replace("\"", "");
+            if (word.isEmpty()) {
+                continue;
+            }
+
+            if (isAvailable(db) && ftsVersion == FTS_5) {
+                terms.add("\"" + word + "\"*");
+            } else {
+                terms.add("\"" + word + "*\"");
+            }
+        }
+
+        if (terms.isEmpty()) {
+            return null;
+        }
+        return String.join(" ", terms);
+    }
+}
@@ -0,0 +1,119 @@
+package de.hauke_stieler.geonotes.notes;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Spatial index over the locations of all notes. It's an SQLite R*Tree, which makes bounding box
+ * queries fast even with many thousand notes.
+ * <p>
+ * Not every SQLite build contains the R*Tree module. When the module is missing, the NoteStore
+ * falls back to a normal index on the coordinate columns (s. "isAvailable()").
+ */
+public class NoteSpatialIndex {
+    private static final String LOGTAG = NoteSpatialIndex.class.getName();
+
+    static final String RTREE_TABLE_NAME = "notes_rtree";
+    static final String RTREE_COL_ID = "id";
+    static final String RTREE_COL_MIN_LAT = "min_lat";
+    static final String RTREE_COL_MAX_LAT = "max_lat";
+    static final String RTREE_COL_MIN_LON = "min_lon";
+    static final String RTREE_COL_MAX_LON = "max_lon";
+
+    private Boolean available;
+
+    /**
+     * Creates the R*Tree table.
+     *
+     * @return True when the table has been created, false when the SQLite build has no R*Tree support.
+     */
+    public boolean onCreate(SQLiteDatabase db) {
+        try {
+            db.execSQL(String.format("CREATE VIRTUAL TABLE IF NOT EXISTS %s USING rtree(%s, %s, %s, %s, %s);",
+                    RTREE_TABLE_NAME,
+                    RTREE_COL_ID,
+                    RTREE_COL_MIN_LAT,
+                    RTREE_COL_MAX_LAT,
+                    RTREE_COL_MIN_LON,
+                    RTREE_COL_MAX_LON));
+            available = true;
+        } catch (SQLiteException e) {
+            Log.w(LOGTAG, "R*Tree module not available, falling back to normal index: " + e.getMessage());
+            available = false;
+        }
+        return available;
+    }
+
+    /**
+     * Fills the index with the locations of all existing notes.
+     */
+    public void backfill(SQLiteDatabase db, String notesTable, String idColumn, String latColumn, String lonColumn) {
+        if (!isAvailable(db)) {
+            return;
+        }
+
+        db.execSQL(String.format("INSERT OR REPLACE INTO %s(%s, %s, %s, %s, %s) SELECT %s, %s, %s, %s, %s FROM %s;",
+                RTREE_TABLE_NAME, RTREE_COL_ID, RTREE_COL_MIN_LAT, RTREE_COL_MAX_LAT, RTREE_COL_MIN_LON, RTREE_COL_MAX_LON,
+                idColumn, latColumn, latColumn, lonColumn, lonColumn, notesTable));
+    }
+
+    /**
+     * @return True when the R*Tree table exists and can be used for queries.
+     */
+    public boolean isAvailable(SQLiteDatabase db) {
+        if (available == null) {
+            Cursor cursor = db.query("sqlite_master", new String[]{"name"}, "type='table' AND name=?", new String[]{RTREE_TABLE_NAME}, null, null, null);
+            available = cursor.getCount() > 0;
+            cursor.close();
+        }
+        return available;
+    }
+
+    public void put(SQLiteDatabase db, long id, double lat, double lon) {
+        if (!isAvailable(db)) {
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(RTREE_COL_ID, id);
+        values.put(RTREE_COL_MIN_LAT, lat);
+        values.put(RTREE_COL_MAX_LAT, lat);
+        values.put(RTREE_COL_MIN_LON, lon);
+        values.put(RTREE_COL_MAX_LON, lon);
+
+        db.replace(RTREE_TABLE_NAME, null, values);
+    }
+
+    /**
+     * @return A statement inserting the location of one note with the parameters id, min lat, max
+     * lat, min lon, max lon. Null, when the R*Tree is not available.
+     */
+    public SQLiteStatement compileInsert(SQLiteDatabase db) {
+        if (!isAvailable(db)) {
+            return null;
+        }
+
+        return db.compileStatement(String.format("INSERT OR REPLACE INTO %s(%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?);",
+                RTREE_TABLE_NAME, RTREE_COL_ID, RTREE_COL_MIN_LAT, RTREE_COL_MAX_LAT, RTREE_COL_MIN_LON, RTREE_COL_MAX_LON));
+    }
+
+    public void remove(SQLiteDatabase db, long id) {
+        if (!isAvailable(db)) {
+            return;
+        }
+
+        db.delete(RTREE_TABLE_NAME, RTREE_COL_ID + " = ?", new String[]{"" + id});
+    }
+
+    public void removeAll(SQLiteDatabase db) {
+        if (!isAvailable(db)) {
+            return;
+        }
+
+        db.delete(RTREE_TABLE_NAME, null, null);
+    }
+}
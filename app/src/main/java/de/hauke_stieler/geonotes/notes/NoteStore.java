@@ -2,7 +2,10 @@ package de.hauke_stieler.geonotes.notes;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import org.osmdroid.util.GeoPoint;
@@ -10,10 +13,14 @@ import org.osmdroid.util.GeoPoint;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 import de.hauke_stieler.geonotes.categories.Category;
 import de.hauke_stieler.geonotes.categories.CategoryStore;
+import de.hauke_stieler.geonotes.database.ChangeLog;
 
 
 public class NoteStore {
@@ -22,26 +29,91 @@ public class NoteStore {
     private static final String NOTES_COL_LAT = "lat";
     private static final String NOTES_COL_LON = "lon";
     private static final String NOTES_COL_DESCRIPTION = "description";
+    // Milliseconds since the epoch
     private static final String NOTES_COL_CREATED_AT = "created_at";
     private static final String NOTES_COL_CATEGORY = "category";
+    // Identifies the note on all devices (s. "ChangeLog"), whereas the ID is different on each device
+    private static final String NOTES_COL_UUID = "uuid";
+    private static final String NOTES_INDEX_LOCATION = "notes_location_index";
+    private static final String NOTES_INDEX_CATEGORY = "notes_category_index";
+    private static final String NOTES_INDEX_UUID = "notes_uuid_index";
+    private static final String NOTES_INDEX_CREATED_AT = "notes_created_at_index";
 
     private final CategoryStore categoryStore;
+    private final ChangeLog changeLog;
+    private final NoteSpatialIndex spatialIndex;
+    private final NoteSearchIndex searchIndex;
 
-    public NoteStore(CategoryStore categoryStore) {
+    public NoteStore(CategoryStore categoryStore, ChangeLog changeLog) {
         this.categoryStore = categoryStore;
+        this.changeLog = changeLog;
+        this.spatialIndex = new NoteSpatialIndex();
+        this.searchIndex = new NoteSearchIndex();
     }
 
     public void onCreate(SQLiteDatabase db) {
-        db.execSQL(String.format("CREATE TABLE IF NOT EXISTS %s(%s INTEGER PRIMARY KEY, %s DOUBLE NOT NULL, %s DOUBLE NOT NULL, %s VARCHAR NOT NULL, %s VARCHAR NOT NULL, %s INTEGER NOT NULL);",
-                NOTES_TABLE_NAME,
+        createTable(db, NOTES_TABLE_NAME);
+        createSpatialIndex(db);
+        createCategoryIndex(db);
+        createUuidIndex(db);
+        createCreatedAtIndex(db);
+        searchIndex.onCreate(db, NOTES_TABLE_NAME, NOTES_COL_ID, NOTES_COL_DESCRIPTION);
+    }
+
+    private void createTable(SQLiteDatabase db, String tableName) {
+        db.execSQL(String.format("CREATE TABLE IF NOT EXISTS %s(%s INTEGER PRIMARY KEY, %s DOUBLE NOT NULL, %s DOUBLE NOT NULL, %s VARCHAR NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s VARCHAR NOT NULL);",
+                tableName,
                 NOTES_COL_ID,
                 NOTES_COL_LAT,
                 NOTES_COL_LON,
                 NOTES_COL_DESCRIPTION,
                 NOTES_COL_CREATED_AT,
+                NOTES_COL_CATEGORY,
+                NOTES_COL_UUID));
+    }
+
+    /**
+     * Makes filtering notes by their category fast. A covering index for the whole list projection
+     * is not created, because it would contain all columns and therefore duplicate the table.
+     */
+    private void createCategoryIndex(SQLiteDatabase db) {
+        db.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s(%s);",
+                NOTES_INDEX_CATEGORY,
+                NOTES_TABLE_NAME,
                 NOTES_COL_CATEGORY));
     }
 
+    /**
+     * Notes received from other devices are looked up by their UUID.
+     */
+    private void createUuidIndex(SQLiteDatabase db) {
+        db.execSQL(String.format("CREATE UNIQUE INDEX IF NOT EXISTS %s ON %s(%s);",
+                NOTES_INDEX_UUID,
+                NOTES_TABLE_NAME,
+                NOTES_COL_UUID));
+    }
+
+    /**
+     * Makes sorting and filtering notes by their creation time fast.
+     */
+    private void createCreatedAtIndex(SQLiteDatabase db) {
+        db.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s(%s);",
+                NOTES_INDEX_CREATED_AT,
+                NOTES_TABLE_NAME,
+                NOTES_COL_CREATED_AT));
+    }
+
+    private void createSpatialIndex(SQLiteDatabase db) {
+        if (!spatialIndex.onCreate(db)) {
+            // No R*Tree available -> at least make range queries on the latitude fast
+            db.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s(%s, %s);",
+                    NOTES_INDEX_LOCATION,
+                    NOTES_TABLE_NAME,
+                    NOTES_COL_LAT,
+                    NOTES_COL_LON));
+        }
+    }
+
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         if (oldVersion < 5) {
             // Version 5: Column "created_at" added
@@ -54,108 +126,557 @@ public class NoteStore {
             // new table. But I'll keep it simple here and just don't add foreign key constrains.
             db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER NOT NULL DEFAULT 7", NOTES_TABLE_NAME, NOTES_COL_CATEGORY));
         }
+        if (oldVersion < 7) {
+            // Version 7: Spatial index (s. "NoteSpatialIndex") added, which needs the locations of all existing notes
+            createSpatialIndex(db);
+            spatialIndex.backfill(db, NOTES_TABLE_NAME, NOTES_COL_ID, NOTES_COL_LAT, NOTES_COL_LON);
+        }
+        if (oldVersion < 8) {
+            // Version 8: Index on the category column added
+            createCategoryIndex(db);
+        }
+        if (oldVersion < 9) {
+            // Version 9: Full-text index (s. "NoteSearchIndex") added, which needs the descriptions of all existing notes
+            searchIndex.onCreate(db, NOTES_TABLE_NAME, NOTES_COL_ID, NOTES_COL_DESCRIPTION);
+            searchIndex.backfill(db);
+        }
+        if (oldVersion < 10) {
+            // Version 10: Column "uuid" and change log (s. "ChangeLog") added. Any unique string
+            // works as UUID, so existing notes simply get random ones.
+            db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s VARCHAR", NOTES_TABLE_NAME, NOTES_COL_UUID));
+            db.execSQL(String.format("UPDATE %s SET %s = lower(hex(randomblob(16)))", NOTES_TABLE_NAME, NOTES_COL_UUID));
+            createUuidIndex(db);
+            changeLog.logRows(db, ChangeLog.TYPE_NOTE, ChangeLog.OPERATION_INSERT, NOTES_TABLE_NAME, NOTES_COL_UUID, null, null);
+        }
+        if (oldVersion < 11) {
+            // Version 11: Column "created_at" contains milliseconds since the epoch instead of a
+            // local date string, so notes can be sorted and filtered by time in SQL.
+            migrateCreatedAtToMillis(db);
+            createCreatedAtIndex(db);
+        }
+        if (oldVersion >= 9 && oldVersion < 14) {
+            // Version 14: FTS4 index ignores diacritics (s. "NoteSearchIndex")
+            searchIndex.upgradeTokenizer(db, NOTES_TABLE_NAME, NOTES_COL_ID, NOTES_COL_DESCRIPTION);
+        }
 
         Log.i("NoteStore", String.format("onUpgrade: from version %d to version %d", oldVersion, newVersion));
     }
 
+    /**
+     * SQLite can't change the type of a column, so the notes table is rebuilt (s.
+     * https://www.sqlite.org/lang_altertable.html#otheralter). The IDs stay the same, so the
+     * spatial and full-text index remain valid. Indices and triggers of the notes table are
+     * dropped together with the old table and therefore created again afterwards.
+     */
+    private void migrateCreatedAtToMillis(SQLiteDatabase db) {
+        String newTable = NOTES_TABLE_NAME + "_new";
+
+        List<String> schemaStatements = new ArrayList<>();
+        Cursor schemaCursor = db.query("sqlite_master", new String[]{"sql"}, "tbl_name=? AND type IN ('index', 'trigger') AND sql IS NOT NULL", new String[]{NOTES_TABLE_NAME}, null, null, null);
+        try {
+            while (schemaCursor.moveToNext()) {
+                schemaStatements.add(schemaCursor.getString(0));
+            }
+        } finally {
+            schemaCursor.close();
+        }
+
+        createTable(db, newTable);
+        db.execSQL(String.format("INSERT INTO %s(%s, %s, %s, %s, %s, %s, %s) SELECT %s, %s, %s, %s, 0, %s, %s FROM %s;",
+                newTable,
+                NOTES_COL_ID, NOTES_COL_LAT, NOTES_COL_LON, NOTES_COL_DESCRIPTION, NOTES_COL_CREATED_AT, NOTES_COL_CATEGORY, NOTES_COL_UUID,
+                NOTES_COL_ID, NOTES_COL_LAT, NOTES_COL_LON, NOTES_COL_DESCRIPTION, NOTES_COL_CATEGORY, NOTES_COL_UUID,
+                NOTES_TABLE_NAME));
+
+        // The date strings are local times, which SQLite can't convert reliably
+        long now = System.currentTimeMillis();
+        SQLiteStatement updateCreatedAt = db.compileStatement(String.format("UPDATE %s SET %s = ? WHERE %s = ?;", newTable, NOTES_COL_CREATED_AT, NOTES_COL_ID));
+        Cursor cursor = db.query(NOTES_TABLE_NAME, new String[]{NOTES_COL_ID, NOTES_COL_CREATED_AT}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                long createdAt = Note.parseDateTimeString(cursor.getString(1));
+                updateCreatedAt.bindLong(1, createdAt == Note.UNKNOWN_CREATION_TIME ? now : createdAt);
+                updateCreatedAt.bindLong(2, cursor.getLong(0));
+                updateCreatedAt.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            updateCreatedAt.close();
+        }
+
+        db.execSQL(String.format("DROP TABLE %s;", NOTES_TABLE_NAME));
+        db.execSQL(String.format("ALTER TABLE %s RENAME TO %s;", newTable, NOTES_TABLE_NAME));
+        for (String statement : schemaStatements) {
+            db.execSQL(statement);
+        }
+    }
+
     public long addNote(SQLiteDatabase db, String description, double lat, double lon, long categoryId) {
+        return addNote(db, description, lat, lon, System.currentTimeMillis(), categoryId);
+    }
+
+    /**
+     * @param createdAt Milliseconds since the epoch.
+     */
+    public long addNote(SQLiteDatabase db, String description, double lat, double lon, long createdAt, long categoryId) {
         ContentValues values = new ContentValues();
         values.put(NOTES_COL_LAT, lat);
         values.put(NOTES_COL_LON, lon);
         values.put(NOTES_COL_DESCRIPTION, description);
-        values.put(NOTES_COL_CREATED_AT, Note.getDateTimeString(GregorianCalendar.getInstance()));
+        values.put(NOTES_COL_CREATED_AT, createdAt);
         values.put(NOTES_COL_CATEGORY, categoryId);
+        String uuid = UUID.randomUUID().toString();
+        values.put(NOTES_COL_UUID, uuid);
+
+        db.beginTransaction();
+        try {
+            long id = db.insert(NOTES_TABLE_NAME, null, values);
+            spatialIndex.put(db, id, lat, lon);
+            changeLog.log(db, ChangeLog.TYPE_NOTE, uuid, ChangeLog.OPERATION_INSERT);
+            db.setTransactionSuccessful();
+            return id;
+        } finally {
+            db.endTransaction();
+        }
+    }
 
-        return db.insert(NOTES_TABLE_NAME, null, values);
+    /**
+     * Creates an inserter for adding many notes at once (e.g. when importing notes).
+     *
+     * @param batchSize      Number of notes inserted within one transaction.
+     * @param insertListener Gets informed about every inserted note. May be null.
+     */
+    public NoteInserter newInserter(SQLiteDatabase db, int batchSize, NoteInserter.InsertListener insertListener) {
+        SQLiteStatement insertNote = db.compileStatement(String.format("INSERT INTO %s(%s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?);",
+                NOTES_TABLE_NAME,
+                NOTES_COL_LAT,
+                NOTES_COL_LON,
+                NOTES_COL_DESCRIPTION,
+                NOTES_COL_CREATED_AT,
+                NOTES_COL_CATEGORY,
+                NOTES_COL_UUID));
+        return new NoteInserter(db, insertNote, spatialIndex.compileInsert(db), changeLog.compileLog(db), batchSize, insertListener);
     }
 
     public void updateDescription(SQLiteDatabase db, long id, String newDescription) {
         ContentValues values = new ContentValues();
-        values.put(NOTES_COL_ID, id);
         values.put(NOTES_COL_DESCRIPTION, newDescription);
 
-        db.update(NOTES_TABLE_NAME, values, NOTES_COL_ID + " = ?", new String[]{"" + id});
+        updateAndLog(db, id, values);
+    }
+
+    /**
+     * Updates the description and category with one single statement. Null values are not changed.
+     */
+    public void update(SQLiteDatabase db, long id, String newDescription, Long categoryId) {
+        ContentValues values = new ContentValues();
+        if (newDescription != null) {
+            values.put(NOTES_COL_DESCRIPTION, newDescription);
+        }
+        if (categoryId != null) {
+            values.put(NOTES_COL_CATEGORY, categoryId);
+        }
+
+        if (values.size() > 0) {
+            updateAndLog(db, id, values);
+        }
     }
 
     public void updateCategory(SQLiteDatabase db, long id, long categoryId) {
         ContentValues values = new ContentValues();
-        values.put(NOTES_COL_ID, id);
         values.put(NOTES_COL_CATEGORY, categoryId);
 
-        db.update(NOTES_TABLE_NAME, values, NOTES_COL_ID + " = ?", new String[]{"" + id});
+        updateAndLog(db, id, values);
+    }
+
+    private void updateAndLog(SQLiteDatabase db, long id, ContentValues values) {
+        db.beginTransaction();
+        try {
+            if (updateIfChanged(db, id, values)) {
+                logChange(db, id, ChangeLog.OPERATION_UPDATE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Only writes the values when at least one of them differs from the stored one. Otherwise
+     * e.g. just selecting a note would log a change, which then wins against real changes on other
+     * devices.
+     *
+     * @return True if the note has been changed.
+     */
+    private boolean updateIfChanged(SQLiteDatabase db, long id, ContentValues values) {
+        List<String> differences = new ArrayList<>();
+        String[] args = new String[values.size() + 1];
+        args[0] = "" + id;
+        int i = 1;
+        for (String column : values.keySet()) {
+            differences.add(column + " IS NOT ?");
+            args[i++] = String.valueOf(values.get(column));
+        }
+
+        return db.update(NOTES_TABLE_NAME, values, NOTES_COL_ID + " = ? AND (" + String.join(" OR ", differences) + ")", args) > 0;
+    }
+
+    private void logChange(SQLiteDatabase db, long id, int operation) {
+        changeLog.logRows(db, ChangeLog.TYPE_NOTE, operation, NOTES_TABLE_NAME, NOTES_COL_UUID, NOTES_COL_ID + " = ?", new Object[]{id});
     }
 
     public void updateLocation(SQLiteDatabase db, long id, GeoPoint location) {
         ContentValues values = new ContentValues();
-        values.put(NOTES_COL_ID, id);
         values.put(NOTES_COL_LAT, location.getLatitude());
         values.put(NOTES_COL_LON, location.getLongitude());
 
-        db.update(NOTES_TABLE_NAME, values, NOTES_COL_ID + " = ?", new String[]{"" + id});
+        db.beginTransaction();
+        try {
+            if (updateIfChanged(db, id, values)) {
+                spatialIndex.put(db, id, location.getLatitude(), location.getLongitude());
+                logChange(db, id, ChangeLog.OPERATION_UPDATE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     public void removeNote(SQLiteDatabase db, long id) {
-        db.delete(NOTES_TABLE_NAME, NOTES_COL_ID + " = ?", new String[]{"" + id});
+        db.beginTransaction();
+        try {
+            logChange(db, id, ChangeLog.OPERATION_DELETE);
+            db.delete(NOTES_TABLE_NAME, NOTES_COL_ID + " = ?", new String[]{"" + id});
+            spatialIndex.remove(db, id);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     public void removeAllNotes(SQLiteDatabase db) {
-        db.delete(NOTES_TABLE_NAME, null, null);
+        db.beginTransaction();
+        try {
+            changeLog.logRows(db, ChangeLog.TYPE_NOTE, ChangeLog.OPERATION_DELETE, NOTES_TABLE_NAME, NOTES_COL_UUID, null, null);
+            db.delete(NOTES_TABLE_NAME, null, null);
+            spatialIndex.removeAll(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     public List<Note> getAllNotes(SQLiteDatabase db) {
         Cursor cursor = db.query(NOTES_TABLE_NAME, new String[]{NOTES_COL_ID, NOTES_COL_DESCRIPTION, NOTES_COL_LAT, NOTES_COL_LON, NOTES_COL_CREATED_AT, NOTES_COL_CATEGORY}, null, null, null, null, null);
+        return getNotesFromCursor(db, cursor);
+    }
 
-        List<Note> notes = new ArrayList<>();
-        if (cursor.moveToFirst()) {
-            do {
-                notes.add(getNoteFromCursor(db, cursor));
-            } while (cursor.moveToNext());
+    /**
+     * Like "getAllNotes()" but the notes are read page by page while iterating (ordered by ID).
+     */
+    public NoteIterator iterateAllNotes(SQLiteDatabase db, int pageSize) {
+        return new NoteIterator((afterId, limit) -> getNotesAfter(db, afterId, limit), pageSize);
+    }
+
+    /**
+     * @return At most "limit" notes with an ID greater than "afterId", ordered by ID.
+     */
+    public List<Note> getNotesAfter(SQLiteDatabase db, long afterId, int limit) {
+        Cursor cursor = db.query(NOTES_TABLE_NAME, new String[]{NOTES_COL_ID, NOTES_COL_DESCRIPTION, NOTES_COL_LAT, NOTES_COL_LON, NOTES_COL_CREATED_AT, NOTES_COL_CATEGORY},
+                NOTES_COL_ID + ">?",
+                new String[]{afterId + ""},
+                null,
+                null,
+                NOTES_COL_ID,
+                limit + "");
+        return getNotesFromCursor(db, cursor);
+    }
+
+    /**
+     * @return The UUID of the note or null if there's no such note.
+     */
+    public String getUuid(SQLiteDatabase db, long id) {
+        Cursor cursor = db.query(NOTES_TABLE_NAME, new String[]{NOTES_COL_UUID}, NOTES_COL_ID + "=?", new String[]{"" + id}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
         }
+    }
 
-        return notes;
+    /**
+     * @return The UUIDs of all notes by their ID.
+     */
+    public Map<Long, String> getAllUuids(SQLiteDatabase db) {
+        Cursor cursor = db.query(NOTES_TABLE_NAME, new String[]{NOTES_COL_ID, NOTES_COL_UUID}, null, null, null, null, null);
+
+        Map<Long, String> uuids = new HashMap<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                uuids.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return uuids;
+    }
+
+    /**
+     * @return The ID of the note with this UUID or null if there's no such note.
+     */
+    public Long getNoteId(SQLiteDatabase db, String uuid) {
+        Cursor cursor = db.query(NOTES_TABLE_NAME, new String[]{NOTES_COL_ID}, NOTES_COL_UUID + "=?", new String[]{uuid}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public long getNoteCount(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, NOTES_TABLE_NAME);
     }
 
+    /**
+     * Gets all notes containing words starting with the words of the text filter. The best matches
+     * come first, if the full-text index supports ranking. Without full-text index, all notes
+     * containing the text filter somewhere in their description are returned.
+     *
+     * @param categoryIdFilter Only notes of this category are returned. Use null to get notes of all categories.
+     */
     public List<Note> getAllNotes(SQLiteDatabase db, String textFilter, Long categoryIdFilter) {
+        Cursor cursor = queryFilteredNotes(db, new String[]{NOTES_COL_ID, NOTES_COL_DESCRIPTION, NOTES_COL_LAT, NOTES_COL_LON, NOTES_COL_CREATED_AT, NOTES_COL_CATEGORY}, textFilter, categoryIdFilter);
+        return getNotesFromCursor(db, cursor);
+    }
+
+    /**
+     * Like "getAllNotes(db, textFilter, categoryIdFilter)" but only returns the IDs of the notes
+     * (in the same order). The notes themselves can then be loaded page by page from the note cache
+     * (s. "Database.getNotes()").
+     */
+    public long[] getNoteIds(SQLiteDatabase db, String textFilter, Long categoryIdFilter) {
+        Cursor cursor = queryFilteredNotes(db, new String[]{NOTES_COL_ID}, textFilter, categoryIdFilter);
+
+        long[] noteIds = new long[cursor.getCount()];
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                noteIds[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return noteIds;
+    }
+
+    /**
+     * @param startTime Milliseconds since the epoch (inclusive).
+     * @param endTime   Milliseconds since the epoch (exclusive).
+     * @return The IDs of all notes created within the given time range, newest first.
+     */
+    public long[] getNoteIdsCreatedBetween(SQLiteDatabase db, long startTime, long endTime) {
+        Cursor cursor = db.query(NOTES_TABLE_NAME, new String[]{NOTES_COL_ID},
+                NOTES_COL_CREATED_AT + ">=? AND " + NOTES_COL_CREATED_AT + "<?",
+                new String[]{startTime + "", endTime + ""},
+                null,
+                null,
+                NOTES_COL_CREATED_AT + " DESC, " + NOTES_COL_ID + " DESC");
+
+        long[] noteIds = new long[cursor.getCount()];
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                noteIds[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return noteIds;
+    }
+
+    private Cursor queryFilteredNotes(SQLiteDatabase db, String[] columns, String textFilter, Long categoryIdFilter) {
+        String matchQuery = textFilter == null ? null : searchIndex.toMatchQuery(db, textFilter);
+        if (matchQuery != null && searchIndex.isAvailable(db)) {
+            try {
+                return searchNotes(db, columns, matchQuery, categoryIdFilter);
+            } catch (SQLiteException e) {
+                Log.w("NoteStore", "Full-text search failed, falling back to LIKE query: " + e.getMessage());
+            }
+        }
+
+        return queryNotesContaining(db, columns, textFilter, categoryIdFilter);
+    }
+
+    private Cursor searchNotes(SQLiteDatabase db, String[] columns, String matchQuery, Long categoryIdFilter) {
+        List<String> filter = new ArrayList<>();
+        List<String> filterArgs = new ArrayList<>();
+
+        filter.add(NoteSearchIndex.FTS_TABLE_NAME + " MATCH ?");
+        filterArgs.add(matchQuery);
+
+        if (categoryIdFilter != null) {
+            filter.add(qualified(NOTES_COL_CATEGORY) + "=?");
+            filterArgs.add(categoryIdFilter + "");
+        }
+
+        String table = String.format("%s JOIN %s ON %s = %s.rowid",
+                NOTES_TABLE_NAME,
+                NoteSearchIndex.FTS_TABLE_NAME,
+                qualified(NOTES_COL_ID),
+                NoteSearchIndex.FTS_TABLE_NAME);
+
+        String[] qualifiedColumns = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            qualifiedColumns[i] = qualified(columns[i]);
+        }
+
+        Cursor cursor = db.query(table,
+                qualifiedColumns,
+                String.join(" AND ", filter),
+                filterArgs.toArray(new String[]{}),
+                null,
+                null,
+                searchIndex.getRankingTerm(db));
+
+        try {
+            // The query is executed lazily, so invalid match queries only fail here
+            cursor.getCount();
+        } catch (SQLiteException e) {
+            cursor.close();
+            throw e;
+        }
+        return cursor;
+    }
+
+    private Cursor queryNotesContaining(SQLiteDatabase db, String[] columns, String textFilter, Long categoryIdFilter) {
         List<String> filter = new ArrayList<>();
         List<String> filterArgs = new ArrayList<>();
 
+        // Like the full-text search, every word of the filter must be found in the description
         if (textFilter == null) {
             textFilter = "";
         }
-        textFilter = textFilter.replaceAll("%", "\\\\%");
-        filter.add(NOTES_COL_DESCRIPTION + " LIKE ? ESCAPE '\\'");
-        filterArgs.add("%" + textFilter + "%");
+        for (String word : textFilter.trim().split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+
+            word = word.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+            filter.add(NOTES_COL_DESCRIPTION + " LIKE ? ESCAPE '\\'");
+            filterArgs.add("%" + word + "%");
+        }
 
         if (categoryIdFilter != null) {
             filter.add(NOTES_COL_CATEGORY + "=?");
             filterArgs.add(categoryIdFilter + "");
         }
 
-        Cursor cursor = db.query(NOTES_TABLE_NAME, new String[]{NOTES_COL_ID, NOTES_COL_DESCRIPTION, NOTES_COL_LAT, NOTES_COL_LON, NOTES_COL_CREATED_AT, NOTES_COL_CATEGORY},
+        return db.query(NOTES_TABLE_NAME, columns,
                 String.join(" AND ", filter),
                 filterArgs.toArray(new String[]{}),
                 null,
                 null,
                 null);
+    }
 
-        List<Note> notes = new ArrayList<>();
-        if (cursor.moveToFirst()) {
-            do {
-                notes.add(getNoteFromCursor(db, cursor));
-            } while (cursor.moveToNext());
+    /**
+     * Gets all notes within the given bounding box. Boxes crossing the antimeridian (so where west
+     * is greater than east) are supported as well.
+     *
+     * @param categoryIdFilter Only notes of this category are returned. Use null to get notes of all categories.
+     */
+    public List<Note> getNotesInBoundingBox(SQLiteDatabase db, double north, double east, double south, double west, Long categoryIdFilter) {
+        if (west > east) {
+            List<Note> notes = getNotesInBoundingBox(db, north, 180, south, west, categoryIdFilter);
+            notes.addAll(getNotesInBoundingBox(db, north, east, south, -180, categoryIdFilter));
+            return notes;
         }
 
-        return notes;
+        List<String> filter = new ArrayList<>();
+        List<String> filterArgs = new ArrayList<>();
+
+        // The coordinates are numbers and therefore safe to be put directly into the query. Passing
+        // them as arguments would turn them into strings, which the R*Tree can't compare properly.
+        filter.add(String.format("%s BETWEEN %s AND %s", qualified(NOTES_COL_LAT), south, north));
+        filter.add(String.format("%s BETWEEN %s AND %s", qualified(NOTES_COL_LON), west, east));
+
+        if (categoryIdFilter != null) {
+            filter.add(qualified(NOTES_COL_CATEGORY) + "=?");
+            filterArgs.add(categoryIdFilter + "");
+        }
+
+        String table = NOTES_TABLE_NAME;
+        if (spatialIndex.isAvailable(db)) {
+            table += String.format(" JOIN %s ON %s = %s.%s",
+                    NoteSpatialIndex.RTREE_TABLE_NAME,
+                    qualified(NOTES_COL_ID),
+                    NoteSpatialIndex.RTREE_TABLE_NAME,
+                    NoteSpatialIndex.RTREE_COL_ID);
+
+            // The R*Tree stores 32-bit floats, which are rounded outwards. Therefore the exact
+            // filter on the note columns above is still needed.
+            filter.add(String.format("%s <= %s", NoteSpatialIndex.RTREE_COL_MIN_LAT, north));
+            filter.add(String.format("%s >= %s", NoteSpatialIndex.RTREE_COL_MAX_LAT, south));
+            filter.add(String.format("%s <= %s", NoteSpatialIndex.RTREE_COL_MIN_LON, east));
+            filter.add(String.format("%s >= %s", NoteSpatialIndex.RTREE_COL_MAX_LON, west));
+        }
+
+        Cursor cursor = db.query(table,
+                new String[]{qualified(NOTES_COL_ID), qualified(NOTES_COL_DESCRIPTION), qualified(NOTES_COL_LAT), qualified(NOTES_COL_LON), qualified(NOTES_COL_CREATED_AT), qualified(NOTES_COL_CATEGORY)},
+                String.join(" AND ", filter),
+                filterArgs.toArray(new String[]{}),
+                null,
+                null,
+                null);
+        return getNotesFromCursor(db, cursor);
     }
 
+    private static String qualified(String column) {
+        return NOTES_TABLE_NAME + "." + column;
+    }
+
+    /**
+     * @return The note or null if there's no such note.
+     */
     public Note getNote(SQLiteDatabase db, String noteId) {
         Cursor cursor = db.query(NOTES_TABLE_NAME, new String[]{NOTES_COL_ID, NOTES_COL_DESCRIPTION, NOTES_COL_LAT, NOTES_COL_LON, NOTES_COL_CREATED_AT, NOTES_COL_CATEGORY}, NOTES_COL_ID + "=?", new String[]{noteId}, null, null, null);
-        cursor.moveToFirst();
-        return getNoteFromCursor(db, cursor);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return getNoteFromCursor(db, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads all notes of the given cursor and closes it afterwards. All categories are loaded with
+     * one single query beforehand instead of one query per note. Notes of the same category
+     * therefore share the same Category instance.
+     */
+    private List<Note> getNotesFromCursor(SQLiteDatabase db, Cursor cursor) {
+        Map<Long, Category> categories = categoryStore.getAllCategoriesById(db);
+
+        List<Note> notes = new ArrayList<>(cursor.getCount());
+        if (cursor.moveToFirst()) {
+            do {
+                Category category = categories.get(cursor.getLong(5));
+                notes.add(getNoteFromCursor(cursor, category));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+
+        return notes;
     }
 
     private Note getNoteFromCursor(SQLiteDatabase db, Cursor cursor) {
         Category category = categoryStore.getCategory(db, cursor.getString(5));
-        return new Note(cursor.getLong(0), cursor.getString(1), cursor.getDouble(2), cursor.getDouble(3), cursor.getString(4), category);
+        return getNoteFromCursor(cursor, category);
+    }
+
+    static Note getNoteFromCursor(Cursor cursor, Category category) {
+        return new Note(cursor.getLong(0), cursor.getString(1), cursor.getDouble(2), cursor.getDouble(3), cursor.getLong(4), category);
     }
 }
@@ -0,0 +1,108 @@
+package de.hauke_stieler.geonotes.photo;
+
+import android.content.Context;
+import android.os.Environment;
+import android.util.Log;
+import android.util.Pair;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+import de.hauke_stieler.geonotes.database.Database;
+
+/**
+ * Deletes photo and thumbnail files in the storage directory, which don't belong to any photo in
+ * the database.
+ * <p>
+ * Photos whose file is missing are kept in the database: The storage might just be unavailable and
+ * removing them would be logged as deletion, which would be sent to other devices (s. "Delta").
+ * Missing thumbnails are not created here but when they are shown (s. "ThumbnailService").
+ */
+public class PhotoMaintenance {
+    private static final String LOGTAG = PhotoMaintenance.class.getName();
+
+    // Same naming scheme as in "MainActivity.createImageFile()". Other files (e.g. exports) are never touched.
+    private static final Pattern PHOTO_FILE_PATTERN = Pattern.compile("^geonotes_.*\\.jpg$");
+    private static final String THUMBNAIL_SUFFIX = "_thumb.jpg";
+
+    // A photo is added to the database after the camera app wrote it. Newer files might therefore
+    // still be waiting for their database entry.
+    private static final long MIN_FILE_AGE = TimeUnit.DAYS.toMillis(1);
+
+    private final AsyncDatabase database;
+    private final Context context;
+
+    public PhotoMaintenance(AsyncDatabase database, Context context) {
+        this.database = database;
+        this.context = context;
+    }
+
+    /**
+     * Cleans up the storage directory in the background.
+     *
+     * @param callback Gets the number of freed bytes or -1 if the cleanup failed.
+     */
+    public void run(AsyncDatabase.Callback<Long> callback) {
+        if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+            callback.onResult(-1L);
+            return;
+        }
+        File storageDir = context.getExternalFilesDir("GeoNotes");
+
+        // As write operation, so that no photo gets added while the files are checked
+        database.write(db -> {
+            try {
+                return cleanUp(db, storageDir, System.currentTimeMillis());
+            } catch (Exception e) {
+                Log.e(LOGTAG, "Photo cleanup failed: " + e.toString());
+                return -1L;
+            }
+        }, callback);
+    }
+
+    /**
+     * @param now Current time in milliseconds. Only files older than a day are deleted.
+     * @return The number of freed bytes or -1 if the storage directory is not available. In this
+     * case nothing has been deleted.
+     */
+    static long cleanUp(Database database, File storageDir, long now) {
+        File[] files = storageDir == null ? null : storageDir.listFiles();
+        if (files == null) {
+            Log.w(LOGTAG, "Storage directory not available, photo cleanup skipped");
+            return -1;
+        }
+
+        Set<String> photoFileNames = new HashSet<>();
+        for (Pair<Long, String> photo : database.getAllPhotos()) {
+            photoFileNames.add(photo.second);
+        }
+
+        long freedBytes = 0;
+        for (File file : files) {
+            String fileName = file.getName();
+            if (!file.isFile() || !PHOTO_FILE_PATTERN.matcher(fileName).matches() || now - file.lastModified() < MIN_FILE_AGE) {
+                continue;
+            }
+
+            String photoFileName = fileName;
+            if (fileName.endsWith(THUMBNAIL_SUFFIX)) {
+                photoFileName = fileName.substring(0, fileName.length() - THUMBNAIL_SUFFIX.length()) + ".jpg";
+            }
+            if (photoFileNames.contains(photoFileName)) {
+                continue;
+            }
+
+            long fileSize = file.length();
+            if (file.delete()) {
+                Log.i(LOGTAG, "Deleted orphaned file " + fileName);
+                freedBytes += fileSize;
+            }
+        }
+
+        return freedBytes;
+    }
+}
@@ -2,18 +2,30 @@ package de.hauke_stieler.geonotes.photo;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
+import android.util.Pair;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
+import de.hauke_stieler.geonotes.common.LongSet;
+import de.hauke_stieler.geonotes.database.ChangeLog;
+
 public class PhotoStore {
     private static final String PHOTOS_TABLE_NAME = "photos";
     private static final String PHOTOS_COL_ID = "id";
     private static final String PHOTOS_COL_NOTE_ID = "note";
     private static final String PHOTOS_COL_FILE_NAME = "path";
+    private static final String PHOTOS_INDEX_NOTE = "photos_note_index";
+
+    private final ChangeLog changeLog;
+
+    public PhotoStore(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
 
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(String.format("CREATE TABLE IF NOT EXISTS %s(%s INTEGER PRIMARY KEY, %s INTEGER NOT NULL, %s VARCHAR NOT NULL);",
@@ -21,12 +33,31 @@ public class PhotoStore {
                 PHOTOS_COL_ID,
                 PHOTOS_COL_NOTE_ID,
                 PHOTOS_COL_FILE_NAME));
+        createNoteIndex(db);
+    }
+
+    /**
+     * Photos are always queried by their note, so this prevents scanning the whole table.
+     */
+    private void createNoteIndex(SQLiteDatabase db) {
+        db.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s(%s);",
+                PHOTOS_INDEX_NOTE,
+                PHOTOS_TABLE_NAME,
+                PHOTOS_COL_NOTE_ID));
     }
 
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         if (oldVersion < 5) {
             onCreate(db);
         }
+        if (oldVersion < 8) {
+            // Version 8: Index on the note column added
+            createNoteIndex(db);
+        }
+        if (oldVersion < 10) {
+            // Version 10: Change log (s. "ChangeLog") added, which should contain all existing photos
+            changeLog.logRows(db, ChangeLog.TYPE_PHOTO, ChangeLog.OPERATION_INSERT, PHOTOS_TABLE_NAME, PHOTOS_COL_FILE_NAME, null, null);
+        }
         Log.i("PhotoStore", String.format("onUpgrade: from version %d to version %d", oldVersion, newVersion));
     }
 
@@ -35,7 +66,26 @@ public class PhotoStore {
         values.put(PHOTOS_COL_NOTE_ID, noteId);
         values.put(PHOTOS_COL_FILE_NAME, photoFile.getName());
 
-        db.insert(PHOTOS_TABLE_NAME, null, values);
+        db.beginTransaction();
+        try {
+            db.insert(PHOTOS_TABLE_NAME, null, values);
+            changeLog.log(db, ChangeLog.TYPE_PHOTO, photoFile.getName(), ChangeLog.OPERATION_INSERT);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return The ID of the note the photo belongs to or null if there's no such photo.
+     */
+    public Long getNoteId(SQLiteDatabase db, String fileName) {
+        Cursor cursor = db.query(PHOTOS_TABLE_NAME, new String[]{PHOTOS_COL_NOTE_ID}, PHOTOS_COL_FILE_NAME + "=?", new String[]{fileName}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
     }
 
     public List<String> getPhotos(SQLiteDatabase db, String noteId) {
@@ -51,11 +101,67 @@ public class PhotoStore {
         return photos;
     }
 
+    public boolean hasPhotos(SQLiteDatabase db, String noteId) {
+        return DatabaseUtils.queryNumEntries(db, PHOTOS_TABLE_NAME, PHOTOS_COL_NOTE_ID + "=?", new String[]{noteId}) > 0;
+    }
+
+    /**
+     * @return The IDs of all notes having at least one photo. This is determined with one single
+     * query, so use this instead of calling "hasPhotos" for many notes.
+     */
+    public LongSet getNoteIdsWithPhotos(SQLiteDatabase db) {
+        Cursor cursor = db.query(true, PHOTOS_TABLE_NAME, new String[]{PHOTOS_COL_NOTE_ID}, null, null, null, null, null, null);
+
+        LongSet noteIds = new LongSet(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                noteIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return noteIds;
+    }
+
+    /**
+     * @return The note ID and file name of all photos, ordered by note.
+     */
+    public List<Pair<Long, String>> getAllPhotos(SQLiteDatabase db) {
+        Cursor cursor = db.query(PHOTOS_TABLE_NAME, new String[]{PHOTOS_COL_NOTE_ID, PHOTOS_COL_FILE_NAME}, null, null, null, null, PHOTOS_COL_NOTE_ID);
+
+        List<Pair<Long, String>> photos = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                photos.add(new Pair<>(cursor.getLong(0), cursor.getString(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return photos;
+    }
+
+    public void removePhoto(SQLiteDatabase db, String fileName) {
+        removeAndLog(db, PHOTOS_COL_FILE_NAME + " = ?", new String[]{fileName});
+    }
+
     public void removePhotos(SQLiteDatabase db, long noteId) {
-        db.delete(PHOTOS_TABLE_NAME, PHOTOS_COL_NOTE_ID + " = ?", new String[]{"" + noteId});
+        removeAndLog(db, PHOTOS_COL_NOTE_ID + " = ?", new String[]{"" + noteId});
     }
 
     public void removeAllPhotos(SQLiteDatabase db) {
-        db.delete(PHOTOS_TABLE_NAME, null, null);
+        removeAndLog(db, null, null);
+    }
+
+    private void removeAndLog(SQLiteDatabase db, String whereClause, String[] whereArgs) {
+        db.beginTransaction();
+        try {
+            changeLog.logRows(db, ChangeLog.TYPE_PHOTO, ChangeLog.OPERATION_DELETE, PHOTOS_TABLE_NAME, PHOTOS_COL_FILE_NAME, whereClause, whereArgs);
+            db.delete(PHOTOS_TABLE_NAME, whereClause, whereArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 }
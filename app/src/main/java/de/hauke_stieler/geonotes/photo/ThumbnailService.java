@@ -0,0 +1,136 @@
+package de.hauke_stieler.geonotes.photo;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.hauke_stieler.geonotes.R;
+
+/**
+ * Loads and creates thumbnails in background threads and keeps recently used ones in memory, so
+ * selecting the same note again doesn't touch the disk at all.
+ * <p>
+ * All methods must be called on the main thread, results are delivered on the main thread as well.
+ */
+public class ThumbnailService {
+    private static final String LOGTAG = ThumbnailService.class.getName();
+    private static final int DECODER_THREAD_COUNT = 2;
+
+    /**
+     * Gets called on the main thread with the result of creating a thumbnail.
+     */
+    public interface Callback {
+        void onResult(boolean successful);
+    }
+
+    private final Context context;
+    private final ExecutorService decoders;
+    private final Handler mainHandler;
+    private final LruCache<String, Bitmap> cache;
+
+    public ThumbnailService(Context context) {
+        this.context = context;
+        this.decoders = Executors.newFixedThreadPool(DECODER_THREAD_COUNT);
+        this.mainHandler = new Handler(Looper.getMainLooper());
+
+        // An eighth of the available memory holds many hundred thumbnails of usual size
+        int cacheSizeInBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        this.cache = new LruCache<String, Bitmap>(cacheSizeInBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Shows the thumbnail of the given photo in the image view. Until the thumbnail is loaded, a
+     * placeholder is shown. A missing thumbnail file is created on the fly.
+     *
+     * @return The background task, which can be cancelled when the thumbnail isn't needed anymore.
+     * Null if the thumbnail was in the cache and has therefore been set right away.
+     */
+    public Future<?> load(File photoFile, int sizeInPixel, ImageView imageView) {
+        // A reused view might still wait for the thumbnail of another photo. The tag always
+        // contains the photo that should be shown at the moment.
+        imageView.setTag(photoFile);
+
+        Bitmap cachedThumbnail = cache.get(getKey(photoFile));
+        if (cachedThumbnail != null) {
+            imageView.setImageBitmap(cachedThumbnail);
+            return null;
+        }
+
+        imageView.setImageDrawable(getPlaceholder());
+
+        return decoders.submit(() -> {
+            Bitmap thumbnail = loadOrCreateThumbnail(photoFile, sizeInPixel);
+            if (thumbnail == null || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            mainHandler.post(() -> {
+                cache.put(getKey(photoFile), thumbnail);
+                if (photoFile.equals(imageView.getTag())) {
+                    imageView.setImageBitmap(thumbnail);
+                }
+            });
+        });
+    }
+
+    /**
+     * Writes the thumbnail file of a (new) photo in the background.
+     */
+    public void create(File photoFile, int sizeInPixel, Callback callback) {
+        cache.remove(getKey(photoFile));
+
+        decoders.submit(() -> {
+            boolean successful;
+            try {
+                ThumbnailUtil.writeThumbnail(sizeInPixel, photoFile);
+                successful = true;
+            } catch (IOException e) {
+                Log.e(LOGTAG, "Creating thumbnail failed: " + e.toString());
+                successful = false;
+            }
+
+            boolean result = successful;
+            mainHandler.post(() -> callback.onResult(result));
+        });
+    }
+
+    public Drawable getPlaceholder() {
+        return new ColorDrawable(ContextCompat.getColor(context, R.color.grey));
+    }
+
+    private Bitmap loadOrCreateThumbnail(File photoFile, int sizeInPixel) {
+        if (!ThumbnailUtil.getThumbnailFile(photoFile).exists()) {
+            try {
+                ThumbnailUtil.writeThumbnail(sizeInPixel, photoFile);
+            } catch (IOException e) {
+                Log.e(LOGTAG, "Creating missing thumbnail failed: " + e.toString());
+                return null;
+            }
+        }
+
+        return ThumbnailUtil.loadThumbnail(photoFile);
+    }
+
+    private static String getKey(File photoFile) {
+        return photoFile.getAbsolutePath();
+    }
+}
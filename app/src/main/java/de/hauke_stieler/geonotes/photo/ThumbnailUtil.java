@@ -2,25 +2,154 @@ package de.hauke_stieler.geonotes.photo;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
 import android.media.ThumbnailUtils;
+import android.util.Log;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
 public class ThumbnailUtil {
+    private static final String LOGTAG = ThumbnailUtil.class.getName();
+
+    /**
+     * Writes a square thumbnail of the photo. The photo is never decoded in its full size (which
+     * easily needs 100MB for modern cameras), only in about the size of the thumbnail.
+     */
     public static void writeThumbnail(int sizeInPixel, File photoFile) throws IOException {
         // Get thumbnail that can be shown on image button
-        Bitmap bmp = BitmapFactory.decodeFile(photoFile.getAbsolutePath());
-        Bitmap thumbnail = ThumbnailUtils.extractThumbnail(bmp, sizeInPixel, sizeInPixel);
+        Bitmap thumbnail = createThumbnail(sizeInPixel, photoFile);
+        if (thumbnail == null) {
+            throw new IOException("Could not decode photo " + photoFile.getName());
+        }
 
         // Get according file
         File thumbnailFile = getThumbnailFile(photoFile);
 
         // Write thumbnail
         FileOutputStream thumbStream = new FileOutputStream(thumbnailFile);
-        thumbnail.compress(Bitmap.CompressFormat.JPEG, 85, thumbStream);
-        thumbStream.close();
+        try {
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, 85, thumbStream);
+        } finally {
+            thumbStream.close();
+            thumbnail.recycle();
+        }
+    }
+
+    /**
+     * @return A square thumbnail of the center of the photo, rotated according to its EXIF
+     * orientation. Null if the photo can't be decoded.
+     */
+    static Bitmap createThumbnail(int sizeInPixel, File photoFile) {
+        Bitmap bmp = decodeSampledBitmap(sizeInPixel, photoFile);
+        if (bmp == null) {
+            return null;
+        }
+
+        // Crops the center and scales the rest of the way down. The decoded bitmap isn't needed
+        // afterwards, so it's recycled right away.
+        Bitmap thumbnail = ThumbnailUtils.extractThumbnail(bmp, sizeInPixel, sizeInPixel, ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+
+        // Rotating the small thumbnail is much cheaper than rotating the decoded photo
+        Matrix orientation = getOrientationMatrix(readExifOrientation(photoFile));
+        if (!orientation.isIdentity()) {
+            Bitmap rotatedThumbnail = Bitmap.createBitmap(thumbnail, 0, 0, thumbnail.getWidth(), thumbnail.getHeight(), orientation, true);
+            if (rotatedThumbnail != thumbnail) {
+                thumbnail.recycle();
+            }
+            thumbnail = rotatedThumbnail;
+        }
+
+        return thumbnail;
+    }
+
+    /**
+     * Decodes the photo so that its shorter side is about the given size. The photo is first
+     * subsampled by the largest possible power of two (which the decoder does very cheaply) and the
+     * remaining factor is applied by density scaling while decoding.
+     *
+     * @return The decoded bitmap or null if the photo can't be decoded.
+     */
+    static Bitmap decodeSampledBitmap(int sizeInPixel, File photoFile) {
+        String photoPath = photoFile.getAbsolutePath();
+
+        // Only read the size of the photo, no pixel is decoded here
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(photoPath, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int shorterSide = Math.min(options.outWidth, options.outHeight);
+        options.inSampleSize = calculateInSampleSize(shorterSide, sizeInPixel);
+
+        int sampledShorterSide = shorterSide / options.inSampleSize;
+        if (sampledShorterSide > sizeInPixel) {
+            options.inScaled = true;
+            options.inDensity = sampledShorterSide;
+            options.inTargetDensity = sizeInPixel;
+        }
+
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFile(photoPath, options);
+    }
+
+    /**
+     * @return The largest power of two by which the side can be divided while staying at least as
+     * large as the requested size.
+     */
+    static int calculateInSampleSize(int side, int requestedSize) {
+        int inSampleSize = 1;
+        while (side / (inSampleSize * 2) >= requestedSize) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static int readExifOrientation(File photoFile) {
+        try {
+            ExifInterface exif = new ExifInterface(photoFile.getAbsolutePath());
+            return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            Log.w(LOGTAG, "Could not read EXIF data of " + photoFile.getName() + ": " + e.getMessage());
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * @return The transformation turning an image with the given EXIF orientation upright.
+     */
+    static Matrix getOrientationMatrix(int exifOrientation) {
+        Matrix matrix = new Matrix();
+        switch (exifOrientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+        }
+        return matrix;
     }
 
     public static Bitmap loadThumbnail(File photoFile) {
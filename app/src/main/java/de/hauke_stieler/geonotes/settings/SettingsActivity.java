@@ -2,8 +2,10 @@ package de.hauke_stieler.geonotes.settings;
 
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.text.format.Formatter;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -11,17 +13,28 @@ import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
 import org.osmdroid.tileprovider.modules.SqlTileWriter;
 
 import de.hauke_stieler.geonotes.BuildConfig;
+import de.hauke_stieler.geonotes.Injector;
 import de.hauke_stieler.geonotes.R;
+import de.hauke_stieler.geonotes.export.Backup;
+import de.hauke_stieler.geonotes.export.Delta;
+import de.hauke_stieler.geonotes.photo.PhotoMaintenance;
 
 public class SettingsActivity extends AppCompatActivity {
+    private static final int REQUEST_RESTORE_BACKUP = 1;
+    private static final int REQUEST_APPLY_DELTA = 2;
 
     SharedPreferences preferences;
+    Backup backup;
+    Delta delta;
+    PhotoMaintenance photoMaintenance;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -35,6 +48,9 @@ public class SettingsActivity extends AppCompatActivity {
         getSupportActionBar().setDisplayShowHomeEnabled(true);
 
         preferences = getSharedPreferences(getString(R.string.pref_file), MODE_PRIVATE);
+        backup = Injector.get(Backup.class);
+        delta = Injector.get(Delta.class);
+        photoMaintenance = Injector.get(PhotoMaintenance.class);
 
         load();
 
@@ -63,6 +79,66 @@ public class SettingsActivity extends AppCompatActivity {
             }).start();
         });
 
+        Button photoCleanupButton = (Button) findViewById(R.id.settings_photo_cleanup);
+        photoCleanupButton.setOnClickListener(v -> {
+            findViewById(R.id.settings_photo_cleanup_loading_spinner).setVisibility(View.VISIBLE);
+            photoCleanupButton.setEnabled(false);
+
+            photoMaintenance.run(freedBytes -> {
+                findViewById(R.id.settings_photo_cleanup_loading_spinner).setVisibility(View.GONE);
+                photoCleanupButton.setEnabled(true);
+
+                if (freedBytes < 0) {
+                    Toast.makeText(this, R.string.photo_storage_clean_up_failed, Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(this, getString(R.string.photo_storage_cleaned_up, Formatter.formatShortFileSize(this, freedBytes)), Toast.LENGTH_SHORT).show();
+                }
+            });
+        });
+
+        Button createBackupButton = (Button) findViewById(R.id.settings_backup_create);
+        createBackupButton.setOnClickListener(v -> {
+            setBackupRunning(true);
+            backup.create(successful -> {
+                setBackupRunning(false);
+                if (!successful) {
+                    Toast.makeText(this, R.string.backup_failed, Toast.LENGTH_SHORT).show();
+                }
+            });
+        });
+
+        Button restoreBackupButton = (Button) findViewById(R.id.settings_backup_restore);
+        restoreBackupButton.setOnClickListener(v -> {
+            Intent restoreIntent = new Intent(Intent.ACTION_GET_CONTENT);
+            restoreIntent.setType("*/*");
+            restoreIntent.addCategory(Intent.CATEGORY_OPENABLE);
+            startActivityForResult(Intent.createChooser(restoreIntent, null), REQUEST_RESTORE_BACKUP);
+        });
+
+        Button createDeltaButton = (Button) findViewById(R.id.settings_delta_create);
+        createDeltaButton.setOnClickListener(v -> {
+            setDeltaRunning(true);
+            long lastSequence = preferences.getLong(getString(R.string.pref_last_delta_sequence), 0);
+            delta.create(lastSequence, newLastSequence -> {
+                setDeltaRunning(false);
+                if (newLastSequence < 0) {
+                    Toast.makeText(this, R.string.delta_failed, Toast.LENGTH_SHORT).show();
+                } else if (newLastSequence == lastSequence) {
+                    Toast.makeText(this, R.string.delta_no_changes, Toast.LENGTH_SHORT).show();
+                } else {
+                    preferences.edit().putLong(getString(R.string.pref_last_delta_sequence), newLastSequence).apply();
+                }
+            });
+        });
+
+        Button applyDeltaButton = (Button) findViewById(R.id.settings_delta_apply);
+        applyDeltaButton.setOnClickListener(v -> {
+            Intent applyIntent = new Intent(Intent.ACTION_GET_CONTENT);
+            applyIntent.setType("*/*");
+            applyIntent.addCategory(Intent.CATEGORY_OPENABLE);
+            startActivityForResult(Intent.createChooser(applyIntent, null), REQUEST_APPLY_DELTA);
+        });
+
         Button feedbackButton = (Button) findViewById(R.id.settings_feedback_button);
         feedbackButton.setOnClickListener(v -> {
             String mailDomain = getString(R.string.feedback_mail_domain);
@@ -86,6 +162,60 @@ public class SettingsActivity extends AppCompatActivity {
         });
     }
 
+    private void setBackupRunning(boolean running) {
+        findViewById(R.id.settings_backup_loading_spinner).setVisibility(running ? View.VISIBLE : View.GONE);
+        findViewById(R.id.settings_backup_create).setEnabled(!running);
+        findViewById(R.id.settings_backup_restore).setEnabled(!running);
+    }
+
+    private void setDeltaRunning(boolean running) {
+        findViewById(R.id.settings_delta_loading_spinner).setVisibility(running ? View.VISIBLE : View.GONE);
+        findViewById(R.id.settings_delta_create).setEnabled(!running);
+        findViewById(R.id.settings_delta_apply).setEnabled(!running);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        if (requestCode == REQUEST_RESTORE_BACKUP && resultCode == RESULT_OK) {
+            Uri uri = data.getData();
+            new AlertDialog.Builder(this)
+                    .setMessage(R.string.backup_restore_confirmation)
+                    .setPositiveButton(R.string.dialog_yes, (dialog, id) -> restoreBackup(uri))
+                    .setNegativeButton(R.string.dialog_no, null)
+                    .show();
+        } else if (requestCode == REQUEST_APPLY_DELTA && resultCode == RESULT_OK) {
+            applyDelta(data.getData());
+        }
+    }
+
+    private void restoreBackup(Uri uri) {
+        setBackupRunning(true);
+        backup.restore(uri, restoredNotes -> {
+            setBackupRunning(false);
+            if (restoredNotes < 0) {
+                Toast.makeText(this, R.string.backup_restore_failed, Toast.LENGTH_LONG).show();
+                return;
+            }
+
+            Toast.makeText(this, getString(R.string.backup_restore_finished, restoredNotes), Toast.LENGTH_LONG).show();
+        });
+    }
+
+    private void applyDelta(Uri uri) {
+        setDeltaRunning(true);
+        delta.apply(uri, appliedChanges -> {
+            setDeltaRunning(false);
+            if (appliedChanges < 0) {
+                Toast.makeText(this, R.string.delta_apply_failed, Toast.LENGTH_LONG).show();
+                return;
+            }
+
+            Toast.makeText(this, getString(R.string.delta_apply_finished, appliedChanges), Toast.LENGTH_LONG).show();
+        });
+    }
+
     private void load() {
         boolean prefZoomButtons = preferences.getBoolean(getString(R.string.pref_zoom_buttons), true);
         ((Switch) findViewById(R.id.settings_zoom_switch)).setChecked(prefZoomButtons);
@@ -15,21 +15,35 @@ import org.robolectric.annotation.Config;
 
 import java.util.HashMap;
 
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
 import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.export.Backup;
+import de.hauke_stieler.geonotes.export.Delta;
 import de.hauke_stieler.geonotes.export.Exporter;
+import de.hauke_stieler.geonotes.export.Importer;
 import de.hauke_stieler.geonotes.map.Map;
+import de.hauke_stieler.geonotes.photo.PhotoMaintenance;
+import de.hauke_stieler.geonotes.photo.ThumbnailService;
 
 public class GeoNotesTestRule extends Injector implements TestRule {
 
     static {
         classBuilders.put(Database.class, () -> add(Database.class));
+        classBuilders.put(AsyncDatabase.class, () -> add(AsyncDatabase.class));
         classBuilders.put(Exporter.class, () -> add(Exporter.class));
+        classBuilders.put(Importer.class, () -> add(Importer.class));
+        classBuilders.put(Backup.class, () -> add(Backup.class));
+        classBuilders.put(Delta.class, () -> add(Delta.class));
+        classBuilders.put(ThumbnailService.class, () -> add(ThumbnailService.class));
+        classBuilders.put(PhotoMaintenance.class, () -> add(PhotoMaintenance.class));
         classBuilders.put(SharedPreferences.class, () -> add(SharedPreferences.class));
         classBuilders.put(de.hauke_stieler.geonotes.map.Map.class, () -> add(Map.class));
     }
 
     @Override
     public Statement apply(Statement base, Description description) {
+        // Application scoped mocks would otherwise survive from one test to the next one
+        classes = new HashMap<>();
         return base;
     }
 
@@ -0,0 +1,91 @@
+package de.hauke_stieler.geonotes.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class LongSetTest {
+
+    @Test
+    public void testAddAndContains() {
+        // Arrange
+        LongSet set = new LongSet();
+
+        // Act
+        boolean added = set.add(42);
+        boolean addedAgain = set.add(42);
+
+        // Assert
+        Assert.assertTrue(added);
+        Assert.assertFalse(addedAgain);
+        Assert.assertEquals(1, set.size());
+        Assert.assertTrue(set.contains(42));
+        Assert.assertFalse(set.contains(43));
+    }
+
+    @Test
+    public void testZeroAndNegativeValues() {
+        // Arrange
+        LongSet set = new LongSet();
+
+        // Act
+        set.add(0);
+        set.add(-1);
+        set.add(Long.MIN_VALUE);
+
+        // Assert
+        Assert.assertEquals(3, set.size());
+        Assert.assertTrue(set.contains(0));
+        Assert.assertTrue(set.contains(-1));
+        Assert.assertTrue(set.contains(Long.MIN_VALUE));
+        Assert.assertTrue(set.remove(0));
+        Assert.assertFalse(set.contains(0));
+        Assert.assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testRemove() {
+        // Arrange
+        LongSet set = new LongSet();
+        set.add(1);
+        set.add(2);
+
+        // Act
+        boolean removed = set.remove(1);
+        boolean removedAgain = set.remove(1);
+
+        // Assert
+        Assert.assertTrue(removed);
+        Assert.assertFalse(removedAgain);
+        Assert.assertEquals(1, set.size());
+        Assert.assertFalse(set.contains(1));
+        Assert.assertTrue(set.contains(2));
+    }
+
+    @Test
+    public void testManyValues_sameAsHashSet() {
+        // Arrange
+        LongSet set = new LongSet();
+        Set<Long> expectedSet = new HashSet<>();
+        Random random = new Random(1234);
+
+        // Act & Assert
+        // Small value range, so that values get added and removed again and again
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextInt(5000);
+            if (random.nextBoolean()) {
+                Assert.assertEquals(expectedSet.add(value), set.add(value));
+            } else {
+                Assert.assertEquals(expectedSet.remove(value), set.remove(value));
+            }
+        }
+
+        Assert.assertEquals(expectedSet.size(), set.size());
+        for (long value = 0; value < 5000; value++) {
+            Assert.assertEquals(expectedSet.contains(value), set.contains(value));
+        }
+    }
+}
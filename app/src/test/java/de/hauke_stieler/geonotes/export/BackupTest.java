@@ -0,0 +1,249 @@
+package de.hauke_stieler.geonotes.export;
+
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.notes.Note;
+import de.hauke_stieler.geonotes.notes.NoteInserter;
+import de.hauke_stieler.geonotes.photo.ThumbnailUtil;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class BackupTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Database database;
+
+    @Before
+    public void setup() {
+        database = new Database(ApplicationProvider.getApplicationContext());
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        // Arrange
+        File storageDir = temporaryFolder.newFolder("storage");
+        long noteId1 = database.addNote("foo \"bar\" äöü", 53.5511234, 9.9937567, 3);
+        long noteId2 = database.addNote("", -33.8688197, -151.2092955, 7);
+        database.addNote("baz", 0, 0, 1);
+        database.updateCategory(3, "My category", "#123456");
+
+        File photoFile = writeFile(storageDir, "geonotes_1.jpg", new byte[]{1, 2, 3, 4});
+        writeFile(storageDir, "geonotes_1_thumb.jpg", new byte[]{5, 6});
+        database.addPhoto(noteId1, photoFile);
+        database.addPhoto(noteId2, new File(storageDir, "geonotes_missing.jpg"));
+
+        List<Note> expectedNotes = database.getAllNotes();
+        List<String> expectedUuids = new ArrayList<>();
+        for (Note note : expectedNotes) {
+            expectedUuids.add(database.getNoteUuid(note.getId()));
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Backup.write(database, storageDir, outputStream);
+
+        // Change everything so that the restore must bring back the old state
+        database.removeAllNotes(storageDir);
+        database.addNote("should be gone", 1, 2, 4);
+        database.updateCategory(3, "Purple", "#9c27b0");
+        File restoreDir = temporaryFolder.newFolder("restore");
+
+        // Act
+        int restoredNotes = Backup.read(database, restoreDir, new ByteArrayInputStream(outputStream.toByteArray()));
+
+        // Assert
+        Assert.assertEquals(3, restoredNotes);
+
+        List<Note> actualNotes = database.getAllNotes();
+        Assert.assertEquals(3, actualNotes.size());
+        for (int i = 0; i < expectedNotes.size(); i++) {
+            Note expected = expectedNotes.get(i);
+            Note actual = actualNotes.get(i);
+            Assert.assertEquals(expected.getDescription(), actual.getDescription());
+            Assert.assertEquals(expected.getLat(), actual.getLat(), 0.0000001);
+            Assert.assertEquals(expected.getLon(), actual.getLon(), 0.0000001);
+            Assert.assertEquals(expected.getCreationTime(), actual.getCreationTime());
+            Assert.assertEquals(expected.getCategory().getId(), actual.getCategory().getId());
+            Assert.assertEquals(expectedUuids.get(i), database.getNoteUuid(actual.getId()));
+        }
+        Assert.assertEquals("My category", database.getCategory("3").getName());
+        Assert.assertEquals("#123456", database.getCategory("3").getColorString());
+
+        List<String> photos = database.getPhotos("" + actualNotes.get(0).getId());
+        Assert.assertEquals(1, photos.size());
+        Assert.assertEquals("geonotes_1.jpg", photos.get(0));
+        File restoredPhoto = new File(restoreDir, "geonotes_1.jpg");
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4}, Files.readAllBytes(restoredPhoto.toPath()));
+        Assert.assertArrayEquals(new byte[]{5, 6}, Files.readAllBytes(ThumbnailUtil.getThumbnailFile(restoredPhoto).toPath()));
+
+        // Photo entry is restored even though its file was missing
+        Assert.assertEquals(1, database.getPhotos("" + actualNotes.get(1).getId()).size());
+        Assert.assertFalse(new File(restoreDir, "geonotes_missing.jpg").exists());
+    }
+
+    @Test
+    public void testRead_brokenBackup_keepsExistingNotes() throws Exception {
+        // Arrange
+        File storageDir = temporaryFolder.newFolder("storage");
+        database.addNote("foo", 1, 2, 3);
+        database.addNote("bar", 3, 4, 5);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Backup.write(database, storageDir, outputStream);
+        byte[] backup = outputStream.toByteArray();
+        byte[] truncatedBackup = new byte[backup.length - 5];
+        System.arraycopy(backup, 0, truncatedBackup, 0, truncatedBackup.length);
+
+        database.addNote("baz", 5, 6, 7);
+
+        // Act
+        try {
+            Backup.read(database, storageDir, new ByteArrayInputStream(truncatedBackup));
+            Assert.fail("Broken backup should not be readable");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // Assert
+        List<Note> notes = database.getAllNotes();
+        Assert.assertEquals(3, notes.size());
+        Assert.assertEquals("baz", notes.get(2).getDescription());
+    }
+
+    @Test
+    public void testRead_brokenBackup_keepsExistingPhotoFiles() throws Exception {
+        // Arrange
+        File storageDir = temporaryFolder.newFolder("storage");
+        long noteId = database.addNote("foo", 1, 2, 3);
+        File photoFile = writeFile(storageDir, "geonotes_1.jpg", new byte[]{1, 2, 3, 4});
+        writeFile(storageDir, "geonotes_1_thumb.jpg", new byte[]{5, 6});
+        database.addPhoto(noteId, photoFile);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Backup.write(database, storageDir, outputStream);
+        // Cut within the thumbnail, so the photo itself has been read completely
+        byte[] backup = outputStream.toByteArray();
+        byte[] truncatedBackup = new byte[backup.length - 1];
+        System.arraycopy(backup, 0, truncatedBackup, 0, truncatedBackup.length);
+
+        writeFile(storageDir, "geonotes_1.jpg", new byte[]{9, 9});
+        ThumbnailUtil.getThumbnailFile(photoFile).delete();
+
+        // Act
+        try {
+            Backup.read(database, storageDir, new ByteArrayInputStream(truncatedBackup));
+            Assert.fail("Broken backup should not be readable");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // Assert
+        Assert.assertArrayEquals(new byte[]{9, 9}, Files.readAllBytes(photoFile.toPath()));
+        Assert.assertFalse(ThumbnailUtil.getThumbnailFile(photoFile).exists());
+        Assert.assertArrayEquals(new String[]{"geonotes_1.jpg"}, storageDir.list());
+    }
+
+    @Test
+    public void testRead_noBackup() throws Exception {
+        // Arrange
+        database.addNote("foo", 1, 2, 3);
+        byte[] geoJson = GeoJson.toGeoJson(database.getAllNotes()).getBytes("UTF-8");
+
+        // Act
+        try {
+            Backup.read(database, temporaryFolder.getRoot(), new ByteArrayInputStream(geoJson));
+            Assert.fail("GeoJSON should not be readable as backup");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // Assert
+        Assert.assertEquals(1, database.getNoteCount());
+    }
+
+    @Test
+    public void testVarLong() throws Exception {
+        // Arrange
+        long[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // Act
+        for (long value : values) {
+            Backup.writeVarLong(outputStream, value);
+        }
+
+        // Assert
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+        for (long value : values) {
+            Assert.assertEquals(value, Backup.readVarLong(inputStream));
+        }
+        Assert.assertEquals(-1, inputStream.read());
+    }
+
+    @Test
+    public void testWrite_smallerThanGeoJson() throws Exception {
+        // Arrange
+        int noteCount = 1000;
+        NoteInserter inserter = database.newNoteInserter(100);
+        try {
+            for (int i = 0; i < noteCount; i++) {
+                inserter.insert("note number " + i, 53.5 + (i % 100) * 0.0001, 9.9 + (i / 100) * 0.0001, 1643546096000L, i % 11 + 1);
+            }
+        } finally {
+            inserter.close();
+        }
+
+        ByteArrayOutputStream geoJsonStream = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(geoJsonStream, "UTF-8");
+        GeoJson.write(database.iterateAllNotes(100), writer);
+        writer.close();
+
+        // Act
+        ByteArrayOutputStream backupStream = new ByteArrayOutputStream();
+        Backup.write(database, temporaryFolder.getRoot(), backupStream);
+
+        // Assert
+        Assert.assertTrue(backupStream.size() * 2 < geoJsonStream.size());
+    }
+
+    private File writeFile(File dir, String name, byte[] content) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,278 @@
+package de.hauke_stieler.geonotes.export;
+
+import android.content.Context;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import de.hauke_stieler.geonotes.database.ChangeLog;
+import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.notes.Note;
+import de.hauke_stieler.geonotes.photo.ThumbnailUtil;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class DeltaTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Database database;
+
+    @Before
+    public void setup() {
+        database = new Database(ApplicationProvider.getApplicationContext());
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void testWriteAndRead_otherDevice() throws Exception {
+        // Arrange
+        File storageDir = temporaryFolder.newFolder("storage");
+        long noteId = database.addNote("foo \"bar\" äöü", 53.5511234, -9.9937567, 3);
+        database.updateCategory(3, "My category", "#123456");
+        File photoFile = writeFile(storageDir, "geonotes_1.jpg", new byte[]{1, 2, 3, 4});
+        writeFile(storageDir, "geonotes_1_thumb.jpg", new byte[]{5, 6});
+        database.addPhoto(noteId, photoFile);
+
+        Note expectedNote = database.getNote("" + noteId);
+        String uuid = database.getNoteUuid(noteId);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Delta.write(database, storageDir, outputStream, 0);
+
+        switchToOtherDevice();
+        File otherStorageDir = temporaryFolder.newFolder("other");
+
+        // Act
+        int appliedChanges = Delta.read(database, otherStorageDir, new ByteArrayInputStream(outputStream.toByteArray()));
+
+        // Assert
+        // Changed category, note and photo. The unchanged initial categories are the same on both devices.
+        Assert.assertEquals(3, appliedChanges);
+
+        Long otherNoteId = database.getNoteIdByUuid(uuid);
+        Assert.assertNotNull(otherNoteId);
+        Note actualNote = database.getNote("" + otherNoteId);
+        Assert.assertEquals(expectedNote.getDescription(), actualNote.getDescription());
+        Assert.assertEquals(expectedNote.getLat(), actualNote.getLat(), 0.0000001);
+        Assert.assertEquals(expectedNote.getLon(), actualNote.getLon(), 0.0000001);
+        Assert.assertEquals(expectedNote.getCreationDateTimeString(), actualNote.getCreationDateTimeString());
+        Assert.assertEquals(3, actualNote.getCategory().getId());
+        Assert.assertEquals("My category", database.getCategory("3").getName());
+
+        List<String> photos = database.getPhotos("" + otherNoteId);
+        Assert.assertEquals(1, photos.size());
+        File receivedPhoto = new File(otherStorageDir, "geonotes_1.jpg");
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4}, Files.readAllBytes(receivedPhoto.toPath()));
+        Assert.assertArrayEquals(new byte[]{5, 6}, Files.readAllBytes(ThumbnailUtil.getThumbnailFile(receivedPhoto).toPath()));
+    }
+
+    @Test
+    public void testWrite_onlyChangesAfterSequence() throws Exception {
+        // Arrange
+        File storageDir = temporaryFolder.newFolder("storage");
+        long oldNoteId = database.addNote("old", 1, 2, 3);
+        long sequence = database.getLastChangeSequence();
+        long newNoteId = database.addNote("new", 3, 4, 5);
+        String oldUuid = database.getNoteUuid(oldNoteId);
+        String newUuid = database.getNoteUuid(newNoteId);
+
+        // Act
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long lastSequence = Delta.write(database, storageDir, outputStream, sequence);
+
+        // Assert
+        Assert.assertEquals(database.getLastChangeSequence(), lastSequence);
+
+        switchToOtherDevice();
+        Delta.read(database, storageDir, new ByteArrayInputStream(outputStream.toByteArray()));
+        Assert.assertNull(database.getNoteIdByUuid(oldUuid));
+        Assert.assertNotNull(database.getNoteIdByUuid(newUuid));
+        Assert.assertEquals(1, database.getNoteCount());
+    }
+
+    @Test
+    public void testWrite_receivedChangesNotSentBack() throws Exception {
+        // Arrange
+        File storageDir = temporaryFolder.newFolder("storage");
+        long noteId = database.addNote("foo", 1, 2, 3);
+        database.updateCategory(3, "My category", "#123456");
+        String uuid = database.getNoteUuid(noteId);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Delta.write(database, storageDir, outputStream, 0);
+
+        switchToOtherDevice();
+        long sequence = database.getLastChangeSequence();
+        Delta.read(database, storageDir, new ByteArrayInputStream(outputStream.toByteArray()));
+
+        // Act
+        ByteArrayOutputStream echoStream = new ByteArrayOutputStream();
+        long lastSequence = Delta.write(database, storageDir, echoStream, sequence);
+
+        database.updateNoteDescription(database.getNoteIdByUuid(uuid), "bar");
+        ByteArrayOutputStream editStream = new ByteArrayOutputStream();
+        long lastEditSequence = Delta.write(database, storageDir, editStream, sequence);
+
+        // Assert
+        Assert.assertEquals(sequence, lastSequence);
+        Assert.assertEquals(1, database.getLocalChangesAfter(sequence).size());
+        Assert.assertTrue(lastEditSequence > sequence);
+    }
+
+    @Test
+    public void testRead_deletedNote() throws Exception {
+        // Arrange
+        File storageDir = temporaryFolder.newFolder("storage");
+        long noteId = database.addNote("foo", 1, 2, 3);
+        String uuid = database.getNoteUuid(noteId);
+        // Make sure the deletion is newer than the insertion
+        database.logChange(ChangeLog.TYPE_NOTE, uuid, ChangeLog.OPERATION_INSERT, 1000);
+
+        ByteArrayOutputStream insertStream = new ByteArrayOutputStream();
+        long sequence = Delta.write(database, storageDir, insertStream, 0);
+
+        database.removeNote(noteId);
+        ByteArrayOutputStream deleteStream = new ByteArrayOutputStream();
+        Delta.write(database, storageDir, deleteStream, sequence);
+
+        switchToOtherDevice();
+        Delta.read(database, storageDir, new ByteArrayInputStream(insertStream.toByteArray()));
+        Assert.assertNotNull(database.getNoteIdByUuid(uuid));
+
+        // Act
+        int appliedChanges = Delta.read(database, storageDir, new ByteArrayInputStream(deleteStream.toByteArray()));
+
+        // Assert
+        Assert.assertEquals(1, appliedChanges);
+        Assert.assertNull(database.getNoteIdByUuid(uuid));
+        Assert.assertEquals(0, database.getNoteCount());
+    }
+
+    @Test
+    public void testRead_olderChange_ignored() throws Exception {
+        // Arrange
+        File storageDir = temporaryFolder.newFolder("storage");
+        long noteId = database.addNote("old", 1, 2, 3);
+        String uuid = database.getNoteUuid(noteId);
+        database.logChange(ChangeLog.TYPE_NOTE, uuid, ChangeLog.OPERATION_INSERT, 1000);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Delta.write(database, storageDir, outputStream, 0);
+
+        database.updateNoteDescription(noteId, "new");
+
+        // Act
+        Delta.read(database, storageDir, new ByteArrayInputStream(outputStream.toByteArray()));
+
+        // Assert
+        Assert.assertEquals("new", database.getNote("" + noteId).getDescription());
+        Assert.assertEquals(1, database.getNoteCount());
+    }
+
+    @Test
+    public void testRead_categoriesOfOtherDevice_notOverwritten() throws Exception {
+        // Arrange
+        File storageDir = temporaryFolder.newFolder("storage");
+        long categoryId = database.addCategory("#111111", "From first device");
+        long noteId = database.addNote("foo", 1, 2, categoryId);
+        String uuid = database.getNoteUuid(noteId);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Delta.write(database, storageDir, outputStream, 0);
+
+        switchToOtherDevice();
+        long otherCategoryId = database.addCategory("#222222", "From second device");
+
+        // Act
+        Delta.read(database, storageDir, new ByteArrayInputStream(outputStream.toByteArray()));
+
+        // Assert
+        Assert.assertEquals("From second device", database.getCategory("" + otherCategoryId).getName());
+        Note note = database.getNote("" + database.getNoteIdByUuid(uuid));
+        Assert.assertNotEquals(otherCategoryId, note.getCategory().getId());
+        Assert.assertEquals("From first device", note.getCategory().getName());
+    }
+
+    @Test
+    public void testRead_olderCategoryChange_ignored() throws Exception {
+        // Arrange
+        File storageDir = temporaryFolder.newFolder("storage");
+        database.updateCategory(3, "Old name", "#123456");
+        String uuid = database.getCategoryUuid(3);
+        database.logChange(ChangeLog.TYPE_CATEGORY, uuid, ChangeLog.OPERATION_UPDATE, 1000);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Delta.write(database, storageDir, outputStream, 0);
+
+        database.updateCategory(3, "New name", "#123456");
+
+        // Act
+        Delta.read(database, storageDir, new ByteArrayInputStream(outputStream.toByteArray()));
+
+        // Assert
+        Assert.assertEquals("New name", database.getCategory("3").getName());
+    }
+
+    @Test
+    public void testRead_noDelta() throws Exception {
+        // Arrange
+        database.addNote("foo", 1, 2, 3);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Backup.write(database, temporaryFolder.getRoot(), outputStream);
+
+        // Act
+        try {
+            Delta.read(database, temporaryFolder.getRoot(), new ByteArrayInputStream(outputStream.toByteArray()));
+            Assert.fail("Backup should not be readable as delta");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // Assert
+        Assert.assertEquals(1, database.getNoteCount());
+    }
+
+    /**
+     * Replaces the database by a new and empty one, just like on another device.
+     */
+    private void switchToOtherDevice() {
+        Context context = ApplicationProvider.getApplicationContext();
+        database.close();
+        context.deleteDatabase("geonotes");
+        database = new Database(context);
+    }
+
+    private File writeFile(File dir, String name, byte[] content) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+}
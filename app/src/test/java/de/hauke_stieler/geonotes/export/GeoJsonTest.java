@@ -2,6 +2,8 @@ package de.hauke_stieler.geonotes.export;
 
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -204,4 +206,20 @@ public class GeoJsonTest {
         // Assert
         assertEquals(expectedResult, actualResult);
     }
+
+    @Test
+    public void testWrite_sameAsToGeoJson() throws IOException {
+        // Arrange
+        List<Note> notes = new ArrayList<>();
+        notes.add(new Note(1, "foo <b>&</b> 'bar'", 1.23f, 4.56f, "2021-03-01 12:34:56", new Category(1, "#abc123", "One")));
+        notes.add(new Note(2, "bar", 2.34f, 5.67f, "2010-12-21 01:23:45", new Category(42, "#aabbcc", "Fourty-Two")));
+        StringWriter writer = new StringWriter();
+
+        // Act
+        GeoJson.write(notes.iterator(), writer);
+
+        // Assert
+        assertEquals(GeoJson.toGeoJson(notes), writer.toString());
+        assertEquals(true, writer.toString().contains("\"foo \\u003cb\\u003e\\u0026\\u003c/b\\u003e \\u0027bar\\u0027\""));
+    }
 }
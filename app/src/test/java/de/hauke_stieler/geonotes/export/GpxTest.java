@@ -30,4 +30,42 @@ public class GpxTest {
                 "  </wpt>\n" +
                 "</gpx>\n", gpxString);
     }
+
+    @Test
+    public void testGpxExport_noNotes() {
+        // Act
+        String gpxString = Gpx.toGpx(new ArrayList<>());
+
+        // Assert
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+                "<gpx version=\"1.1\"/>\n", gpxString);
+    }
+
+    @Test
+    public void testGpxExport_multipleNotesWithSpecialCharacters() {
+        // Arrange
+        ArrayList<Note> notes = new ArrayList<>();
+        notes.add(new Note(123, "<foo> & \"bar\"\nbaz", 1.23, 2.34, "2022-01-30 12:34:56", new Category(11, "#abc123", "Foo")));
+        notes.add(new Note(234, "", 3.45, 4.56, "2022-01-31 01:02:03", new Category(12, "#abc123", "A&B")));
+
+        // Act
+        String gpxString = Gpx.toGpx(notes);
+
+        // Assert
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+                "<gpx version=\"1.1\">\n" +
+                "  <wpt lat=\"1.23\" lon=\"2.34\">\n" +
+                "    <time>2022-01-30T12:34:56Z</time>\n" +
+                "    <name>123</name>\n" +
+                "    <desc>&lt;foo&gt; &amp; \"bar\"\nbaz</desc>\n" +
+                "    <type>11 (Foo)</type>\n" +
+                "  </wpt>\n" +
+                "  <wpt lat=\"3.45\" lon=\"4.56\">\n" +
+                "    <time>2022-01-31T01:02:03Z</time>\n" +
+                "    <name>234</name>\n" +
+                "    <desc/>\n" +
+                "    <type>12 (A&amp;B)</type>\n" +
+                "  </wpt>\n" +
+                "</gpx>\n", gpxString);
+    }
 }
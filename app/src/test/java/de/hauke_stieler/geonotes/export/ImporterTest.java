@@ -0,0 +1,135 @@
+package de.hauke_stieler.geonotes.export;
+
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import de.hauke_stieler.geonotes.categories.Category;
+import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.notes.Note;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class ImporterTest {
+
+    private Database database;
+
+    @Before
+    public void setup() {
+        database = new Database(ApplicationProvider.getApplicationContext());
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void testImportGeoJson() throws Exception {
+        // Arrange
+        List<Note> notes = new ArrayList<>();
+        notes.add(new Note(123, "foo \"bar\"", 1.23, 4.56, "2021-03-01 12:34:56", new Category(3, "#9c27b0", "Purple")));
+        notes.add(new Note(234, "baz", 2.34, 5.67, "2010-12-21 01:23:45", new Category(42, "#4caf50", "Unknown")));
+        String geoJson = GeoJson.toGeoJson(notes);
+
+        // Act
+        int importedNotes = Importer.importNotes(database, toStream(geoJson));
+
+        // Assert
+        Assert.assertEquals(2, importedNotes);
+        List<Note> actualNotes = database.getAllNotes();
+        Assert.assertEquals(2, actualNotes.size());
+        assertNote(notes.get(0), 3, actualNotes.get(0));
+        // Unknown category ID and name -> matched by color (green)
+        assertNote(notes.get(1), 7, actualNotes.get(1));
+    }
+
+    @Test
+    public void testImportGpx() throws Exception {
+        // Arrange
+        List<Note> notes = new ArrayList<>();
+        notes.add(new Note(123, "<foo> & bar", 1.23, 4.56, "2021-03-01 12:34:56", new Category(42, "#123456", "Purple")));
+        notes.add(new Note(234, "", 2.34, 5.67, "2010-12-21 01:23:45", new Category(5, "#123456", "Something else")));
+        String gpx = Gpx.toGpx(notes);
+
+        // Act
+        int importedNotes = Importer.importNotes(database, toStream(gpx));
+
+        // Assert
+        Assert.assertEquals(2, importedNotes);
+        List<Note> actualNotes = database.getAllNotes();
+        Assert.assertEquals(2, actualNotes.size());
+        // Matched by name
+        assertNote(notes.get(0), 3, actualNotes.get(0));
+        // Unknown name and no color in GPX -> matched by ID
+        assertNote(notes.get(1), 5, actualNotes.get(1));
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually when changing the import")
+    public void testImportGeoJson_throughput() throws Exception {
+        // Arrange
+        int noteCount = 100_000;
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(outputStream, "UTF-8");
+        GeoJson.write(generateNotes(noteCount), writer);
+        writer.close();
+
+        // Act
+        long start = System.currentTimeMillis();
+        int importedNotes = Importer.importNotes(database, new ByteArrayInputStream(outputStream.toByteArray()));
+        long duration = System.currentTimeMillis() - start;
+
+        // Assert
+        Assert.assertEquals(noteCount, importedNotes);
+        Assert.assertEquals(noteCount, database.getNoteCount());
+        Assert.assertTrue("Import took " + duration + " ms", duration < 60_000);
+    }
+
+    private void assertNote(Note expected, long expectedCategoryId, Note actual) {
+        Assert.assertEquals(expected.getDescription(), actual.getDescription());
+        Assert.assertEquals(expected.getLat(), actual.getLat(), 0.0000001);
+        Assert.assertEquals(expected.getLon(), actual.getLon(), 0.0000001);
+        Assert.assertEquals(expected.getCreationDateTimeString(), actual.getCreationDateTimeString());
+        Assert.assertEquals(expectedCategoryId, actual.getCategory().getId());
+    }
+
+    private ByteArrayInputStream toStream(String content) throws Exception {
+        return new ByteArrayInputStream(content.getBytes("UTF-8"));
+    }
+
+    private Iterator<Note> generateNotes(int count) {
+        Category category = new Category(1, "#f44336", "Red");
+        return new Iterator<Note>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < count;
+            }
+
+            @Override
+            public Note next() {
+                i++;
+                return new Note(i, "note number " + i, (i % 170) - 85, (i % 360) - 180, "2022-01-30 12:34:56", category);
+            }
+        };
+    }
+}
@@ -0,0 +1,97 @@
+package de.hauke_stieler.geonotes.map;
+
+import android.os.Build;
+import android.os.Looper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.time.Duration;
+
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+import de.hauke_stieler.geonotes.database.Database;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class NoteWriteBufferTest {
+
+    private Database syncDatabase;
+    private ShadowLooper mainLooper;
+    private NoteWriteBuffer writeBuffer;
+
+    @Before
+    public void setup() {
+        syncDatabase = Mockito.mock(Database.class);
+
+        // Writes are executed right away
+        AsyncDatabase database = Mockito.mock(AsyncDatabase.class);
+        Mockito.when(database.write(any(), any())).thenAnswer(invocation -> {
+            AsyncDatabase.Operation<?> operation = invocation.getArgument(0);
+            operation.run(syncDatabase);
+            return null;
+        });
+
+        mainLooper = shadowOf(Looper.getMainLooper());
+        writeBuffer = new NoteWriteBuffer(database);
+    }
+
+    @Test
+    public void testSetDescription_oneUpdatePerNoteAfterQuietPeriod() {
+        // Act
+        writeBuffer.setDescription(1, "f");
+        writeBuffer.setDescription(1, "fo");
+        writeBuffer.setCategory(2, 5);
+        writeBuffer.setDescription(1, "foo");
+        writeBuffer.setCategory(1, 3);
+        writeBuffer.setDescription(2, "bar");
+        mainLooper.idleFor(Duration.ofMillis(NoteWriteBuffer.QUIET_PERIOD_MS - 1));
+
+        // Assert
+        Mockito.verify(syncDatabase, Mockito.never()).updateNote(anyLong(), any(), any());
+
+        mainLooper.idleFor(Duration.ofMillis(1));
+        Mockito.verify(syncDatabase).updateNote(1, "foo", 3L);
+        Mockito.verify(syncDatabase).updateNote(2, "bar", 5L);
+        Mockito.verify(syncDatabase, Mockito.times(2)).updateNote(anyLong(), any(), any());
+    }
+
+    @Test
+    public void testFlush_writesRightAwayAndCancelsDelayedWrite() {
+        // Arrange
+        writeBuffer.setDescription(1, "foo");
+
+        // Act
+        writeBuffer.flush();
+
+        // Assert
+        Mockito.verify(syncDatabase).updateNote(1, "foo", null);
+
+        mainLooper.idleFor(Duration.ofMillis(NoteWriteBuffer.QUIET_PERIOD_MS));
+        Mockito.verify(syncDatabase, Mockito.times(1)).updateNote(anyLong(), any(), any());
+    }
+
+    @Test
+    public void testDiscard_dropsPendingChangeOfNote() {
+        // Arrange
+        writeBuffer.setDescription(1, "deleted");
+        writeBuffer.setDescription(2, "kept");
+
+        // Act
+        writeBuffer.discard(1);
+        mainLooper.idleFor(Duration.ofMillis(NoteWriteBuffer.QUIET_PERIOD_MS));
+
+        // Assert
+        Mockito.verify(syncDatabase, Mockito.never()).updateNote(Mockito.eq(1L), any(), any());
+        Mockito.verify(syncDatabase).updateNote(2, "kept", null);
+    }
+}
@@ -0,0 +1,126 @@
+package de.hauke_stieler.geonotes.map;
+
+import android.os.Build;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.hauke_stieler.geonotes.categories.Category;
+import de.hauke_stieler.geonotes.common.LongSet;
+import de.hauke_stieler.geonotes.notes.Note;
+import de.hauke_stieler.geonotes.notes.NoteIconProvider;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class NotesOverlayTest {
+
+    private NotesOverlay notesOverlay;
+
+    @Before
+    public void setup() {
+        notesOverlay = new NotesOverlay(Mockito.mock(NoteIconProvider.class));
+    }
+
+    @Test
+    public void testSetNotes() {
+        // Arrange
+        Category category = new Category(1, "#f44336", "Red");
+        List<Note> notes = new ArrayList<>();
+        notes.add(new Note(5, "foo", 1, 2, "2022-01-30 12:34:56", category));
+        notes.add(new Note(2, "bar", 3, 4, "2022-01-30 12:34:56", category));
+        notes.add(new Note(9, "baz", 5, 6, "2022-01-30 12:34:56", category));
+
+        // Act
+        notesOverlay.setNotes(notes, new LongSet());
+
+        // Assert
+        Assert.assertEquals(3, notesOverlay.size());
+        Assert.assertTrue(notesOverlay.contains(2));
+        Assert.assertTrue(notesOverlay.contains(5));
+        Assert.assertTrue(notesOverlay.contains(9));
+        Assert.assertFalse(notesOverlay.contains(1));
+    }
+
+    @Test
+    public void testSetNotes_replacesOldNotes() {
+        // Arrange
+        Category category = new Category(1, "#f44336", "Red");
+        List<Note> notes = new ArrayList<>();
+        notes.add(new Note(5, "foo", 1, 2, "2022-01-30 12:34:56", category));
+        notesOverlay.putNote(3, 1, 2, 1, false);
+
+        // Act
+        notesOverlay.setNotes(notes, new LongSet());
+
+        // Assert
+        Assert.assertEquals(1, notesOverlay.size());
+        Assert.assertTrue(notesOverlay.contains(5));
+        Assert.assertFalse(notesOverlay.contains(3));
+    }
+
+    @Test
+    public void testPutNote_keepsNotesSorted() {
+        // Act
+        for (long noteId : new long[]{50, 10, 40, 20, 30, 60, 0}) {
+            notesOverlay.putNote(noteId, 1, 2, 1, false);
+        }
+
+        // Assert
+        Assert.assertEquals(7, notesOverlay.size());
+        for (long noteId = 0; noteId <= 60; noteId++) {
+            Assert.assertEquals(noteId % 10 == 0, notesOverlay.contains(noteId));
+        }
+    }
+
+    @Test
+    public void testPutNote_existingNote_updates() {
+        // Arrange
+        notesOverlay.putNote(1, 1, 2, 1, false);
+
+        // Act
+        notesOverlay.putNote(1, 3, 4, 2, true);
+
+        // Assert
+        Assert.assertEquals(1, notesOverlay.size());
+    }
+
+    @Test
+    public void testRemoveNote() {
+        // Arrange
+        notesOverlay.putNote(1, 1, 2, 1, false);
+        notesOverlay.putNote(2, 1, 2, 1, false);
+        notesOverlay.putNote(3, 1, 2, 1, false);
+
+        // Act
+        notesOverlay.removeNote(2);
+        notesOverlay.removeNote(42);
+
+        // Assert
+        Assert.assertEquals(2, notesOverlay.size());
+        Assert.assertTrue(notesOverlay.contains(1));
+        Assert.assertFalse(notesOverlay.contains(2));
+        Assert.assertTrue(notesOverlay.contains(3));
+    }
+
+    @Test
+    public void testClear() {
+        // Arrange
+        notesOverlay.putNote(1, 1, 2, 1, false);
+
+        // Act
+        notesOverlay.clear();
+
+        // Assert
+        Assert.assertEquals(0, notesOverlay.size());
+        Assert.assertFalse(notesOverlay.contains(1));
+    }
+}
@@ -1,170 +1,203 @@
 package de.hauke_stieler.geonotes.note_list;
 
 import android.content.Context;
-import android.content.res.Resources;
 import android.graphics.Typeface;
-import android.view.LayoutInflater;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.View;
-import android.view.ViewGroup;
-import android.widget.ImageView;
-import android.widget.TextView;
+
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.ArgumentCaptor;
+import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.robolectric.annotation.Config;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import de.hauke_stieler.geonotes.R;
-import de.hauke_stieler.geonotes.notes.Note;
 import de.hauke_stieler.geonotes.categories.Category;
+import de.hauke_stieler.geonotes.common.LongSet;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.notes.Note;
 import de.hauke_stieler.geonotes.notes.NoteIconProvider;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.robolectric.Shadows.shadowOf;
 
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
 public class NoteListAdapterTest {
 
     private NoteListAdapter adapter;
 
     private Context context;
     private NoteIconProvider noteIconProvider;
-    private Resources resourcesMock;
-    private ViewGroup layoutViewMock;
-    private ImageView imageViewMock;
-    private TextView textViewMock;
     private List<Note> notes;
-    private List<Note> notesWithPhotos;
+    private long[] noteIds;
+    private LongSet noteIdsWithPhotos;
     private NoteListAdapter.NoteListClickListener clickListenerMock;
-    private LayoutInflater inflater;
+    private AsyncDatabase database;
+    private RecyclerView recyclerView;
 
     @Before
     public void setup() {
-        layoutViewMock = Mockito.mock(ViewGroup.class);
-
-        inflater = Mockito.mock(LayoutInflater.class);
-        Mockito.when(inflater.inflate(R.layout.note_list_row, null)).thenReturn(layoutViewMock);
-
-        context = Mockito.mock(Context.class);
-        Mockito.when(context.getSystemService(Context.LAYOUT_INFLATER_SERVICE)).thenReturn(inflater);
-
+        context = ApplicationProvider.getApplicationContext();
         noteIconProvider = Mockito.mock(NoteIconProvider.class);
 
-        resourcesMock = Mockito.mock(Resources.class);
-        Mockito.when(context.getResources()).thenReturn(resourcesMock);
-
-        imageViewMock = Mockito.mock(ImageView.class);
-        Mockito.when(layoutViewMock.findViewById(R.id.note_list_row_icon)).thenReturn(imageViewMock);
-
-        textViewMock = Mockito.mock(TextView.class);
-        Mockito.when(layoutViewMock.findViewById(R.id.note_list_row_text_view)).thenReturn(textViewMock);
-
         notes = new ArrayList<>();
         notes.add(new Note(123L, "foo", 12, 23, "now", new Category(1, "", "")));
         notes.add(new Note(234L, "bar", 34, 45, "i don't remember", new Category(1, "", "")));
         notes.add(new Note(345L, "", 56, 56, "tomorrow", new Category(1, "", "")));
 
-        notesWithPhotos = new ArrayList<>();
-        notesWithPhotos.add(notes.get(1));
-        notesWithPhotos.add(notes.get(2));
+        noteIds = new long[]{123L, 234L, 345L};
+
+        noteIdsWithPhotos = new LongSet();
+        noteIdsWithPhotos.add(notes.get(1).getId());
+        noteIdsWithPhotos.add(notes.get(2).getId());
+
+        // Pages are loaded in the main thread, the result is delivered afterwards like in the real AsyncDatabase
+        Database syncDatabase = Mockito.mock(Database.class);
+        Mockito.when(syncDatabase.getNotes(any())).thenReturn(notes);
+        database = Mockito.mock(AsyncDatabase.class);
+        Mockito.when(database.read(any(), any())).thenAnswer(invocation -> {
+            AsyncDatabase.Operation<?> operation = invocation.getArgument(0);
+            AsyncDatabase.Callback<Object> callback = invocation.getArgument(1);
+            Object result = operation.run(syncDatabase);
+            new Handler(Looper.getMainLooper()).post(() -> callback.onResult(result));
+            return null;
+        });
 
         clickListenerMock = Mockito.mock(NoteListAdapter.NoteListClickListener.class);
 
-        adapter = new NoteListAdapter(context, noteIconProvider, notes, notesWithPhotos, clickListenerMock);
+        adapter = new NoteListAdapter(context, noteIconProvider, clickListenerMock);
+        adapter.setNotes(new NotePages(database, noteIds, noteIdsWithPhotos));
+
+        recyclerView = new RecyclerView(context);
+        recyclerView.setLayoutManager(new LinearLayoutManager(context));
+        recyclerView.setAdapter(adapter);
+        layout();
+
+        // Show the loaded page
+        shadowOf(Looper.getMainLooper()).idle();
+        layout();
     }
 
     @Test
-    public void testGetCount() {
+    public void testGetItemCount() {
         // Act
-        int count = adapter.getCount();
+        int count = adapter.getItemCount();
 
         // Assert
         Assert.assertEquals(notes.size(), count);
     }
 
     @Test
-    public void testGetItems() {
+    public void testGetItemIds() {
         // Act & Assert
         for (int i = 0; i < notes.size(); i++) {
-            Note item = adapter.getItem(i);
+            long itemId = adapter.getItemId(i);
 
-            Assert.assertEquals(notes.get(i), item);
+            Assert.assertEquals(notes.get(i).getId(), itemId);
         }
     }
 
     @Test
-    public void testGetItemIds() {
-        // Act & Assert
-        for (int i = 0; i < notes.size(); i++) {
-            long itemId = adapter.getItemId(i);
+    public void testBindingView_withoutPhoto() {
+        // Act
+        NoteListAdapter.ViewHolder row = getRow(0);
 
-            Assert.assertEquals(notes.get(i).getId(), itemId);
-        }
+        // Assert
+        Mockito.verify(noteIconProvider, Mockito.atLeastOnce()).getIcon(1, false, false);
+        Assert.assertEquals(notes.get(0).getDescription(), row.text.getText().toString());
+        Assert.assertFalse(isItalic(row));
     }
 
     @Test
-    public void testCreatingView_withoutPhoto() {
+    public void testBindingView_withPhoto() {
         // Act
-        View view = adapter.getView(0, null, null);
+        NoteListAdapter.ViewHolder row = getRow(1);
 
         // Assert
-        Assert.assertEquals(layoutViewMock, view);
-        Mockito.verify(imageViewMock).setImageDrawable(any());
-        Mockito.verifyNoMoreInteractions(imageViewMock);
-        Mockito.verify(textViewMock).setText(notes.get(0).getDescription());
-        Mockito.verify(textViewMock).setOnClickListener(any());
-        Mockito.verifyNoMoreInteractions(textViewMock);
+        Mockito.verify(noteIconProvider, Mockito.atLeastOnce()).getIcon(1, false, true);
+        Assert.assertEquals(notes.get(1).getDescription(), row.text.getText().toString());
+        Assert.assertFalse(isItalic(row));
     }
 
     @Test
-    public void testCreatingView_withPhoto() {
+    public void testBindingView_withPhotoOnly() {
         // Act
-        View view = adapter.getView(1, null, null);
+        NoteListAdapter.ViewHolder row = getRow(2);
 
         // Assert
-        Assert.assertEquals(layoutViewMock, view);
-        Mockito.verify(imageViewMock).setImageDrawable(any());
-        Mockito.verifyNoMoreInteractions(imageViewMock);
-        Mockito.verify(textViewMock).setText(notes.get(1).getDescription());
-        Mockito.verify(textViewMock).setOnClickListener(any());
-        Mockito.verifyNoMoreInteractions(textViewMock);
+        Assert.assertEquals("(only photo)", row.text.getText().toString());
+        Assert.assertTrue(isItalic(row));
+        Assert.assertEquals(ContextCompat.getColor(context, R.color.grey), row.text.getCurrentTextColor());
     }
 
     @Test
-    public void testCreatingView_withPhotoOnly() {
+    public void testBindingView_reusedRow_resetsStyle() {
         // Arrange
-        int colorCode = 123;
-        Mockito.when(resourcesMock.getColor(R.color.grey)).thenReturn(colorCode);
+        NoteListAdapter.ViewHolder row = getRow(2);
 
         // Act
-        View view = adapter.getView(2, null, null);
+        adapter.onBindViewHolder(row, 0);
 
         // Assert
-        Assert.assertEquals(layoutViewMock, view);
-        Mockito.verify(imageViewMock).setImageDrawable(any());
-        Mockito.verifyNoMoreInteractions(imageViewMock);
-        Mockito.verify(textViewMock).setText("(only photo)");
-        Mockito.verify(textViewMock).setTypeface(null, Typeface.ITALIC);
-        Mockito.verify(textViewMock).setTextColor(colorCode);
-        Mockito.verify(textViewMock).setOnClickListener(any());
-        Mockito.verifyNoMoreInteractions(textViewMock);
+        Assert.assertEquals(notes.get(0).getDescription(), row.text.getText().toString());
+        Assert.assertFalse(isItalic(row));
+        Assert.assertEquals(row.defaultTextColors.getDefaultColor(), row.text.getCurrentTextColor());
     }
 
     @Test
-    public void testClickOnTextView() {
+    public void testBindingView_pageNotLoaded() {
         // Arrange
-        int noteIndex = 1;
-        adapter.getView(noteIndex, null, null);
+        AsyncDatabase loadingDatabase = Mockito.mock(AsyncDatabase.class);
+        adapter.setNotes(new NotePages(loadingDatabase, noteIds, noteIdsWithPhotos));
+        layout();
 
-        ArgumentCaptor<View.OnClickListener> clickListenerArgumentCaptor = ArgumentCaptor.forClass(View.OnClickListener.class);
-        Mockito.verify(textViewMock).setOnClickListener(clickListenerArgumentCaptor.capture());
+        // Act
+        NoteListAdapter.ViewHolder row = getRow(0);
+
+        // Assert
+        Assert.assertEquals("", row.text.getText().toString());
+        Assert.assertNull(row.icon.getDrawable());
+        Mockito.verify(loadingDatabase).read(any(), any());
+    }
+
+    @Test
+    public void testClickOnRow() {
+        // Arrange
+        int noteIndex = 1;
+        View rowView = getRow(noteIndex).itemView;
 
         // Act
-        clickListenerArgumentCaptor.getValue().onClick(textViewMock); // simulate the click by manually executing event listener
+        rowView.performClick();
 
         // Assert
         Mockito.verify(clickListenerMock).onClick(notes.get(noteIndex).getId());
     }
+
+    private void layout() {
+        recyclerView.measure(View.MeasureSpec.makeMeasureSpec(1000, View.MeasureSpec.EXACTLY), View.MeasureSpec.makeMeasureSpec(2000, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, 1000, 2000);
+    }
+
+    private NoteListAdapter.ViewHolder getRow(int position) {
+        return (NoteListAdapter.ViewHolder) recyclerView.findViewHolderForAdapterPosition(position);
+    }
+
+    private boolean isItalic(NoteListAdapter.ViewHolder row) {
+        Typeface typeface = row.text.getTypeface();
+        return typeface != null && typeface.isItalic();
+    }
 }
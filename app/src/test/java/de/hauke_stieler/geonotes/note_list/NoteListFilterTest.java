@@ -0,0 +1,203 @@
+package de.hauke_stieler.geonotes.note_list;
+
+import android.os.Build;
+import android.os.Looper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.robolectric.annotation.Config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.hauke_stieler.geonotes.categories.Category;
+import de.hauke_stieler.geonotes.common.LongSet;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.notes.Note;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class NoteListFilterTest {
+
+    private Database syncDatabase;
+    private AsyncDatabase database;
+    // Callbacks of all reads that haven't been finished yet
+    private List<Runnable> pendingReads;
+    private List<long[]> results;
+    private NoteListFilter filter;
+
+    @Before
+    public void setup() {
+        Category category = new Category(1, "#f44336", "Red");
+        List<Note> notes = new ArrayList<>();
+        notes.add(new Note(1, "Bäckerei", 1, 2, "2022-01-30 12:34:56", category));
+        notes.add(new Note(2, "Bank", 1, 2, "2022-01-30 12:34:56", category));
+        notes.add(new Note(3, "Bus stop", 1, 2, "2022-01-30 12:34:56", category));
+
+        syncDatabase = Mockito.mock(Database.class);
+        Mockito.when(syncDatabase.getNoteIds(any(), any())).thenReturn(new long[]{1, 2, 3});
+        Mockito.when(syncDatabase.getNoteIds(eq("ba"), isNull())).thenReturn(new long[]{1, 2});
+        Mockito.when(syncDatabase.getNoteIds(eq("ban"), isNull())).thenReturn(new long[]{2});
+        Mockito.when(syncDatabase.getNotes(any())).thenAnswer(invocation -> {
+            long[] noteIds = invocation.getArgument(0);
+            List<Note> result = new ArrayList<>();
+            for (long noteId : noteIds) {
+                result.add(notes.get((int) noteId - 1));
+            }
+            return result;
+        });
+        Mockito.when(syncDatabase.getNoteIdsWithPhotos()).thenReturn(new LongSet());
+
+        pendingReads = new ArrayList<>();
+        database = Mockito.mock(AsyncDatabase.class);
+        Mockito.when(database.read(any(), any())).thenAnswer(invocation -> {
+            AsyncDatabase.Operation<?> operation = invocation.getArgument(0);
+            AsyncDatabase.Callback<Object> callback = invocation.getArgument(1);
+            pendingReads.add(() -> callback.onResult(operation.run(syncDatabase)));
+            return null;
+        });
+
+        results = new ArrayList<>();
+        filter = new NoteListFilter(database, (noteIds, noteIdsWithPhotos) -> results.add(noteIds));
+    }
+
+    @Test
+    public void testReload_queriesRightAway() {
+        // Act
+        filter.reload();
+        finishReads();
+
+        // Assert
+        Assert.assertEquals(1, results.size());
+        Assert.assertArrayEquals(new long[]{1, 2, 3}, results.get(0));
+    }
+
+    @Test
+    public void testSetFilter_queriesAfterDelay() {
+        // Arrange
+        filter.reload();
+        finishReads();
+        Mockito.clearInvocations(syncDatabase);
+
+        // Act
+        filter.setFilter("b", null);
+        filter.setFilter("ba", null);
+        finishReads();
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(NoteListFilter.QUERY_DELAY_MILLIS));
+        finishReads();
+
+        // Assert
+        Mockito.verify(syncDatabase, Mockito.never()).getNoteIds(eq("b"), any());
+        Mockito.verify(syncDatabase, Mockito.times(1)).getNoteIds(eq("ba"), isNull());
+        Assert.assertArrayEquals(new long[]{1, 2}, results.get(results.size() - 1));
+    }
+
+    @Test
+    public void testSetFilter_extendedText_refinesWithoutQuery() {
+        // Arrange
+        filter.reload();
+        finishReads();
+
+        // Act
+        filter.setFilter("ba", null);
+
+        // Assert
+        Assert.assertTrue(pendingReads.isEmpty());
+        Assert.assertEquals(2, results.size());
+        // Accents are ignored, so "Bäckerei" matches as well
+        Assert.assertArrayEquals(new long[]{1, 2}, results.get(1));
+    }
+
+    @Test
+    public void testSetFilter_otherText_noRefinement() {
+        // Arrange
+        filter.setFilter("ban", null);
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(NoteListFilter.QUERY_DELAY_MILLIS));
+        finishReads();
+
+        // Act
+        filter.setFilter("bus", null);
+
+        // Assert
+        Assert.assertEquals(1, results.size());
+    }
+
+    @Test
+    public void testSetFilter_otherCategory_noRefinement() {
+        // Arrange
+        filter.reload();
+        finishReads();
+
+        // Act
+        filter.setFilter("ba", 2L);
+
+        // Assert
+        Assert.assertEquals(1, results.size());
+    }
+
+    @Test
+    public void testSetFilter_discardsOutdatedResult() {
+        // Arrange
+        filter.setFilter("ba", null);
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(NoteListFilter.QUERY_DELAY_MILLIS));
+
+        // Act
+        filter.setFilter("bus", null);
+        finishReads();
+
+        // Assert
+        Assert.assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void testSetFilter_loadsPhotosOnlyOnce() {
+        // Arrange
+        filter.reload();
+        finishReads();
+
+        // Act
+        filter.setFilter("bus", null);
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(NoteListFilter.QUERY_DELAY_MILLIS));
+        finishReads();
+
+        // Assert
+        Mockito.verify(syncDatabase, Mockito.times(1)).getNoteIdsWithPhotos();
+        Mockito.verify(syncDatabase, Mockito.times(1)).getNoteIds(anyString(), isNull());
+    }
+
+    @Test
+    public void testClose() {
+        // Arrange
+        filter.setFilter("ba", null);
+
+        // Act
+        filter.close();
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(NoteListFilter.QUERY_DELAY_MILLIS));
+        finishReads();
+
+        // Assert
+        Assert.assertTrue(pendingReads.isEmpty());
+        Assert.assertTrue(results.isEmpty());
+    }
+
+    private void finishReads() {
+        List<Runnable> reads = new ArrayList<>(pendingReads);
+        pendingReads.clear();
+        for (Runnable read : reads) {
+            read.run();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package de.hauke_stieler.geonotes.note_list;
+
+import android.os.Build;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.hauke_stieler.geonotes.categories.Category;
+import de.hauke_stieler.geonotes.common.LongSet;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+import de.hauke_stieler.geonotes.database.Database;
+import de.hauke_stieler.geonotes.notes.Note;
+
+import static org.mockito.ArgumentMatchers.any;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class NotePagesTest {
+
+    private static final int NOTE_COUNT = 1000;
+
+    private Database syncDatabase;
+    private AsyncDatabase database;
+    // Callbacks of all reads that haven't been finished yet
+    private List<Runnable> pendingReads;
+    private List<Integer> loadedPositions;
+    private NotePages notePages;
+
+    @Before
+    public void setup() {
+        Category category = new Category(1, "#f44336", "Red");
+
+        // Notes with the IDs 1 to NOTE_COUNT, where every 10th note has been deleted
+        syncDatabase = Mockito.mock(Database.class);
+        Mockito.when(syncDatabase.getNotes(any())).thenAnswer(invocation -> {
+            long[] noteIds = invocation.getArgument(0);
+            List<Note> notes = new ArrayList<>();
+            for (long noteId : noteIds) {
+                if (noteId % 10 != 0) {
+                    notes.add(new Note(noteId, "note " + noteId, 1, 2, "2022-01-30 12:34:56", category));
+                }
+            }
+            return notes;
+        });
+
+        pendingReads = new ArrayList<>();
+        database = Mockito.mock(AsyncDatabase.class);
+        Mockito.when(database.read(any(), any())).thenAnswer(invocation -> {
+            AsyncDatabase.Operation<?> operation = invocation.getArgument(0);
+            AsyncDatabase.Callback<Object> callback = invocation.getArgument(1);
+            pendingReads.add(() -> callback.onResult(operation.run(syncDatabase)));
+            return null;
+        });
+
+        long[] noteIds = new long[NOTE_COUNT];
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            noteIds[i] = i + 1;
+        }
+
+        loadedPositions = new ArrayList<>();
+        notePages = new NotePages(database, noteIds, new LongSet());
+        notePages.setPageLoadedListener((firstPosition, noteCount) -> loadedPositions.add(firstPosition));
+    }
+
+    @Test
+    public void testGetNote_loadsPage() {
+        // Act
+        Note noteBeforeLoading = notePages.getNote(5);
+        finishReads();
+        Note noteAfterLoading = notePages.getNote(5);
+
+        // Assert
+        Assert.assertNull(noteBeforeLoading);
+        Assert.assertEquals(6, noteAfterLoading.getId());
+        Assert.assertEquals(1, loadedPositions.size());
+        Assert.assertEquals(0, (int) loadedPositions.get(0));
+        Mockito.verify(syncDatabase, Mockito.times(1)).getNotes(any());
+    }
+
+    @Test
+    public void testGetNote_loadsPageOnlyOnce() {
+        // Act
+        for (int i = 0; i < 20; i++) {
+            notePages.getNote(i);
+        }
+        finishReads();
+        for (int i = 0; i < 20; i++) {
+            notePages.getNote(i);
+        }
+
+        // Assert
+        Mockito.verify(database, Mockito.times(1)).read(any(), any());
+    }
+
+    @Test
+    public void testGetNote_deletedNote() {
+        // Arrange
+        notePages.getNote(0);
+        finishReads();
+
+        // Act & Assert
+        Assert.assertNull(notePages.getNote(9)); // ID 10
+        Assert.assertEquals(9, notePages.getNote(8).getId());
+        Assert.assertEquals(11, notePages.getNote(10).getId());
+    }
+
+    @Test
+    public void testGetNote_endOfPage_loadsNextPage() {
+        // Act
+        notePages.getNote(NotePages.PAGE_SIZE - 1);
+        finishReads();
+
+        // Assert
+        Assert.assertEquals(2, loadedPositions.size());
+        Assert.assertEquals(NotePages.PAGE_SIZE + 1, notePages.getNote(NotePages.PAGE_SIZE).getId());
+    }
+
+    @Test
+    public void testGetNote_dropsPagesFarAway() {
+        // Arrange
+        notePages.getNote(0);
+        finishReads();
+
+        // Act
+        for (int position = 0; position < NOTE_COUNT; position += NotePages.PAGE_SIZE) {
+            notePages.getNote(position);
+            finishReads();
+        }
+
+        // Assert
+        Assert.assertNull(notePages.getNote(0));
+        Assert.assertNotNull(notePages.getNote(NOTE_COUNT - 1));
+    }
+
+    @Test
+    public void testClose() {
+        // Arrange
+        notePages.getNote(0);
+
+        // Act
+        notePages.close();
+        finishReads();
+
+        // Assert
+        Assert.assertTrue(loadedPositions.isEmpty());
+        Assert.assertNull(notePages.getNote(0));
+        Assert.assertTrue(pendingReads.isEmpty());
+    }
+
+    private void finishReads() {
+        List<Runnable> reads = new ArrayList<>(pendingReads);
+        pendingReads.clear();
+        for (Runnable read : reads) {
+            read.run();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package de.hauke_stieler.geonotes.notes;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.hauke_stieler.geonotes.categories.Category;
+
+public class NoteCacheTest {
+
+    private Category red;
+    private Category green;
+    private NoteCache cache;
+
+    @Before
+    public void setup() {
+        red = new Category(1, "#f44336", "Red");
+        green = new Category(2, "#4caf50", "Green");
+
+        List<Note> notes = new ArrayList<>();
+        notes.add(new Note(1, "foo", 1, 2, "2022-01-30 12:34:56", red));
+        notes.add(new Note(3, "bar", 3, 4, "2022-01-30 12:34:57", green));
+        notes.add(new Note(5, "baz", 5, 6, "2022-01-30 12:34:58", red));
+
+        cache = new NoteCache();
+        cache.load(notes.iterator(), Arrays.asList(red, green));
+    }
+
+    @Test
+    public void testLoad() {
+        // Act
+        Note note = cache.getNote(3);
+
+        // Assert
+        Assert.assertTrue(cache.isLoaded());
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals("bar", note.getDescription());
+        Assert.assertEquals(3, note.getLat(), 0);
+        Assert.assertEquals(4, note.getLon(), 0);
+        Assert.assertEquals("2022-01-30 12:34:57", note.getCreationDateTimeString());
+        Assert.assertSame(green, note.getCategory());
+        Assert.assertNull(cache.getNote(2));
+    }
+
+    @Test
+    public void testPut_newNote() {
+        // Act
+        cache.put(2, "new", 7, 8, 1643583600000L, 2);
+
+        // Assert
+        Assert.assertEquals(4, cache.size());
+        Assert.assertEquals("new", cache.getNote(2).getDescription());
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 5L), getIds(cache.getAllNotes()));
+    }
+
+    @Test
+    public void testPut_unknownCategory() {
+        // Act
+        cache.put(2, "new", 7, 8, 1643583600000L, 42);
+
+        // Assert
+        Category category = cache.getNote(2).getCategory();
+        Assert.assertNotNull(category);
+        Assert.assertEquals(42, category.getId());
+        Assert.assertEquals("#bdbdbd", category.getColorString());
+    }
+
+    @Test
+    public void testPut_existingNote() {
+        // Act
+        cache.put(3, "changed", 7, 8, 1643583600000L, 1);
+
+        // Assert
+        Assert.assertEquals(3, cache.size());
+        Note note = cache.getNote(3);
+        Assert.assertEquals("changed", note.getDescription());
+        Assert.assertEquals(7, note.getLat(), 0);
+        Assert.assertSame(red, note.getCategory());
+    }
+
+    @Test
+    public void testPut_manyNotes() {
+        // Act
+        for (long id = 100; id < 1100; id++) {
+            cache.put(id, "note " + id, id, id, 1643583600000L, 1);
+        }
+
+        // Assert
+        Assert.assertEquals(1003, cache.size());
+        Assert.assertEquals("note 567", cache.getNote(567).getDescription());
+    }
+
+    @Test
+    public void testUpdate() {
+        // Act
+        boolean updated = cache.update(1, null, 2L, 10.0, 20.0);
+        boolean updatedMissing = cache.update(2, "foo", null, null, null);
+
+        // Assert
+        Assert.assertTrue(updated);
+        Assert.assertFalse(updatedMissing);
+        Note note = cache.getNote(1);
+        Assert.assertEquals("foo", note.getDescription());
+        Assert.assertSame(green, note.getCategory());
+        Assert.assertEquals(10, note.getLat(), 0);
+        Assert.assertEquals(20, note.getLon(), 0);
+        Assert.assertNull(cache.getNote(2));
+    }
+
+    @Test
+    public void testRemove() {
+        // Act
+        cache.remove(3);
+        cache.remove(4);
+
+        // Assert
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.getNote(3));
+        Assert.assertEquals(Arrays.asList(1L, 5L), getIds(cache.getAllNotes()));
+    }
+
+    @Test
+    public void testPutCategory() {
+        // Arrange
+        Category changedRed = new Category(1, "#000000", "Black");
+
+        // Act
+        cache.putCategory(changedRed);
+
+        // Assert
+        Assert.assertSame(changedRed, cache.getNote(1).getCategory());
+        Assert.assertSame(green, cache.getNote(3).getCategory());
+    }
+
+    @Test
+    public void testGetNotes() {
+        // Act
+        List<Note> notes = cache.getNotes(new long[]{5, 2, 1});
+
+        // Assert
+        Assert.assertEquals(Arrays.asList(5L, 1L), getIds(notes));
+    }
+
+    @Test
+    public void testGetNotesAfter() {
+        // Act & Assert
+        Assert.assertEquals(Arrays.asList(1L, 3L), getIds(cache.getNotesAfter(-1, 2)));
+        Assert.assertEquals(Arrays.asList(3L, 5L), getIds(cache.getNotesAfter(1, 2)));
+        Assert.assertEquals(Arrays.asList(3L, 5L), getIds(cache.getNotesAfter(2, 10)));
+        Assert.assertTrue(cache.getNotesAfter(5, 10).isEmpty());
+    }
+
+    @Test
+    public void testIterator() {
+        // Act
+        List<Note> notes = new ArrayList<>();
+        NoteIterator iterator = new NoteIterator(cache::getNotesAfter, 2);
+        while (iterator.hasNext()) {
+            notes.add(iterator.next());
+        }
+
+        // Assert
+        Assert.assertEquals(Arrays.asList(1L, 3L, 5L), getIds(notes));
+    }
+
+    @Test
+    public void testClearAndInvalidate() {
+        // Act & Assert
+        cache.clear();
+        Assert.assertTrue(cache.isLoaded());
+        Assert.assertEquals(0, cache.size());
+
+        cache.put(1, "foo", 1, 2, 1643546096000L, 1);
+        cache.invalidate();
+        Assert.assertFalse(cache.isLoaded());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    private List<Long> getIds(List<Note> notes) {
+        List<Long> ids = new ArrayList<>();
+        for (Note note : notes) {
+            ids.add(note.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,140 @@
+package de.hauke_stieler.geonotes.notes;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+
+import androidx.core.content.ContextCompat;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.hauke_stieler.geonotes.R;
+import de.hauke_stieler.geonotes.categories.Category;
+import de.hauke_stieler.geonotes.database.AsyncDatabase;
+import de.hauke_stieler.geonotes.database.Database;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class NoteIconProviderTest {
+
+    private Context context;
+    private Database database;
+    private AsyncDatabase asyncDatabase;
+    private Database.CategoryChangedListener categoryChangedListener;
+    private List<Category> categories;
+    private NoteIconProvider noteIconProvider;
+
+    @Before
+    public void setup() {
+        context = ApplicationProvider.getApplicationContext();
+
+        categories = new ArrayList<>();
+        categories.add(new Category(1, "#f44336", "Red"));
+        categories.add(new Category(2, "#4caf50", "Green"));
+
+        database = Mockito.mock(Database.class);
+        asyncDatabase = Mockito.mock(AsyncDatabase.class);
+
+        noteIconProvider = new NoteIconProvider(context, database, asyncDatabase);
+
+        ArgumentCaptor<Database.CategoryChangedListener> listenerCaptor = ArgumentCaptor.forClass(Database.CategoryChangedListener.class);
+        Mockito.verify(database).addCategoryChangedListener(listenerCaptor.capture());
+        categoryChangedListener = listenerCaptor.getValue();
+
+        ArgumentCaptor<AsyncDatabase.Callback<List<Category>>> callbackCaptor = ArgumentCaptor.forClass(AsyncDatabase.Callback.class);
+        Mockito.verify(asyncDatabase).getAllCategories(callbackCaptor.capture());
+        callbackCaptor.getValue().onResult(categories);
+    }
+
+    @Test
+    public void testConstructor_noSynchronousDatabaseAccess() {
+        // Assert
+        Mockito.verify(database, Mockito.never()).getAllCategories();
+    }
+
+    @Test
+    public void testGetColor() {
+        // Act & Assert
+        Assert.assertEquals(Color.parseColor("#f44336"), noteIconProvider.getColor(1));
+        Assert.assertEquals(Color.parseColor("#4caf50"), noteIconProvider.getColor(2));
+        Assert.assertEquals(ContextCompat.getColor(context, R.color.grey), noteIconProvider.getColor(42));
+    }
+
+    @Test
+    public void testGetIcon_beforeColorsLoaded_rendersAgain() {
+        // Arrange
+        NoteIconProvider provider = new NoteIconProvider(context, database, asyncDatabase);
+        ArgumentCaptor<AsyncDatabase.Callback<List<Category>>> callbackCaptor = ArgumentCaptor.forClass(AsyncDatabase.Callback.class);
+        Mockito.verify(asyncDatabase, Mockito.times(2)).getAllCategories(callbackCaptor.capture());
+        Drawable greyIcon = provider.getIcon(1, false, false);
+        Assert.assertEquals(ContextCompat.getColor(context, R.color.grey), provider.getColor(1));
+
+        // Act
+        callbackCaptor.getValue().onResult(categories);
+
+        // Assert
+        Assert.assertEquals(Color.parseColor("#f44336"), provider.getColor(1));
+        Assert.assertNotSame(greyIcon, provider.getIcon(1, false, false));
+    }
+
+    @Test
+    public void testGetIcon_cached() {
+        // Act
+        Drawable icon = noteIconProvider.getIcon(1, false, false);
+
+        // Assert
+        Assert.assertNotNull(icon);
+        Assert.assertSame(icon, noteIconProvider.getIcon(1, false, false));
+        Assert.assertNotSame(icon, noteIconProvider.getIcon(1, true, false));
+        Assert.assertNotSame(icon, noteIconProvider.getIcon(1, false, true));
+        Assert.assertNotSame(icon, noteIconProvider.getIcon(2, false, false));
+    }
+
+    @Test
+    public void testGetIcon_unknownCategory() {
+        // Act
+        Drawable icon = noteIconProvider.getIcon(42, true, true);
+
+        // Assert
+        Assert.assertNotNull(icon);
+    }
+
+    @Test
+    public void testCategoryChanged_color_rendersAgain() {
+        // Arrange
+        Drawable redIcon = noteIconProvider.getIcon(1, false, false);
+        Drawable greenIcon = noteIconProvider.getIcon(2, false, false);
+
+        // Act
+        categoryChangedListener.onCategoryChanged(new Category(1, "#123456", "Red"));
+
+        // Assert
+        Assert.assertEquals(Color.parseColor("#123456"), noteIconProvider.getColor(1));
+        Assert.assertNotSame(redIcon, noteIconProvider.getIcon(1, false, false));
+        Assert.assertSame(greenIcon, noteIconProvider.getIcon(2, false, false));
+    }
+
+    @Test
+    public void testCategoryChanged_nameOnly_keepsIcon() {
+        // Arrange
+        Drawable icon = noteIconProvider.getIcon(1, false, false);
+
+        // Act
+        categoryChangedListener.onCategoryChanged(new Category(1, "#f44336", "Something"));
+
+        // Assert
+        Assert.assertSame(icon, noteIconProvider.getIcon(1, false, false));
+    }
+}
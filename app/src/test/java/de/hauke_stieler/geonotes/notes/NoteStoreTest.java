@@ -0,0 +1,446 @@
+package de.hauke_stieler.geonotes.notes;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.osmdroid.util.GeoPoint;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import de.hauke_stieler.geonotes.categories.CategoryStore;
+import de.hauke_stieler.geonotes.database.ChangeLog;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class NoteStoreTest {
+
+    private SQLiteDatabase db;
+    private ChangeLog changeLog;
+    private NoteStore noteStore;
+    private int queryCount;
+
+    @Before
+    public void setup() {
+        // Every query creates exactly one cursor, so counting the created cursors counts the queries.
+        db = SQLiteDatabase.create((database, masterQuery, editTable, query) -> {
+            queryCount++;
+            return new SQLiteCursor(masterQuery, editTable, query);
+        });
+
+        changeLog = new ChangeLog();
+        changeLog.onCreate(db);
+
+        CategoryStore categoryStore = new CategoryStore(changeLog);
+        categoryStore.onCreate(db);
+
+        noteStore = new NoteStore(categoryStore, changeLog);
+        noteStore.onCreate(db);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void testGetAllNotes_queryCountIndependentOfNoteCount() {
+        // Arrange
+        addNotes(10);
+        queryCount = 0;
+        noteStore.getAllNotes(db);
+        int queryCountForFewNotes = queryCount;
+
+        addNotes(2000);
+        queryCount = 0;
+
+        // Act
+        List<Note> notes = noteStore.getAllNotes(db);
+
+        // Assert
+        Assert.assertEquals(2010, notes.size());
+        Assert.assertEquals(queryCountForFewNotes, queryCount);
+    }
+
+    @Test
+    public void testGetAllNotesWithFilter_queryCountIndependentOfNoteCount() {
+        // Arrange
+        addNotes(10);
+        queryCount = 0;
+        noteStore.getAllNotes(db, "note", null);
+        int queryCountForFewNotes = queryCount;
+
+        addNotes(2000);
+        queryCount = 0;
+
+        // Act
+        List<Note> notes = noteStore.getAllNotes(db, "note", null);
+
+        // Assert
+        Assert.assertEquals(2010, notes.size());
+        Assert.assertEquals(queryCountForFewNotes, queryCount);
+    }
+
+    @Test
+    public void testGetAllNotes_notesShareCategoryInstances() {
+        // Arrange
+        noteStore.addNote(db, "foo", 1.23, 4.56, 3);
+        noteStore.addNote(db, "bar", 2.34, 5.67, 3);
+        noteStore.addNote(db, "baz", 3.45, 6.78, 5);
+
+        // Act
+        List<Note> notes = noteStore.getAllNotes(db);
+
+        // Assert
+        Assert.assertSame(notes.get(0).getCategory(), notes.get(1).getCategory());
+        Assert.assertEquals(3, notes.get(0).getCategory().getId());
+        Assert.assertEquals(5, notes.get(2).getCategory().getId());
+    }
+
+    @Test
+    public void testGetAllNotesWithFilter_matchesWordPrefixes() {
+        // Arrange
+        long stationId = noteStore.addNote(db, "Bench at the train station", 1, 1, 1);
+        long benchId = noteStore.addNote(db, "Broken bench", 1, 1, 2);
+        noteStore.addNote(db, "Tree", 1, 1, 1);
+
+        // Act
+        List<Note> benches = noteStore.getAllNotes(db, "ben", null);
+        List<Note> benchesAtStation = noteStore.getAllNotes(db, "stat bench", null);
+        List<Note> benchesOfCategory = noteStore.getAllNotes(db, "bench", 2L);
+
+        // Assert
+        Assert.assertEquals(2, benches.size());
+        Assert.assertEquals(1, benchesAtStation.size());
+        Assert.assertEquals(stationId, benchesAtStation.get(0).getId());
+        Assert.assertEquals(1, benchesOfCategory.size());
+        Assert.assertEquals(benchId, benchesOfCategory.get(0).getId());
+    }
+
+    @Test
+    public void testGetAllNotesWithFilter_followsUpdatedAndRemovedNotes() {
+        // Arrange
+        long updatedId = noteStore.addNote(db, "old text", 1, 1, 1);
+        long removedId = noteStore.addNote(db, "old text", 1, 1, 1);
+
+        // Act
+        noteStore.updateDescription(db, updatedId, "new text");
+        noteStore.removeNote(db, removedId);
+
+        // Assert
+        Assert.assertTrue(noteStore.getAllNotes(db, "old", null).isEmpty());
+        List<Note> notes = noteStore.getAllNotes(db, "new", null);
+        Assert.assertEquals(1, notes.size());
+        Assert.assertEquals(updatedId, notes.get(0).getId());
+    }
+
+    @Test
+    public void testGetAllNotesWithFilter_ignoresCaseAndDiacritics() {
+        // Arrange
+        long bridgeId = noteStore.addNote(db, "Über die Brücke", 1, 1, 1);
+        long shopId = noteStore.addNote(db, "Bäckerei Müller", 1, 1, 1);
+
+        // Act
+        List<Note> bridges = noteStore.getAllNotes(db, "über brucke", null);
+        List<Note> shops = noteStore.getAllNotes(db, "muller", null);
+
+        // Assert
+        Assert.assertEquals(1, bridges.size());
+        Assert.assertEquals(bridgeId, bridges.get(0).getId());
+        Assert.assertEquals(1, shops.size());
+        Assert.assertEquals(shopId, shops.get(0).getId());
+    }
+
+    @Test
+    public void testOnUpgrade_recreatesFts4IndexWithoutDiacritics() {
+        // Arrange
+        // Full-text index of version 13 with the "simple" tokenizer
+        long shopId = noteStore.addNote(db, "Bäckerei Müller", 1, 1, 1);
+        db.execSQL("DROP TABLE " + NoteSearchIndex.FTS_TABLE_NAME + ";");
+        db.execSQL("CREATE VIRTUAL TABLE " + NoteSearchIndex.FTS_TABLE_NAME + " USING fts4(content='notes', description);");
+        db.execSQL("INSERT INTO " + NoteSearchIndex.FTS_TABLE_NAME + "(" + NoteSearchIndex.FTS_TABLE_NAME + ") VALUES ('rebuild');");
+
+        // Act
+        noteStore.onUpgrade(db, 13, 14);
+
+        // Assert
+        List<Note> shops = noteStore.getAllNotes(db, "muller", null);
+        Assert.assertEquals(1, shops.size());
+        Assert.assertEquals(shopId, shops.get(0).getId());
+
+        // Triggers still work
+        noteStore.addNote(db, "Müllerstraße", 1, 1, 1);
+        Assert.assertEquals(2, noteStore.getAllNotes(db, "muller", null).size());
+    }
+
+    @Test
+    public void testGetAllNotesWithFilter_specialCharacters() {
+        // Arrange
+        noteStore.addNote(db, "foo \"bar\" 100% (baz)", 1, 1, 1);
+
+        // Act
+        List<Note> notes = noteStore.getAllNotes(db, "\"bar\" 100% (baz", null);
+        List<Note> allNotes = noteStore.getAllNotes(db, "  ", null);
+
+        // Assert
+        Assert.assertEquals(1, notes.size());
+        Assert.assertEquals(1, allNotes.size());
+    }
+
+    @Test
+    public void testGetNoteIds_sameAsGetAllNotes() {
+        // Arrange
+        noteStore.addNote(db, "Bench at the train station", 1, 1, 1);
+        noteStore.addNote(db, "Broken bench", 1, 1, 2);
+        noteStore.addNote(db, "Tree", 1, 1, 1);
+
+        for (String textFilter : new String[]{null, "", "ben", "bench tree", "100%"}) {
+            for (Long categoryIdFilter : new Long[]{null, 1L, 2L}) {
+                // Act
+                long[] noteIds = noteStore.getNoteIds(db, textFilter, categoryIdFilter);
+
+                // Assert
+                List<Note> notes = noteStore.getAllNotes(db, textFilter, categoryIdFilter);
+                Assert.assertEquals(notes.size(), noteIds.length);
+                for (int i = 0; i < notes.size(); i++) {
+                    Assert.assertEquals(notes.get(i).getId(), noteIds[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGetNote() {
+        // Arrange
+        long id = noteStore.addNote(db, "foo", 1, 2, 1643546096000L, 3);
+
+        // Act
+        Note note = noteStore.getNote(db, "" + id);
+
+        // Assert
+        Assert.assertEquals("foo", note.getDescription());
+        Assert.assertEquals(1643546096000L, note.getCreationTime());
+        Assert.assertEquals(3, note.getCategory().getId());
+        Assert.assertNull(noteStore.getNote(db, "" + (id + 1)));
+    }
+
+    @Test
+    public void testUpdate_unchangedValues_notLogged() {
+        // Arrange
+        long id = noteStore.addNote(db, "foo", 1, 2, 3);
+        long sequence = changeLog.getLastSequence(db);
+
+        // Act
+        noteStore.update(db, id, "foo", 3L);
+        noteStore.updateCategory(db, id, 3);
+        noteStore.updateLocation(db, id, new GeoPoint(1.0, 2.0));
+
+        // Assert
+        Assert.assertEquals(sequence, changeLog.getLastSequence(db));
+    }
+
+    @Test
+    public void testUpdate_changedValue_logged() {
+        // Arrange
+        long id = noteStore.addNote(db, "foo", 1, 2, 3);
+        long sequence = changeLog.getLastSequence(db);
+
+        // Act
+        noteStore.update(db, id, "foo", 4L);
+
+        // Assert
+        Assert.assertTrue(changeLog.getLastSequence(db) > sequence);
+        Assert.assertEquals(4, noteStore.getNote(db, "" + id).getCategory().getId());
+    }
+
+    @Test
+    public void testGetNoteIdsCreatedBetween() {
+        // Arrange
+        long oldId;
+        long middleId;
+        NoteInserter inserter = noteStore.newInserter(db, 10, null);
+        try {
+            inserter.insert("before", 1, 1, 999, 1);
+            oldId = inserter.insert("old", 1, 1, 1000, 1);
+            middleId = inserter.insert("middle", 1, 1, 2000, 1);
+            inserter.insert("new", 1, 1, 3000, 1);
+        } finally {
+            inserter.close();
+        }
+
+        // Act
+        long[] noteIds = noteStore.getNoteIdsCreatedBetween(db, 1000, 3000);
+
+        // Assert
+        Assert.assertArrayEquals(new long[]{middleId, oldId}, noteIds);
+    }
+
+    @Test
+    public void testOnUpgrade_convertsCreationDatesToMillis() {
+        // Arrange
+        // Notes table of version 10 with the creation date as local date string
+        db.execSQL("DROP TABLE notes;");
+        db.execSQL("DROP TABLE " + NoteSearchIndex.FTS_TABLE_NAME + ";");
+        db.execSQL("CREATE TABLE notes(id INTEGER PRIMARY KEY, lat DOUBLE NOT NULL, lon DOUBLE NOT NULL, description VARCHAR NOT NULL, created_at VARCHAR NOT NULL, category INTEGER NOT NULL, uuid VARCHAR NOT NULL);");
+        new NoteSearchIndex().onCreate(db, "notes", "id", "description");
+        db.execSQL("INSERT INTO notes VALUES (5, 1, 2, 'Bench', '2022-01-30 12:34:56', 3, 'abc');");
+
+        // Act
+        noteStore.onUpgrade(db, 10, 11);
+
+        // Assert
+        Note note = noteStore.getNote(db, "5");
+        Assert.assertEquals("Bench", note.getDescription());
+        Assert.assertEquals(Note.parseDateTimeString("2022-01-30 12:34:56"), note.getCreationTime());
+        Assert.assertEquals("2022-01-30 12:34:56", note.getCreationDateTimeString());
+
+        // Full-text index and its triggers still work
+        noteStore.addNote(db, "Broken bench", 1, 1, 3);
+        Assert.assertEquals(2, noteStore.getAllNotes(db, "bench", null).size());
+    }
+
+    @Test
+    public void testIterateAllNotes_readsAllPages() {
+        // Arrange
+        addNotes(250);
+
+        // Act
+        int count = 0;
+        long lastId = 0;
+        NoteIterator iterator = noteStore.iterateAllNotes(db, 100);
+        while (iterator.hasNext()) {
+            Note note = iterator.next();
+            Assert.assertTrue(note.getId() > lastId);
+            Assert.assertNotNull(note.getCategory());
+            lastId = note.getId();
+            count++;
+        }
+
+        // Assert
+        Assert.assertEquals(250, count);
+    }
+
+    @Test
+    public void testIterateAllNotes_fullLastPage() {
+        // Arrange
+        addNotes(200);
+        int count = 0;
+
+        // Act
+        NoteIterator iterator = noteStore.iterateAllNotes(db, 100);
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+
+        // Assert
+        Assert.assertEquals(200, count);
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testGetNotesInBoundingBox() {
+        // Arrange
+        long insideId = noteStore.addNote(db, "inside", 53.5, 10.0, 1);
+        noteStore.addNote(db, "north", 54.5, 10.0, 1);
+        noteStore.addNote(db, "east", 53.5, 11.5, 1);
+        long otherCategoryId = noteStore.addNote(db, "inside other category", 53.6, 10.1, 2);
+
+        // Act
+        List<Note> allCategories = noteStore.getNotesInBoundingBox(db, 54, 11, 53, 9, null);
+        List<Note> singleCategory = noteStore.getNotesInBoundingBox(db, 54, 11, 53, 9, 1L);
+
+        // Assert
+        Assert.assertEquals(2, allCategories.size());
+        Assert.assertEquals(insideId, allCategories.get(0).getId());
+        Assert.assertEquals(otherCategoryId, allCategories.get(1).getId());
+        Assert.assertEquals(1, singleCategory.size());
+        Assert.assertEquals(insideId, singleCategory.get(0).getId());
+    }
+
+    @Test
+    public void testGetNotesInBoundingBox_acrossAntimeridian() {
+        // Arrange
+        long westId = noteStore.addNote(db, "west of antimeridian", 10, 179.5, 1);
+        long eastId = noteStore.addNote(db, "east of antimeridian", 10, -179.5, 1);
+        noteStore.addNote(db, "somewhere else", 10, 0, 1);
+
+        // Act
+        List<Note> notes = noteStore.getNotesInBoundingBox(db, 11, -179, 9, 179, null);
+
+        // Assert
+        Assert.assertEquals(2, notes.size());
+        Assert.assertEquals(westId, notes.get(0).getId());
+        Assert.assertEquals(eastId, notes.get(1).getId());
+    }
+
+    @Test
+    public void testGetNotesInBoundingBox_followsMovedAndRemovedNotes() {
+        // Arrange
+        long movedId = noteStore.addNote(db, "moved", 53.5, 10.0, 1);
+        long removedId = noteStore.addNote(db, "removed", 53.5, 10.0, 1);
+
+        // Act
+        noteStore.updateLocation(db, movedId, new GeoPoint(20.0, 20.0));
+        noteStore.removeNote(db, removedId);
+
+        // Assert
+        Assert.assertTrue(noteStore.getNotesInBoundingBox(db, 54, 11, 53, 9, null).isEmpty());
+        List<Note> notesAtNewLocation = noteStore.getNotesInBoundingBox(db, 21, 21, 19, 19, null);
+        Assert.assertEquals(1, notesAtNewLocation.size());
+        Assert.assertEquals(movedId, notesAtNewLocation.get(0).getId());
+    }
+
+    @Test
+    public void testCategoryFilter_usesIndex() {
+        // Arrange
+        addNotes(100);
+
+        // Act
+        String queryPlan = getQueryPlan("SELECT * FROM notes WHERE category=?", "3");
+
+        // Assert
+        Assert.assertTrue(queryPlan, queryPlan.contains("USING INDEX notes_category_index"));
+    }
+
+    @Test
+    public void testOnUpgrade_createsCategoryIndex() {
+        // Arrange
+        db.execSQL("DROP INDEX notes_category_index");
+
+        // Act
+        noteStore.onUpgrade(db, 7, 8);
+
+        // Assert
+        String queryPlan = getQueryPlan("SELECT * FROM notes WHERE category=?", "3");
+        Assert.assertTrue(queryPlan, queryPlan.contains("USING INDEX notes_category_index"));
+    }
+
+    private String getQueryPlan(String query, String... args) {
+        StringBuilder queryPlan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, args)) {
+            while (cursor.moveToNext()) {
+                queryPlan.append(cursor.getString(cursor.getColumnIndex("detail"))).append("\n");
+            }
+        }
+        return queryPlan.toString();
+    }
+
+    private void addNotes(int count) {
+        db.beginTransaction();
+        for (int i = 0; i < count; i++) {
+            noteStore.addNote(db, "note " + i, i % 90, i % 180, i % 11 + 1);
+        }
+        db.setTransactionSuccessful();
+        db.endTransaction();
+    }
+}
@@ -0,0 +1,149 @@
+package de.hauke_stieler.geonotes.photo;
+
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import de.hauke_stieler.geonotes.database.Database;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class PhotoMaintenanceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Database database;
+    private File storageDir;
+    private long now;
+
+    @Before
+    public void setup() throws IOException {
+        database = new Database(ApplicationProvider.getApplicationContext());
+        storageDir = temporaryFolder.newFolder("GeoNotes");
+        now = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(2);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void testCleanUp_deletesOrphanedFiles() throws IOException {
+        // Arrange
+        long noteId = database.addNote("foo", 1, 2, 3);
+        File photo = writeFile("geonotes_1.jpg", 100);
+        File thumbnail = writeFile("geonotes_1_thumb.jpg", 10);
+        database.addPhoto(noteId, photo);
+
+        File orphanedPhoto = writeFile("geonotes_2.jpg", 200);
+        File orphanedThumbnail = writeFile("geonotes_2_thumb.jpg", 20);
+        File orphanedThumbnailOnly = writeFile("geonotes_3_thumb.jpg", 30);
+
+        // Act
+        long freedBytes = PhotoMaintenance.cleanUp(database, storageDir, now);
+
+        // Assert
+        Assert.assertEquals(250, freedBytes);
+        Assert.assertTrue(photo.exists());
+        Assert.assertTrue(thumbnail.exists());
+        Assert.assertFalse(orphanedPhoto.exists());
+        Assert.assertFalse(orphanedThumbnail.exists());
+        Assert.assertFalse(orphanedThumbnailOnly.exists());
+    }
+
+    @Test
+    public void testCleanUp_keepsOtherAndNewFiles() throws IOException {
+        // Arrange
+        File export = writeFile("geonotes-export_2022-01-30_12-34-56.geojson", 100);
+        File backup = writeFile("geonotes-backup_2022-01-30_12-34-56.gnbk", 100);
+        File otherFile = writeFile("foo.jpg", 100);
+        File newPhoto = writeFile("geonotes_1.jpg", 100);
+        newPhoto.setLastModified(now - TimeUnit.HOURS.toMillis(1));
+
+        // Act
+        long freedBytes = PhotoMaintenance.cleanUp(database, storageDir, now);
+
+        // Assert
+        Assert.assertEquals(0, freedBytes);
+        Assert.assertTrue(export.exists());
+        Assert.assertTrue(backup.exists());
+        Assert.assertTrue(otherFile.exists());
+        Assert.assertTrue(newPhoto.exists());
+    }
+
+    @Test
+    public void testCleanUp_keepsPhotosWithoutFile() throws IOException {
+        // Arrange
+        long noteId = database.addNote("foo", 1, 2, 3);
+        database.addPhoto(noteId, writeFile("geonotes_1.jpg", 100));
+        database.addPhoto(noteId, new File(storageDir, "geonotes_2.jpg"));
+        long sequence = database.getLastChangeSequence();
+
+        // Act
+        PhotoMaintenance.cleanUp(database, storageDir, now);
+
+        // Assert
+        Assert.assertEquals(2, database.getPhotos("" + noteId).size());
+        Assert.assertEquals(sequence, database.getLastChangeSequence());
+    }
+
+    @Test
+    public void testCleanUp_noStorageDir_changesNothing() throws IOException {
+        // Arrange
+        long noteId = database.addNote("foo", 1, 2, 3);
+        database.addPhoto(noteId, writeFile("geonotes_1.jpg", 100));
+        long sequence = database.getLastChangeSequence();
+
+        // Act
+        long freedBytes = PhotoMaintenance.cleanUp(database, null, now);
+
+        // Assert
+        Assert.assertEquals(-1, freedBytes);
+        Assert.assertEquals(1, database.getPhotos("" + noteId).size());
+        Assert.assertEquals(sequence, database.getLastChangeSequence());
+    }
+
+    @Test
+    public void testCleanUp_missingStorageDir_changesNothing() throws IOException {
+        // Arrange
+        long noteId = database.addNote("foo", 1, 2, 3);
+        database.addPhoto(noteId, writeFile("geonotes_1.jpg", 100));
+        long sequence = database.getLastChangeSequence();
+
+        // Act
+        long freedBytes = PhotoMaintenance.cleanUp(database, new File(storageDir, "missing"), now);
+
+        // Assert
+        Assert.assertEquals(-1, freedBytes);
+        Assert.assertEquals(1, database.getPhotos("" + noteId).size());
+        Assert.assertEquals(sequence, database.getLastChangeSequence());
+    }
+
+    private File writeFile(String name, int size) throws IOException {
+        File file = new File(storageDir, name);
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[size]);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,105 @@
+package de.hauke_stieler.geonotes.photo;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import de.hauke_stieler.geonotes.common.LongSet;
+import de.hauke_stieler.geonotes.database.ChangeLog;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class PhotoStoreTest {
+
+    private SQLiteDatabase db;
+    private PhotoStore photoStore;
+
+    @Before
+    public void setup() {
+        db = SQLiteDatabase.create(null);
+
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.onCreate(db);
+
+        photoStore = new PhotoStore(changeLog);
+        photoStore.onCreate(db);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void testGetNoteIdsWithPhotos() {
+        // Arrange
+        photoStore.addPhoto(db, 1L, new File("a.jpg"));
+        photoStore.addPhoto(db, 1L, new File("b.jpg"));
+        photoStore.addPhoto(db, 3L, new File("c.jpg"));
+
+        // Act
+        LongSet noteIds = photoStore.getNoteIdsWithPhotos(db);
+
+        // Assert
+        Assert.assertEquals(2, noteIds.size());
+        Assert.assertTrue(noteIds.contains(1L));
+        Assert.assertTrue(noteIds.contains(3L));
+        Assert.assertTrue(photoStore.hasPhotos(db, "1"));
+        Assert.assertFalse(photoStore.hasPhotos(db, "2"));
+    }
+
+    @Test
+    public void testGetPhotos_usesIndex() {
+        // Arrange
+        addPhotos(1000);
+
+        // Act
+        String queryPlan = getQueryPlan("SELECT note, path FROM photos WHERE note=?", "42");
+
+        // Assert
+        Assert.assertTrue(queryPlan, queryPlan.contains("INDEX photos_note_index"));
+    }
+
+    @Test
+    public void testOnUpgrade_createsNoteIndex() {
+        // Arrange
+        db.execSQL("DROP INDEX photos_note_index");
+
+        // Act
+        photoStore.onUpgrade(db, 7, 8);
+
+        // Assert
+        String queryPlan = getQueryPlan("SELECT note, path FROM photos WHERE note=?", "42");
+        Assert.assertTrue(queryPlan, queryPlan.contains("INDEX photos_note_index"));
+    }
+
+    private String getQueryPlan(String query, String... args) {
+        StringBuilder queryPlan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, args)) {
+            while (cursor.moveToNext()) {
+                queryPlan.append(cursor.getString(cursor.getColumnIndex("detail"))).append("\n");
+            }
+        }
+        return queryPlan.toString();
+    }
+
+    private void addPhotos(int count) {
+        db.beginTransaction();
+        for (int i = 0; i < count; i++) {
+            photoStore.addPhoto(db, (long) (i % 100), new File("geonotes_" + i + ".jpg"));
+        }
+        db.setTransactionSuccessful();
+        db.endTransaction();
+    }
+}
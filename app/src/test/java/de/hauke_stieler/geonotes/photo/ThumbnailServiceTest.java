@@ -0,0 +1,135 @@
+package de.hauke_stieler.geonotes.photo;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.os.Build;
+import android.os.Looper;
+import android.widget.ImageView;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class ThumbnailServiceTest {
+
+    private static final int THUMBNAIL_SIZE = 150;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Context context;
+    private ThumbnailService thumbnailService;
+
+    @Before
+    public void setup() {
+        context = ApplicationProvider.getApplicationContext();
+        thumbnailService = new ThumbnailService(context);
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        // Arrange
+        File photoFile = writePhotoWithThumbnail("geonotes_1.jpg");
+        ImageView imageView = new ImageView(context);
+
+        // Act
+        Future<?> request = thumbnailService.load(photoFile, THUMBNAIL_SIZE, imageView);
+
+        // Assert
+        Assert.assertNotNull(request);
+        Assert.assertTrue(imageView.getDrawable() instanceof ColorDrawable);
+
+        request.get();
+        shadowOf(Looper.getMainLooper()).idle();
+        Assert.assertTrue(imageView.getDrawable() instanceof BitmapDrawable);
+    }
+
+    @Test
+    public void testLoad_cached() throws Exception {
+        // Arrange
+        File photoFile = writePhotoWithThumbnail("geonotes_1.jpg");
+        ImageView imageView = new ImageView(context);
+        thumbnailService.load(photoFile, THUMBNAIL_SIZE, imageView).get();
+        shadowOf(Looper.getMainLooper()).idle();
+        Bitmap loadedThumbnail = getBitmap(imageView);
+
+        // Act
+        ImageView otherImageView = new ImageView(context);
+        Future<?> request = thumbnailService.load(photoFile, THUMBNAIL_SIZE, otherImageView);
+
+        // Assert
+        Assert.assertNull(request);
+        Assert.assertSame(loadedThumbnail, getBitmap(otherImageView));
+    }
+
+    @Test
+    public void testLoad_reusedView_showsLatestPhoto() throws Exception {
+        // Arrange
+        File photoFile1 = writePhotoWithThumbnail("geonotes_1.jpg");
+        File photoFile2 = writePhotoWithThumbnail("geonotes_2.jpg");
+        ImageView imageView = new ImageView(context);
+
+        // Act
+        Future<?> request1 = thumbnailService.load(photoFile1, THUMBNAIL_SIZE, imageView);
+        Future<?> request2 = thumbnailService.load(photoFile2, THUMBNAIL_SIZE, imageView);
+        request1.get();
+        request2.get();
+        shadowOf(Looper.getMainLooper()).idle();
+
+        // Assert
+        ImageView cachedImageView = new ImageView(context);
+        Assert.assertNull(thumbnailService.load(photoFile2, THUMBNAIL_SIZE, cachedImageView));
+        Assert.assertSame(getBitmap(cachedImageView), getBitmap(imageView));
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+        // Arrange
+        File photoFile = temporaryFolder.newFile("geonotes_1.jpg");
+        ImageIO.write(new BufferedImage(400, 300, BufferedImage.TYPE_BYTE_GRAY), "jpg", photoFile);
+        boolean[] result = new boolean[1];
+
+        // Act
+        thumbnailService.create(photoFile, THUMBNAIL_SIZE, successful -> result[0] = successful);
+
+        // Assert
+        File thumbnailFile = ThumbnailUtil.getThumbnailFile(photoFile);
+        for (int i = 0; i < 100 && !result[0]; i++) {
+            Thread.sleep(50);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        Assert.assertTrue(result[0]);
+        Assert.assertTrue(thumbnailFile.exists());
+    }
+
+    private Bitmap getBitmap(ImageView imageView) {
+        return ((BitmapDrawable) imageView.getDrawable()).getBitmap();
+    }
+
+    private File writePhotoWithThumbnail(String fileName) throws IOException {
+        File photoFile = temporaryFolder.newFile(fileName);
+        ImageIO.write(new BufferedImage(400, 300, BufferedImage.TYPE_BYTE_GRAY), "jpg", photoFile);
+        ImageIO.write(new BufferedImage(THUMBNAIL_SIZE, THUMBNAIL_SIZE, BufferedImage.TYPE_BYTE_GRAY), "jpg", ThumbnailUtil.getThumbnailFile(photoFile));
+        return photoFile;
+    }
+}
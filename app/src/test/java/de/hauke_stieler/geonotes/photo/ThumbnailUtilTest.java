@@ -0,0 +1,136 @@
+package de.hauke_stieler.geonotes.photo;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.os.Build;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+@RunWith(AndroidJUnit4.class)
+@Config(maxSdk = Build.VERSION_CODES.P, minSdk = Build.VERSION_CODES.P) // Value of Build.VERSION_CODES.P is 28
+public class ThumbnailUtilTest {
+
+    private static final int THUMBNAIL_SIZE = 150;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCalculateInSampleSize() {
+        Assert.assertEquals(1, ThumbnailUtil.calculateInSampleSize(100, 150));
+        Assert.assertEquals(1, ThumbnailUtil.calculateInSampleSize(150, 150));
+        Assert.assertEquals(1, ThumbnailUtil.calculateInSampleSize(299, 150));
+        Assert.assertEquals(2, ThumbnailUtil.calculateInSampleSize(300, 150));
+        Assert.assertEquals(16, ThumbnailUtil.calculateInSampleSize(4000, 150));
+    }
+
+    @Test
+    public void testDecodeSampledBitmap_largePhotos() throws IOException {
+        int[][] photoSizes = {{4000, 3000}, {8000, 6000}, {3000, 4000}, {6000, 3000}};
+
+        for (int[] photoSize : photoSizes) {
+            // Arrange
+            File photoFile = writeJpeg(photoSize[0], photoSize[1]);
+            long fullSizeByteCount = (long) photoSize[0] * photoSize[1] * 4;
+
+            // Act
+            Bitmap bitmap = ThumbnailUtil.decodeSampledBitmap(THUMBNAIL_SIZE, photoFile);
+
+            // Assert
+            int shorterSide = Math.min(bitmap.getWidth(), bitmap.getHeight());
+            Assert.assertTrue("Too small: " + shorterSide, shorterSide >= THUMBNAIL_SIZE);
+            Assert.assertTrue("Too large: " + shorterSide, shorterSide < 2 * THUMBNAIL_SIZE);
+            // The decoded bitmap is the peak allocation. It must stay far below the full photo.
+            Assert.assertTrue(bitmap.getByteCount() < 4 * (2 * THUMBNAIL_SIZE) * (4 * THUMBNAIL_SIZE));
+            Assert.assertTrue(bitmap.getByteCount() * 100L < fullSizeByteCount);
+
+            bitmap.recycle();
+        }
+    }
+
+    @Test
+    public void testDecodeSampledBitmap_smallPhoto() throws IOException {
+        // Arrange
+        File photoFile = writeJpeg(120, 80);
+
+        // Act
+        Bitmap bitmap = ThumbnailUtil.decodeSampledBitmap(THUMBNAIL_SIZE, photoFile);
+
+        // Assert
+        Assert.assertEquals(120, bitmap.getWidth());
+        Assert.assertEquals(80, bitmap.getHeight());
+    }
+
+    @Test
+    public void testDecodeSampledBitmap_noImage() throws IOException {
+        // Arrange
+        File photoFile = temporaryFolder.newFile("no_image.jpg");
+
+        // Act
+        Bitmap bitmap = ThumbnailUtil.decodeSampledBitmap(THUMBNAIL_SIZE, photoFile);
+
+        // Assert
+        Assert.assertNull(bitmap);
+    }
+
+    @Test
+    public void testCreateThumbnail() throws IOException {
+        // Arrange
+        File photoFile = writeJpeg(4000, 3000);
+        ExifInterface exif = new ExifInterface(photoFile.getAbsolutePath());
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, "" + ExifInterface.ORIENTATION_ROTATE_90);
+        exif.saveAttributes();
+
+        // Act
+        Bitmap thumbnail = ThumbnailUtil.createThumbnail(THUMBNAIL_SIZE, photoFile);
+
+        // Assert
+        Assert.assertEquals(THUMBNAIL_SIZE, thumbnail.getWidth());
+        Assert.assertEquals(THUMBNAIL_SIZE, thumbnail.getHeight());
+    }
+
+    @Test
+    public void testGetOrientationMatrix() {
+        Assert.assertTrue(ThumbnailUtil.getOrientationMatrix(ExifInterface.ORIENTATION_NORMAL).isIdentity());
+        Assert.assertTrue(ThumbnailUtil.getOrientationMatrix(ExifInterface.ORIENTATION_UNDEFINED).isIdentity());
+
+        assertMapsPoint(ExifInterface.ORIENTATION_ROTATE_90, 1, 0, 0, 1);
+        assertMapsPoint(ExifInterface.ORIENTATION_ROTATE_180, 1, 0, -1, 0);
+        assertMapsPoint(ExifInterface.ORIENTATION_ROTATE_270, 1, 0, 0, -1);
+        assertMapsPoint(ExifInterface.ORIENTATION_FLIP_HORIZONTAL, 1, 2, -1, 2);
+        assertMapsPoint(ExifInterface.ORIENTATION_FLIP_VERTICAL, 1, 2, 1, -2);
+        assertMapsPoint(ExifInterface.ORIENTATION_TRANSPOSE, 1, 2, 2, 1);
+        assertMapsPoint(ExifInterface.ORIENTATION_TRANSVERSE, 1, 2, -2, -1);
+    }
+
+    private void assertMapsPoint(int exifOrientation, float x, float y, float expectedX, float expectedY) {
+        Matrix matrix = ThumbnailUtil.getOrientationMatrix(exifOrientation);
+        float[] point = {x, y};
+
+        matrix.mapPoints(point);
+
+        Assert.assertEquals(expectedX, point[0], 0.0001);
+        Assert.assertEquals(expectedY, point[1], 0.0001);
+    }
+
+    private File writeJpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        File file = temporaryFolder.newFile("photo_" + width + "x" + height + ".jpg");
+        ImageIO.write(image, "jpg", file);
+        return file;
+    }
+}